@@ -0,0 +1,265 @@
+package uk.co.devworx.maven.deploy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates synthetic jars and POMs for the benchmarks - and, through {@link #main(String[])}, whole repository
+ * trees to scan. Everything is derived from a seed, so the same arguments always give the same bytes.
+ *
+ * The entry data is half random and half repeated text, so it compresses roughly as class files do.
+ */
+public final class BenchmarkCorpus
+{
+	private BenchmarkCorpus()
+	{
+	}
+
+	/**
+	 * Usage : BenchmarkCorpus [output directory] [artifact count] [mean entries per jar] [entry size] [seed]
+	 *
+	 * See {@link #writeRepository(Path, int, int, int, long)}.
+	 */
+	public static void main(String... args) throws IOException
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage : BenchmarkCorpus [output directory] [artifact count] [mean entries per jar (default 100)] [entry size (default 2048)] [seed (default 42)]");
+			System.exit(1);
+		}
+		final Path outputDir = Paths.get(args[0]);
+		final int artifactCount = Integer.parseInt(args[1]);
+		final int entryCount = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+		final int entrySize = args.length > 3 ? Integer.parseInt(args[3]) : 2048;
+		final long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+
+		final Summary summary = writeRepository(outputDir, artifactCount, entryCount, entrySize, seed);
+		System.out.println("Wrote " + summary + " to : " + outputDir.toAbsolutePath());
+	}
+
+	/**
+	 * What {@link #writeRepository(Path, int, int, int, long)} wrote.
+	 */
+	public static final class Summary
+	{
+		public int parentPoms;
+		public int jars;
+		public int wars;
+		public int pluginJars;
+		public int sourcesJars;
+		public long bytes;
+
+		public int artifacts()
+		{
+			return parentPoms + jars + wars + pluginJars;
+		}
+
+		@Override public String toString()
+		{
+			return artifacts() + " artifacts (" + parentPoms + " parent POMs, " + jars + " jars, " + wars + " wars, " + pluginJars + " plugin jars; " + sourcesJars + " sources jars) - " + bytes + " bytes";
+		}
+	}
+
+	/**
+	 * Writes a Maven 2 repository layout of artifactCount artifacts, shaped like a typical corporate repository :
+	 *
+	 * - the artifacts come in multi-module projects of 2 to 10 artifacts - a parent POM, then modules that inherit
+	 *   their groupId and version from it (so they only resolve through the parent);
+	 * - modules are mostly jars - 1 in 10 is a war, and 1 in 8 a maven-plugin with a META-INF/maven/plugin.xml;
+	 * - 7 in 10 modules have a sources jar;
+	 * - the number of entries per jar is log-normally distributed around entryCount, so a few jars are far
+	 *   larger than the rest.
+	 *
+	 * Each artifact also gets its .pom alongside, as in a real repository.
+	 */
+	public static Summary writeRepository(Path outputDir, int artifactCount, int entryCount, int entrySize, long seed) throws IOException
+	{
+		final Random random = new Random(seed);
+		final Summary summary = new Summary();
+		int written = 0;
+		int project = 0;
+		while (written < artifactCount)
+		{
+			final String groupId = "com.example.division" + (project % 20) + ".project" + project;
+			final String parentArtifactId = "project" + project + "-parent";
+			final String version = (1 + random.nextInt(3)) + "." + random.nextInt(10) + (random.nextInt(5) == 0 ? "-SNAPSHOT" : "");
+
+			final Path parentDir = versionDir(outputDir, groupId, parentArtifactId, version);
+			summary.bytes += write(parentDir.resolve(parentArtifactId + "-" + version + ".pom"), pom(groupId, parentArtifactId, version, "pom", 10, 0));
+			summary.parentPoms++;
+			written++;
+
+			final int modules = Math.min(1 + random.nextInt(9), artifactCount - written);
+			for (int m = 0; m < modules; m++)
+			{
+				final String artifactId = "project" + project + "-module" + m;
+				final int kind = random.nextInt(40);
+				final String packaging = kind < 4 ? "war" : kind < 9 ? "maven-plugin" : "jar";
+				final String extension = kind < 4 ? ".war" : ".jar";
+				final byte[] pom = childPom(groupId, parentArtifactId, version, artifactId, packaging, m);
+				final int entries = (int) Math.max(1, Math.min(entryCount * 50L, Math.round(entryCount * Math.exp(random.nextGaussian() - 0.5))));
+
+				final Path dir = versionDir(outputDir, groupId, artifactId, version);
+				final Path jar = dir.resolve(artifactId + "-" + version + extension);
+				writeJar(jar, groupId, artifactId, pom, "maven-plugin".equals(packaging), entries, entrySize, random.nextLong());
+				summary.bytes += Files.size(jar);
+				summary.bytes += write(dir.resolve(artifactId + "-" + version + ".pom"), pom);
+
+				if (random.nextInt(10) < 7)
+				{
+					final Path sources = dir.resolve(artifactId + "-" + version + "-sources.jar");
+					writeJar(sources, groupId, artifactId, null, false, Math.max(1, entries / 2), entrySize, random.nextLong());
+					summary.bytes += Files.size(sources);
+					summary.sourcesJars++;
+				}
+
+				if ("war".equals(packaging)) summary.wars++;
+				else if ("maven-plugin".equals(packaging)) summary.pluginJars++;
+				else summary.jars++;
+				written++;
+			}
+			project++;
+		}
+		return summary;
+	}
+
+	private static Path versionDir(Path outputDir, String groupId, String artifactId, String version) throws IOException
+	{
+		return Files.createDirectories(outputDir.resolve(groupId.replace('.', '/')).resolve(artifactId).resolve(version));
+	}
+
+	private static long write(Path file, byte[] data) throws IOException
+	{
+		Files.write(file, data);
+		return data.length;
+	}
+
+	/**
+	 * As {@link #writeJar(Path, String, String, byte[], boolean, int, int, long)}, with a POM of the given
+	 * coordinates and a plugin.xml.
+	 */
+	public static void writeJar(Path jarFile, String groupId, String artifactId, String version, int entryCount, int entrySize, long seed) throws IOException
+	{
+		writeJar(jarFile, groupId, artifactId, pom(groupId, artifactId, version, "jar", 5, 5), true, entryCount, entrySize, seed);
+	}
+
+	/**
+	 * Writes a jar with the given number of class-like entries, plus - if there is a POM -
+	 * META-INF/maven/[groupId]/[artifactId]/pom.xml and pom.properties, and optionally META-INF/maven/plugin.xml.
+	 */
+	public static void writeJar(Path jarFile, String groupId, String artifactId, byte[] pom, boolean pluginXml, int entryCount, int entrySize, long seed) throws IOException
+	{
+		final Random random = new Random(seed);
+		final byte[] text = ("public class " + artifactId + " { } // ").getBytes(StandardCharsets.UTF_8);
+		final byte[] data = new byte[entrySize];
+
+		try (OutputStream out = Files.newOutputStream(jarFile);
+			 ZipOutputStream zos = new ZipOutputStream(out))
+		{
+			zos.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+			zos.write("Manifest-Version: 1.0\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+			zos.closeEntry();
+
+			for (int e = 0; e < entryCount; e++)
+			{
+				random.nextBytes(data);
+				for (int b = entrySize / 2; b < entrySize; b++)
+				{
+					data[b] = text[b % text.length];
+				}
+				zos.putNextEntry(new ZipEntry(groupId.replace('.', '/') + "/p" + (e % 16) + "/Class" + e + ".class"));
+				zos.write(data);
+				zos.closeEntry();
+			}
+
+			if (pom == null)
+			{
+				return;
+			}
+			final String mavenDir = "META-INF/maven/" + groupId + "/" + artifactId + "/";
+			zos.putNextEntry(new ZipEntry(mavenDir + "pom.xml"));
+			zos.write(pom);
+			zos.closeEntry();
+			zos.putNextEntry(new ZipEntry(mavenDir + "pom.properties"));
+			zos.write(("groupId=" + groupId + "\nartifactId=" + artifactId + "\n").getBytes(StandardCharsets.UTF_8));
+			zos.closeEntry();
+			if (pluginXml)
+			{
+				zos.putNextEntry(new ZipEntry("META-INF/maven/plugin.xml"));
+				zos.write(("<plugin><groupId>" + groupId + "</groupId><artifactId>" + artifactId + "</artifactId></plugin>").getBytes(StandardCharsets.UTF_8));
+				zos.closeEntry();
+			}
+		}
+	}
+
+	/**
+	 * @return the POM of a module - its groupId and version are inherited from the parent, and it depends on the
+	 * modules before it (through ${project.version}).
+	 */
+	public static byte[] childPom(String parentGroupId, String parentArtifactId, String parentVersion, String artifactId, String packaging, int earlierModules)
+	{
+		final StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		xml.append("<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n");
+		xml.append("  <modelVersion>4.0.0</modelVersion>\n");
+		xml.append("  <parent>\n");
+		xml.append("    <groupId>").append(parentGroupId).append("</groupId>\n");
+		xml.append("    <artifactId>").append(parentArtifactId).append("</artifactId>\n");
+		xml.append("    <version>").append(parentVersion).append("</version>\n");
+		xml.append("  </parent>\n");
+		xml.append("  <artifactId>").append(artifactId).append("</artifactId>\n");
+		xml.append("  <packaging>").append(packaging).append("</packaging>\n");
+		xml.append("  <dependencies>\n");
+		for (int d = Math.max(0, earlierModules - 3); d < earlierModules; d++)
+		{
+			xml.append("    <dependency>\n");
+			xml.append("      <groupId>${project.groupId}</groupId>\n");
+			xml.append("      <artifactId>").append(parentArtifactId.replace("-parent", "-module")).append(d).append("</artifactId>\n");
+			xml.append("      <version>${project.version}</version>\n");
+			xml.append("    </dependency>\n");
+		}
+		xml.append("  </dependencies>\n");
+		xml.append("</project>\n");
+		return xml.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return a POM with the given number of properties and dependencies - the dependencies in the same group.
+	 */
+	public static byte[] pom(String groupId, String artifactId, String version, String packaging, int propertyCount, int dependencyCount)
+	{
+		final StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		xml.append("<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n");
+		xml.append("  <modelVersion>4.0.0</modelVersion>\n");
+		xml.append("  <groupId>").append(groupId).append("</groupId>\n");
+		xml.append("  <artifactId>").append(artifactId).append("</artifactId>\n");
+		xml.append("  <version>").append(version).append("</version>\n");
+		xml.append("  <packaging>").append(packaging).append("</packaging>\n");
+		xml.append("  <properties>\n");
+		for (int p = 0; p < propertyCount; p++)
+		{
+			xml.append("    <property.").append(p).append(">").append(groupId).append(".value").append(p).append("</property.").append(p).append(">\n");
+		}
+		xml.append("  </properties>\n");
+		xml.append("  <dependencies>\n");
+		for (int d = 0; d < dependencyCount; d++)
+		{
+			xml.append("    <dependency>\n");
+			xml.append("      <groupId>").append(groupId).append("</groupId>\n");
+			xml.append("      <artifactId>dependency-").append(d).append("</artifactId>\n");
+			xml.append("      <version>${project.version}</version>\n");
+			xml.append("    </dependency>\n");
+		}
+		xml.append("  </dependencies>\n");
+		xml.append("</project>\n");
+		return xml.toString().getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,69 @@
+package uk.co.devworx.maven.deploy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rewriting the group ids of a POM, with an increasing number of replacements configured - only one of which
+ * matches the POM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GroupIdRewriterBenchmark
+{
+	@Param({ "1", "100", "10000" })
+	public int replacementCount;
+
+	@Param({ "5", "500" })
+	public int pomSize;
+
+	private byte[] pom;
+	private GroupIdRewriter rewriter;
+
+	@Setup
+	public void setUp()
+	{
+		pom = BenchmarkCorpus.pom("com.example.group", "artifact", "1.0", "jar", pomSize, pomSize);
+		final Map<String, String> replacements = new HashMap<>();
+		replacements.put("com.example.group", "com.replaced.group");
+		for (int i = 1; i < replacementCount; i++)
+		{
+			replacements.put("org.other" + i + ".*", "com.replaced.other" + i);
+		}
+		rewriter = new GroupIdRewriter(replacements);
+	}
+
+	@Benchmark
+	public byte[] rewrite()
+	{
+		return rewriter.rewrite(pom);
+	}
+
+	@Benchmark
+	public GroupIdRewriter compile()
+	{
+		final Map<String, String> replacements = new HashMap<>();
+		for (int i = 0; i < replacementCount; i++)
+		{
+			replacements.put("org.other" + i + ".*", "com.replaced.other" + i);
+		}
+		return new GroupIdRewriter(replacements);
+	}
+}
@@ -0,0 +1,61 @@
+package uk.co.devworx.maven.deploy;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the coordinates of a POM (which stops once they are found) and reading it in full (properties and
+ * dependencies), for POMs of increasing size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PomParsingBenchmark
+{
+	@Param({ "0", "50", "500" })
+	public int size;
+
+	private byte[] pom;
+
+	@Setup
+	public void setUp()
+	{
+		Configurator.setAllLevels(LogManager.getRootLogger().getName(), Level.WARN);
+		pom = BenchmarkCorpus.pom("com.example.group", "artifact", "1.0", "jar", size, size);
+	}
+
+	@Benchmark
+	public PomModel readCoordinates()
+	{
+		return PomModel.readCoordinates(pom);
+	}
+
+	@Benchmark
+	public PomModel readFull()
+	{
+		return PomModel.readFull(pom);
+	}
+
+	@Benchmark
+	public byte[] digest()
+	{
+		return PomFileUtils.digest(pom);
+	}
+}
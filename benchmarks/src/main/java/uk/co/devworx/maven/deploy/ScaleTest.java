@@ -0,0 +1,244 @@
+package uk.co.devworx.maven.deploy;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.config.Configurator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs getPomFileExtracts and generateScript against synthetic repositories (see {@link BenchmarkCorpus}) of
+ * increasing size, and reports the throughput and peak memory at each size.
+ *
+ * Usage : ScaleTest [work directory] [sizes, e.g. 10000,100000,500000] [threads (default 1)] [--scan-only]
+ *
+ * The corpus of each size is written under the work directory the first time, and reused after. Each size runs
+ * in a JVM of its own, so its peak RSS (VmHWM, from /proc - Linux only) and peak heap are its own.
+ */
+public final class ScaleTest
+{
+	private static final String RUN = "--run";
+	private static final String SCAN_ONLY = "--scan-only";
+	private static final String RESULT_PREFIX = "RESULT ";
+
+	private ScaleTest()
+	{
+	}
+
+	public static void main(String... args) throws Exception
+	{
+		if (args.length > 0 && RUN.equals(args[0]))
+		{
+			run(Paths.get(args[1]), Paths.get(args[2]), Integer.parseInt(args[3]), Boolean.parseBoolean(args[4]));
+			return;
+		}
+		if (args.length < 2)
+		{
+			System.err.println("Usage : ScaleTest [work directory] [sizes, e.g. 10000,100000,500000] [threads (default 1)] [--scan-only]");
+			System.exit(1);
+		}
+
+		final Path workDir = Paths.get(args[0]);
+		final int threads = args.length > 2 && args[2].startsWith("--") == false ? Integer.parseInt(args[2]) : 1;
+		final boolean scanOnly = args[args.length - 1].equals(SCAN_ONLY);
+
+		final List<Map<String, String>> results = new ArrayList<>();
+		for (String size : args[1].split(","))
+		{
+			final int artifactCount = Integer.parseInt(size.trim());
+			final Path corpus = workDir.resolve("corpus-" + artifactCount);
+			if (Files.exists(corpus) == false)
+			{
+				final long start = System.nanoTime();
+				final BenchmarkCorpus.Summary summary = BenchmarkCorpus.writeRepository(corpus, artifactCount, 100, 2048, 42);
+				System.out.println("Generated " + summary + " in " + seconds(System.nanoTime() - start) + "s");
+			}
+			final Map<String, String> result = fork(corpus, workDir.resolve("output-" + artifactCount), threads, scanOnly);
+			result.put("size", String.valueOf(artifactCount));
+			results.add(result);
+		}
+
+		System.out.println();
+		System.out.println(String.format("%10s %10s %10s %12s %12s %12s %14s %14s", "size", "extracts", "scan s", "scanned/s", "generate s", "generated/s", "peak RSS MB", "peak heap MB"));
+		for (Map<String, String> r : results)
+		{
+			System.out.println(String.format("%10s %10s %10s %12s %12s %12s %14s %14s",
+											 r.get("size"), r.get("extracts"), r.get("scanSeconds"), r.get("scanRate"),
+											 r.getOrDefault("generateSeconds", "-"), r.getOrDefault("generateRate", "-"),
+											 r.get("peakRssMb"), r.get("peakHeapMb")));
+		}
+	}
+
+	/**
+	 * Runs one size in a JVM of its own - with the same classpath and heap settings - and reads back its results.
+	 */
+	private static Map<String, String> fork(Path corpus, Path outputDir, int threads, boolean scanOnly) throws IOException, InterruptedException
+	{
+		final List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(ScaleTest.class.getName());
+		command.add(RUN);
+		command.add(corpus.toString());
+		command.add(outputDir.toString());
+		command.add(String.valueOf(threads));
+		command.add(String.valueOf(scanOnly));
+
+		final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		final Map<String, String> result = new LinkedHashMap<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)))
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				if (line.startsWith(RESULT_PREFIX))
+				{
+					final String[] keyValue = line.substring(RESULT_PREFIX.length()).split("=", 2);
+					result.put(keyValue[0], keyValue[1]);
+				}
+				else
+				{
+					System.out.println(line);
+				}
+			}
+		}
+		if (process.waitFor() != 0)
+		{
+			throw new RuntimeException("The scale test of : " + corpus + " - failed with exit code " + process.exitValue());
+		}
+		return result;
+	}
+
+	private static void run(Path corpus, Path outputDir, int threads, boolean scanOnly) throws IOException
+	{
+		Configurator.setAllLevels(LogManager.getRootLogger().getName(), Level.WARN);
+		final GenerateMavenDeployScripts gen = new GenerateMavenDeployScripts(corpus,
+																			  OSTarget.Unix,
+																			  ScriptType.LocalRepoInstall,
+																			  Collections.singletonMap("com.example.*", "com.replaced"),
+																			  Collections.emptySet(),
+																			  Collections.emptySet());
+		gen.setRetainPomFileData(false);
+		final ExecutorService discoveryExecutor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+		final ExecutorService stagingExecutor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+		try
+		{
+			if (discoveryExecutor != null)
+			{
+				gen.setDiscoveryExecutor(discoveryExecutor);
+				gen.setStagingExecutor(stagingExecutor);
+			}
+
+			long start = System.nanoTime();
+			final int extracts = gen.getPomFileExtracts().size();
+			final long scanNanos = System.nanoTime() - start;
+			result("extracts", String.valueOf(extracts));
+			result("scanSeconds", seconds(scanNanos));
+			result("scanRate", rate(extracts, scanNanos));
+
+			if (scanOnly == false)
+			{
+				deleteRecursively(outputDir);
+				start = System.nanoTime();
+				gen.generateScript(outputDir, outputDir.resolve("settings.xml"), "https://repo.example.com/maven2", "example");
+				final long generateNanos = System.nanoTime() - start;
+				result("generateSeconds", seconds(generateNanos));
+				result("generateRate", rate(extracts, generateNanos));
+			}
+		}
+		finally
+		{
+			if (discoveryExecutor != null)
+			{
+				discoveryExecutor.shutdownNow();
+				stagingExecutor.shutdownNow();
+			}
+		}
+
+		result("peakRssMb", peakRssMb());
+		result("peakHeapMb", String.valueOf(peakHeapBytes() / (1024 * 1024)));
+	}
+
+	private static void result(String key, String value)
+	{
+		System.out.println(RESULT_PREFIX + key + "=" + value);
+	}
+
+	/**
+	 * @return VmHWM from /proc/self/status - the peak resident set size - or "n/a" where there is no /proc.
+	 */
+	private static String peakRssMb() throws IOException
+	{
+		final Path status = Paths.get("/proc/self/status");
+		if (Files.exists(status) == false)
+		{
+			return "n/a";
+		}
+		for (String line : Files.readAllLines(status, StandardCharsets.UTF_8))
+		{
+			if (line.startsWith("VmHWM:"))
+			{
+				final String kb = line.substring("VmHWM:".length()).replace("kB", "").trim();
+				return String.valueOf(Long.parseLong(kb) / 1024);
+			}
+		}
+		return "n/a";
+	}
+
+	private static long peakHeapBytes()
+	{
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+		{
+			if (pool.getType() == MemoryType.HEAP)
+			{
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	private static String seconds(long nanos)
+	{
+		return String.format("%.2f", nanos / 1e9);
+	}
+
+	private static String rate(int count, long nanos)
+	{
+		return String.format("%.0f", count / (nanos / 1e9));
+	}
+
+	private static void deleteRecursively(Path dir) throws IOException
+	{
+		if (Files.exists(dir) == false)
+		{
+			return;
+		}
+		final List<File> files = new ArrayList<>();
+		Files.walk(dir).forEach(p -> files.add(p.toFile()));
+		Collections.reverse(files);
+		for (File file : files)
+		{
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package uk.co.devworx.maven.deploy;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The jar hot paths - reading the embedded POM, and sanitising a jar either in place (the zip file system
+ * methods) or as a single pass rewrite.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZipUtilsBenchmark
+{
+	private static final String GROUP_ID = "com.example.group";
+
+	@Param({ "10", "1000" })
+	public int entryCount;
+
+	@Param({ "512", "65536" })
+	public int entrySize;
+
+	private Path dir;
+	private Path jar;
+	private Path workingCopy;
+	private Map<String, String> groupIdReplacements;
+	private GroupIdRewriter groupIdRewriter;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		Configurator.setAllLevels(LogManager.getRootLogger().getName(), Level.WARN);
+		dir = Files.createTempDirectory("ZipUtilsBenchmark");
+		jar = dir.resolve("artifact-1.0.jar");
+		workingCopy = dir.resolve("working-copy.jar");
+		BenchmarkCorpus.writeJar(jar, GROUP_ID, "artifact", "1.0", entryCount, entrySize, 42);
+		groupIdReplacements = Collections.singletonMap(GROUP_ID, "com.replaced");
+		groupIdRewriter = new GroupIdRewriter(groupIdReplacements);
+	}
+
+	/**
+	 * The in place methods change the jar, so each call gets a fresh copy - the copy is not measured.
+	 */
+	@Setup(org.openjdk.jmh.annotations.Level.Invocation)
+	public void copyJar() throws IOException
+	{
+		Files.copy(jar, workingCopy, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException
+	{
+		Files.deleteIfExists(workingCopy);
+		Files.deleteIfExists(jar);
+		Files.deleteIfExists(dir);
+	}
+
+	@Benchmark
+	public Optional<byte[]> getPomFileDataFromJar() throws IOException, URISyntaxException
+	{
+		return ZipUtils.getPomFileDataFromJar(jar);
+	}
+
+	@Benchmark
+	public void removeMavenSubDirFromJar() throws IOException, URISyntaxException
+	{
+		ZipUtils.removeMavenSubDirFromJar(workingCopy);
+	}
+
+	@Benchmark
+	public void replacePluginXMLInJar() throws IOException, URISyntaxException
+	{
+		ZipUtils.replacePluginXMLInJar(workingCopy, groupIdReplacements);
+	}
+
+	@Benchmark
+	public void rewriteJar() throws IOException
+	{
+		ZipUtils.rewriteJar(jar, new DiscardingOutputStream(), groupIdRewriter);
+	}
+
+	@Benchmark
+	public void rewriteJarStreaming() throws IOException
+	{
+		ZipUtils.rewriteJarStreaming(jar, workingCopy, groupIdRewriter);
+	}
+
+	private static final class DiscardingOutputStream extends OutputStream
+	{
+		@Override public void write(int b)
+		{
+		}
+
+		@Override public void write(byte[] b, int off, int len)
+		{
+		}
+	}
+}
@@ -34,6 +34,7 @@ public class Run_MavenDeployScriptsGen
 		OSTarget osTarget = OSTarget.Windows;
 
 		//Do an install into the local repo / or do a remote deployment.
+		//ScriptType.DirectRepositoryLayout writes straight into a repository layout instead (no mvn calls).
 		ScriptType scriptType = ScriptType.LocalRepoInstall;
 
 		//Specify the Target Directory to place the JARs, updated poms and deployment scripts.
@@ -57,6 +58,9 @@ public class Run_MavenDeployScriptsGen
 
 		gen.generateScript(targetGen, mavenSettingsFile, repoUrl, repositoryId);
 
+		//Or, for a drop directory - generate the script and then keep appending to it as files arrive.
+		//new ScanDirectoryWatcher(gen, targetGen, mavenSettingsFile, repoUrl, repositoryId).run();
+
 	}
 
 
@@ -0,0 +1,88 @@
+package uk.co.devworx.maven.deploy;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The jdk.jfr events behind {@link FlightEvent}. Only ever loaded through {@link FlightEvents#begin(FlightEvent.Kind)},
+ * once it has checked that jdk.jfr is there.
+ */
+@Category("Maven Deploy Utils")
+@StackTrace(false)
+abstract class ArtifactFlightEvent extends Event implements FlightEvent
+{
+	@Label("Path")
+	String path;
+
+	@Label("Coordinates")
+	String coordinates;
+
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+
+	@Label("Outcome")
+	String outcome;
+
+	static FlightEvent begin(Kind kind)
+	{
+		final ArtifactFlightEvent event;
+		switch (kind)
+		{
+			case DISCOVERY: event = new Discovery(); break;
+			case POM_PARSE: event = new PomParse(); break;
+			case JAR_REWRITE: event = new JarRewrite(); break;
+			default: event = new StagedCopy(); break;
+		}
+		event.begin();
+		return event;
+	}
+
+	@Override public boolean finish()
+	{
+		end();
+		return shouldCommit();
+	}
+
+	@Override public void commit(String path, String coordinates, long bytes, String outcome)
+	{
+		this.path = path;
+		this.coordinates = coordinates;
+		this.bytes = bytes;
+		this.outcome = outcome;
+		commit();
+	}
+
+	@Name("uk.co.devworx.maven.deploy.ArtifactDiscovery")
+	@Label("Artifact Discovery")
+	@Description("Creating the extract of a jar, war or pom found by the scan - reading and resolving its POM.")
+	static final class Discovery extends ArtifactFlightEvent
+	{
+	}
+
+	@Name("uk.co.devworx.maven.deploy.PomParse")
+	@Label("POM Parse")
+	@Description("Parsing a POM - its coordinates only, or in full.")
+	static final class PomParse extends ArtifactFlightEvent
+	{
+	}
+
+	@Name("uk.co.devworx.maven.deploy.JarRewrite")
+	@Label("Jar Rewrite")
+	@Description("Writing the sanitised copy of a jar or war.")
+	static final class JarRewrite extends ArtifactFlightEvent
+	{
+	}
+
+	@Name("uk.co.devworx.maven.deploy.StagedCopy")
+	@Label("Staged Copy")
+	@Description("Staging a file that needs no rewriting - copied, linked or referenced where it is.")
+	static final class StagedCopy extends ArtifactFlightEvent
+	{
+	}
+}
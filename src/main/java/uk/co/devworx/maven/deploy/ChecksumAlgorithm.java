@@ -0,0 +1,45 @@
+package uk.co.devworx.maven.deploy;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The checksums that can be written alongside staged artifacts, as [file].[extension] sidecar files
+ * holding the lower case hex digest - the form Maven repositories use.
+ */
+public enum ChecksumAlgorithm
+{
+	MD5("MD5", "md5"),
+	SHA1("SHA-1", "sha1"),
+	SHA256("SHA-256", "sha256"),
+	SHA512("SHA-512", "sha512");
+
+	private final String digestAlgorithm;
+	private final String fileExtension;
+
+	private ChecksumAlgorithm(String digestAlgorithm, String fileExtension)
+	{
+		this.digestAlgorithm = digestAlgorithm;
+		this.fileExtension = fileExtension;
+	}
+
+	/**
+	 * @return the extension of the sidecar file, without the dot.
+	 */
+	public String getFileExtension()
+	{
+		return fileExtension;
+	}
+
+	public MessageDigest newMessageDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance(digestAlgorithm);
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new RuntimeException("The " + digestAlgorithm + " digest is not available in this JVM - " + e, e);
+		}
+	}
+}
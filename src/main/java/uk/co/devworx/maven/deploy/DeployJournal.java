@@ -0,0 +1,183 @@
+package uk.co.devworx.maven.deploy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An append-only record of the artifacts that have been deployed, so a failed run can be restarted without
+ * deploying them again.
+ *
+ * Each line is "[groupId]:[artifactId]:[version] [content hash]" - an artifact is only skipped if both its
+ * coordinates and its content ({@link PomFileExtract#getContentHash()}) are unchanged.
+ *
+ * Lines are written straight away but only forced to disk (fsync) once every {@link #DEFAULT_SYNC_BATCH} records
+ * or {@link #DEFAULT_SYNC_INTERVAL_MILLIS}ms, whichever comes first, and on {@link #close()}. A machine crash can
+ * therefore lose the last few records - those artifacts are simply deployed again. A torn last line is ignored
+ * when the journal is next opened.
+ *
+ * The generated scripts append to the same file (with one echo per completed mvn command) and check it before
+ * each command, so a re-run of a script also skips what is done.
+ */
+public class DeployJournal implements Closeable
+{
+	private static final Logger logger = LogManager.getLogger(DeployJournal.class);
+
+	public static final int DEFAULT_SYNC_BATCH = 256;
+	public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 1000;
+
+	private static final int HASH_HEX_LENGTH = 40;
+
+	private final Path file;
+	private final Set<String> done = ConcurrentHashMap.newKeySet();
+	private final FileChannel channel;
+	private final int syncBatch;
+	private final long syncIntervalMillis;
+
+	private int unsynced;
+	private long lastSync = System.currentTimeMillis();
+
+	private DeployJournal(Path file, int syncBatch, long syncIntervalMillis) throws IOException
+	{
+		this.file = file;
+		this.syncBatch = syncBatch;
+		this.syncIntervalMillis = syncIntervalMillis;
+
+		if (Files.exists(file))
+		{
+			final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+			for (String line : lines)
+			{
+				if (isWellFormed(line))
+				{
+					done.add(line);
+				}
+			}
+			logger.info("Deploy journal : " + file + " - " + done.size() + " artifacts already deployed.");
+		}
+		else if (file.getParent() != null)
+		{
+			Files.createDirectories(file.getParent());
+		}
+
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		if (channel.size() > 0 && endsWithNewline() == false)
+		{
+			// Terminate the torn line, so the next record starts on a line of its own.
+			channel.write(ByteBuffer.wrap(new byte[] { '\n' }));
+		}
+	}
+
+	public static DeployJournal open(Path file)
+	{
+		return open(file, DEFAULT_SYNC_BATCH, DEFAULT_SYNC_INTERVAL_MILLIS);
+	}
+
+	public static DeployJournal open(Path file, int syncBatch, long syncIntervalMillis)
+	{
+		try
+		{
+			return new DeployJournal(file, syncBatch, syncIntervalMillis);
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Unable to open the deploy journal : " + file + " - got the exception : " + e, e);
+		}
+	}
+
+	private boolean endsWithNewline() throws IOException
+	{
+		try (FileChannel reader = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			final ByteBuffer last = ByteBuffer.allocate(1);
+			reader.read(last, reader.size() - 1);
+			return last.get(0) == '\n';
+		}
+	}
+
+	private static boolean isWellFormed(String line)
+	{
+		final int space = line.indexOf(' ');
+		return space > 0 && line.length() - space - 1 == HASH_HEX_LENGTH && line.indexOf(' ', space + 1) == -1;
+	}
+
+	public Path getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * @return the journal line of the extract.
+	 */
+	public static String entryOf(PomFileExtract extract)
+	{
+		return extract.getGroupId() + ":" + extract.getArtefactId() + ":" + extract.getVersionId() + " " + extract.getContentHash();
+	}
+
+	public boolean isDone(String entry)
+	{
+		return done.contains(entry);
+	}
+
+	/**
+	 * Records the entry as done. Safe to call from multiple threads.
+	 */
+	public synchronized void record(String entry)
+	{
+		if (done.add(entry) == false)
+		{
+			return;
+		}
+		try
+		{
+			final ByteBuffer line = ByteBuffer.wrap((entry + "\n").getBytes(StandardCharsets.UTF_8));
+			while (line.hasRemaining())
+			{
+				channel.write(line);
+			}
+			unsynced++;
+			if (unsynced >= syncBatch || System.currentTimeMillis() - lastSync >= syncIntervalMillis)
+			{
+				sync();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Unable to write to the deploy journal : " + file + " - got the exception : " + e, e);
+		}
+	}
+
+	private void sync() throws IOException
+	{
+		channel.force(false);
+		unsynced = 0;
+		lastSync = System.currentTimeMillis();
+	}
+
+	@Override public synchronized void close()
+	{
+		try
+		{
+			if (channel.isOpen())
+			{
+				sync();
+				channel.close();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Unable to close the deploy journal : " + file + " - got the exception : " + e, e);
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package uk.co.devworx.maven.deploy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The order in which a set of extracts should be installed / deployed.
+ *
+ * A dependency graph is built from the POMs of the extracts - an extract depends on its parent and on each of
+ * its &lt;dependencies&gt;, wherever those are also part of the set. These are recorded on each extract when its
+ * POM is scanned (see {@link PomFileExtract#getDependencies()}), so no POM is read again to build the plan. The extracts are then grouped into waves:
+ * everything in a wave depends only on extracts in earlier waves, so the extracts within a wave can be processed
+ * in parallel. Within a wave the extracts keep the order they were given in.
+ *
+ * A dependency given without a (resolvable) version is taken to be on every version of that artifact in the set.
+ * Should the POMs contain a cycle, the extracts on it (and those depending on them) are placed together in a final wave.
+ */
+public class DeployPlan
+{
+	private static final Logger logger = LogManager.getLogger(DeployPlan.class);
+
+	private final List<List<PomFileExtract>> waves;
+	private final int size;
+
+	private DeployPlan(List<List<PomFileExtract>> waves, int size)
+	{
+		this.waves = waves;
+		this.size = size;
+	}
+
+	public static DeployPlan build(List<PomFileExtract> extracts)
+	{
+		final int count = extracts.size();
+		final Map<String, Integer> byCoordinates = new HashMap<>();
+		final Map<String, List<Integer>> byGroupArtifact = new HashMap<>();
+		for (int i = 0; i < count; i++)
+		{
+			final PomFileExtract extract = extracts.get(i);
+			byCoordinates.putIfAbsent(extract.getGroupId() + ":" + extract.getArtefactId() + ":" + extract.getVersionId(), i);
+			byGroupArtifact.computeIfAbsent(extract.getGroupId() + ":" + extract.getArtefactId(), k -> new ArrayList<>()).add(i);
+		}
+
+		final List<BitSet> prerequisites = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+		{
+			prerequisites.add(prerequisitesOf(i, extracts.get(i), byCoordinates, byGroupArtifact));
+		}
+
+		// Kahn's algorithm, a level at a time - each extract goes in the wave after the latest of its prerequisites.
+		final List<List<Integer>> dependents = new ArrayList<>(count);
+		final int[] unplacedPrerequisites = new int[count];
+		for (int i = 0; i < count; i++)
+		{
+			dependents.add(new ArrayList<>());
+		}
+		for (int i = 0; i < count; i++)
+		{
+			final BitSet p = prerequisites.get(i);
+			unplacedPrerequisites[i] = p.cardinality();
+			for (int j = p.nextSetBit(0); j >= 0; j = p.nextSetBit(j + 1))
+			{
+				dependents.get(j).add(i);
+			}
+		}
+
+		final int[] wave = new int[count];
+		final BitSet placed = new BitSet(count);
+		List<Integer> current = new ArrayList<>();
+		for (int i = 0; i < count; i++)
+		{
+			if (unplacedPrerequisites[i] == 0) current.add(i);
+		}
+
+		int waveCount = 0;
+		while (current.isEmpty() == false)
+		{
+			final List<Integer> next = new ArrayList<>();
+			for (int i : current)
+			{
+				wave[i] = waveCount;
+				placed.set(i);
+				for (int dependent : dependents.get(i))
+				{
+					if (--unplacedPrerequisites[dependent] == 0) next.add(dependent);
+				}
+			}
+			waveCount++;
+			current = next;
+		}
+
+		if (placed.cardinality() < count)
+		{
+			final List<PomFileExtract> cyclic = new ArrayList<>();
+			for (int i = placed.nextClearBit(0); i < count; i = placed.nextClearBit(i + 1))
+			{
+				wave[i] = waveCount;
+				cyclic.add(extracts.get(i));
+			}
+			waveCount++;
+			logger.warn("The POMs of " + cyclic.size() + " extracts are on (or depend on) a dependency cycle - they are placed together in the final wave : " + cyclic);
+		}
+
+		final List<List<PomFileExtract>> waves = new ArrayList<>(waveCount);
+		for (int w = 0; w < waveCount; w++)
+		{
+			waves.add(new ArrayList<>());
+		}
+		for (int i = 0; i < count; i++)
+		{
+			waves.get(wave[i]).add(extracts.get(i));
+		}
+		for (int w = 0; w < waveCount; w++)
+		{
+			waves.set(w, Collections.unmodifiableList(waves.get(w)));
+		}
+
+		logger.info("Deploy plan - " + count + " extracts in " + waveCount + " waves.");
+		return new DeployPlan(Collections.unmodifiableList(waves), count);
+	}
+
+	private static BitSet prerequisitesOf(int index,
+										  PomFileExtract extract,
+										  Map<String, Integer> byCoordinates,
+										  Map<String, List<Integer>> byGroupArtifact)
+	{
+		final BitSet prerequisites = new BitSet();
+		if (extract.getParentCoordinates().isPresent())
+		{
+			final Integer parent = byCoordinates.get(extract.getParentCoordinates().get());
+			if (parent != null)
+			{
+				prerequisites.set(parent);
+			}
+		}
+
+		for (PomModel.Dependency dependency : extract.getDependencies())
+		{
+			final String groupArtifact = dependency.getGroupId() + ":" + dependency.getArtifactId();
+			final Integer exact = dependency.getVersion().isPresent() ? byCoordinates.get(groupArtifact + ":" + dependency.getVersion().get()) : null;
+			if (exact != null)
+			{
+				prerequisites.set(exact);
+			}
+			else
+			{
+				for (Integer other : byGroupArtifact.getOrDefault(groupArtifact, Collections.emptyList()))
+				{
+					prerequisites.set(other);
+				}
+			}
+		}
+
+		// A POM can name itself as its parent (or depend on itself) - that is not an ordering constraint.
+		prerequisites.clear(index);
+		return prerequisites;
+	}
+
+	/**
+	 * @return the waves, in the order they must be processed.
+	 */
+	public List<List<PomFileExtract>> getWaves()
+	{
+		return waves;
+	}
+
+	/**
+	 * @return the number of extracts in the plan.
+	 */
+	public int size()
+	{
+		return size;
+	}
+}
@@ -0,0 +1,429 @@
+package uk.co.devworx.maven.deploy;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A resident daemon that runs generate jobs in a warm JVM - so each job does not pay for JVM startup, class loading
+ * and a cold JIT, and the jobs scanning the same directory share its scan cache (see
+ * {@link #setScanCacheDirectory(Path)}). Each job reads parent POMs through a cache of its own, dropped when it
+ * finishes - so parents changed between jobs are read again, and the daemon holds none once its jobs are done.
+ *
+ * Jobs are submitted over HTTP, on the loopback interface only:
+ *
+ * POST /jobs - the job, in java.util.Properties format (see below). Answers 202 with the id and status of the job,
+ * or 400 if the job is not valid.
+ * GET /jobs/[id] - the status of the job: QUEUED, RUNNING, SUCCEEDED or FAILED (with the error).
+ * GET /jobs - the id and status of each job.
+ *
+ * Any other method on these paths answers 405, and any other path 404.
+ *
+ * The job properties are scanRoot and outputDir (required), osTarget (Unix / Windows, default Unix), scriptType
+ * (default LocalRepoInstall), settingsXml, url, repositoryId, groupIdReplacements (from=to,from=to), versionFilters
+ * and groupIdFilters (comma separated), and optionally shardCount, deployConcurrency, stagingStrategy, deployJournal,
+ * runReport and retainPomFileData. Each job gets a generator of its own, so the settings of one never leak into another.
+ *
+ * Up to the job concurrency run at once; the rest wait their turn. The discovery and staging of every job share
+ * one pool of worker threads.
+ */
+public class DeployScriptDaemon implements Closeable
+{
+	private static final Logger logger = LogManager.getLogger(DeployScriptDaemon.class);
+
+	public static final int DEFAULT_PORT = 8765;
+
+	private static final int MAX_RETAINED_JOBS = 1000;
+	private static final String JOBS_PATH = "/jobs";
+
+	enum Status
+	{
+		QUEUED, RUNNING, SUCCEEDED, FAILED
+	}
+
+	private static final class Job
+	{
+		private final int id;
+		private final Properties config;
+		private volatile Status status = Status.QUEUED;
+		private volatile String error;
+		private volatile long startedAt;
+		private volatile long finishedAt;
+		private volatile int coordinateCollisions;
+
+		private Job(int id, Properties config)
+		{
+			this.id = id;
+			this.config = config;
+		}
+
+		private boolean isFinished()
+		{
+			return status == Status.SUCCEEDED || status == Status.FAILED;
+		}
+	}
+
+	private final int port;
+	private final ExecutorService jobExecutor;
+	private final ExecutorService workerExecutor;
+	private final AtomicInteger jobIds = new AtomicInteger();
+	private final Map<Integer, Job> jobs = Collections.synchronizedMap(new LinkedHashMap<Integer, Job>()
+	{
+		@Override protected boolean removeEldestEntry(Map.Entry<Integer, Job> eldest)
+		{
+			return size() > MAX_RETAINED_JOBS && eldest.getValue().isFinished();
+		}
+	});
+	private final Map<Path, ScanCache> scanCaches = new ConcurrentHashMap<>();
+
+	private Path scanCacheDirectory;
+	private HttpServer server;
+
+	/**
+	 * @param port the loopback port to listen on - 0 for any free port (see {@link #getPort()}).
+	 * @param jobConcurrency how many jobs run at once.
+	 * @param workerThreads the threads shared by the jobs for discovery and staging.
+	 */
+	public DeployScriptDaemon(int port, int jobConcurrency, int workerThreads)
+	{
+		this.port = port;
+		this.jobExecutor = Executors.newFixedThreadPool(jobConcurrency);
+		this.workerExecutor = Executors.newFixedThreadPool(workerThreads);
+	}
+
+	/**
+	 * Usage : DeployScriptDaemon [port (default 8765)] [job concurrency (default 2)] [worker threads (default the number of processors)]
+	 */
+	public static void main(String... args) throws IOException
+	{
+		final int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		final int jobConcurrency = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+		final int workerThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		final DeployScriptDaemon daemon = new DeployScriptDaemon(port, jobConcurrency, workerThreads);
+		Runtime.getRuntime().addShutdownHook(new Thread(daemon::close));
+		daemon.start();
+	}
+
+	/**
+	 * @return the name of the scan cache file of the scan root - the SHA-256 (hex) of its normalised absolute path, so
+	 * distinct roots never share a file.
+	 */
+	static String scanCacheFileName(Path scanRoot)
+	{
+		final byte[] path = scanRoot.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8);
+		return DigestingOutputStream.hex(ChecksumAlgorithm.SHA256.newMessageDigest().digest(path)) + ".scan-cache";
+	}
+
+	/**
+	 * Sets the directory the scan caches are kept in - one per scan root, shared by the jobs scanning it. Without
+	 * it, no scan cache is used.
+	 */
+	public void setScanCacheDirectory(Path scanCacheDirectory)
+	{
+		this.scanCacheDirectory = scanCacheDirectory;
+	}
+
+	public void start() throws IOException
+	{
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext(JOBS_PATH, this::handle);
+		server.start();
+		logger.info("Deploy script daemon listening on http://" + server.getAddress().getHostString() + ":" + getPort() + JOBS_PATH);
+	}
+
+	/**
+	 * @return the port listened on.
+	 */
+	public int getPort()
+	{
+		return server.getAddress().getPort();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException
+	{
+		try
+		{
+			final String path = exchange.getRequestURI().getPath();
+			final String method = exchange.getRequestMethod();
+			if (path.equals(JOBS_PATH) && method.equals("POST"))
+			{
+				final Properties config = new Properties();
+				config.load(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+				final Job job;
+				try
+				{
+					job = submit(config);
+				}
+				catch (IllegalArgumentException e)
+				{
+					respond(exchange, 400, Collections.singletonMap("error", e.getMessage()));
+					return;
+				}
+				exchange.getResponseHeaders().set("Location", JOBS_PATH + "/" + job.id);
+				respond(exchange, 202, describe(job));
+			}
+			else if (path.equals(JOBS_PATH) && method.equals("GET"))
+			{
+				final Map<String, String> all = new LinkedHashMap<>();
+				synchronized (jobs)
+				{
+					for (Job job : jobs.values())
+					{
+						all.put(String.valueOf(job.id), job.status.name());
+					}
+				}
+				respond(exchange, 200, all);
+			}
+			else if (path.startsWith(JOBS_PATH + "/") && method.equals("GET"))
+			{
+				Job job = null;
+				try
+				{
+					job = jobs.get(Integer.parseInt(path.substring(JOBS_PATH.length() + 1)));
+				}
+				catch (NumberFormatException e)
+				{
+					// Not found.
+				}
+				if (job == null)
+				{
+					respond(exchange, 404, Collections.singletonMap("error", "No such job : " + path));
+				}
+				else
+				{
+					respond(exchange, 200, describe(job));
+				}
+			}
+			else if (path.equals(JOBS_PATH) || path.startsWith(JOBS_PATH + "/"))
+			{
+				exchange.getResponseHeaders().set("Allow", path.equals(JOBS_PATH) ? "GET, POST" : "GET");
+				respond(exchange, 405, Collections.singletonMap("error", method + " " + path + " is not supported."));
+			}
+			else
+			{
+				respond(exchange, 404, Collections.singletonMap("error", "No such resource : " + path));
+			}
+		}
+		catch (RuntimeException e)
+		{
+			logger.error("Unable to handle the request : " + exchange.getRequestURI() + " - got the exception : " + e, e);
+			respond(exchange, 500, Collections.singletonMap("error", String.valueOf(e)));
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Queues the job.
+	 *
+	 * @throws IllegalArgumentException if the job is not valid.
+	 */
+	private Job submit(Properties config)
+	{
+		// Fail on a bad job straight away, rather than once it runs.
+		createGenerator(config);
+
+		final Job job = new Job(jobIds.incrementAndGet(), config);
+		jobs.put(job.id, job);
+		jobExecutor.submit(() -> run(job));
+		logger.info("Queued job " + job.id + " - scanning : " + config.getProperty("scanRoot"));
+		return job;
+	}
+
+	private void run(Job job)
+	{
+		job.startedAt = System.currentTimeMillis();
+		job.status = Status.RUNNING;
+		try
+		{
+			final GenerateMavenDeployScripts generator = createGenerator(job.config);
+			final Path outputDir = Paths.get(job.config.getProperty("outputDir"));
+			generator.generateScript(outputDir,
+									 Paths.get(job.config.getProperty("settingsXml", outputDir.resolve("settings.xml").toString())),
+									 job.config.getProperty("url", ""),
+									 job.config.getProperty("repositoryId", ""));
+			job.coordinateCollisions = generator.getCoordinateCollisions().size();
+			job.status = Status.SUCCEEDED;
+		}
+		catch (RuntimeException e)
+		{
+			logger.error("Job " + job.id + " failed - got the exception : " + e, e);
+			job.error = String.valueOf(e);
+			job.status = Status.FAILED;
+		}
+		finally
+		{
+			job.finishedAt = System.currentTimeMillis();
+		}
+		logger.info("Job " + job.id + " " + job.status + " in " + (job.finishedAt - job.startedAt) + "ms.");
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the job properties are not valid.
+	 */
+	private GenerateMavenDeployScripts createGenerator(Properties config)
+	{
+		final Path scanRoot = Paths.get(required(config, "scanRoot")).toAbsolutePath().normalize();
+		required(config, "outputDir");
+
+		final Map<String, String> groupIdReplacements = new HashMap<>();
+		for (String replacement : list(config, "groupIdReplacements"))
+		{
+			final String[] fromTo = replacement.split("=", 2);
+			if (fromTo.length != 2)
+			{
+				throw new IllegalArgumentException("A group id replacement must be from=to - got : " + replacement);
+			}
+			groupIdReplacements.put(fromTo[0].trim(), fromTo[1].trim());
+		}
+
+		final GenerateMavenDeployScripts generator = new GenerateMavenDeployScripts(scanRoot,
+																					OSTarget.valueOf(config.getProperty("osTarget", OSTarget.Unix.name())),
+																					ScriptType.valueOf(config.getProperty("scriptType", ScriptType.LocalRepoInstall.name())),
+																					groupIdReplacements,
+																					list(config, "versionFilters"),
+																					list(config, "groupIdFilters"));
+		generator.setDiscoveryExecutor(workerExecutor);
+		generator.setStagingExecutor(workerExecutor);
+		generator.setPomModelCache(new PomModelCache());
+		if (scanCacheDirectory != null)
+		{
+			generator.setScanCache(scanCaches.computeIfAbsent(scanRoot, k -> ScanCache.open(scanCacheDirectory.resolve(scanCacheFileName(k)))));
+		}
+		if (config.containsKey("shardCount"))
+		{
+			generator.setShardCount(Integer.parseInt(config.getProperty("shardCount")));
+		}
+		if (config.containsKey("deployConcurrency"))
+		{
+			generator.setDeployConcurrency(Integer.parseInt(config.getProperty("deployConcurrency")));
+		}
+		if (config.containsKey("stagingStrategy"))
+		{
+			generator.setStagingStrategy(StagingStrategy.valueOf(config.getProperty("stagingStrategy")));
+		}
+		if (config.containsKey("deployJournal"))
+		{
+			generator.setDeployJournal(Paths.get(config.getProperty("deployJournal")));
+		}
+		if (config.containsKey("runReport"))
+		{
+			generator.setRunReport(Paths.get(config.getProperty("runReport")));
+		}
+		if (config.containsKey("retainPomFileData"))
+		{
+			generator.setRetainPomFileData(Boolean.parseBoolean(config.getProperty("retainPomFileData")));
+		}
+		return generator;
+	}
+
+	private static String required(Properties config, String key)
+	{
+		final String value = config.getProperty(key);
+		if (value == null || value.trim().isEmpty())
+		{
+			throw new IllegalArgumentException("The job has no " + key);
+		}
+		return value.trim();
+	}
+
+	private static Set<String> list(Properties config, String key)
+	{
+		final Set<String> values = new LinkedHashSet<>();
+		for (String value : Arrays.asList(config.getProperty(key, "").split(",")))
+		{
+			if (value.trim().isEmpty() == false)
+			{
+				values.add(value.trim());
+			}
+		}
+		return values;
+	}
+
+	private static Map<String, String> describe(Job job)
+	{
+		final Map<String, String> description = new LinkedHashMap<>();
+		description.put("id", String.valueOf(job.id));
+		description.put("status", job.status.name());
+		description.put("scanRoot", job.config.getProperty("scanRoot"));
+		description.put("outputDir", job.config.getProperty("outputDir"));
+		if (job.isFinished())
+		{
+			description.put("millis", String.valueOf(job.finishedAt - job.startedAt));
+			description.put("coordinateCollisions", String.valueOf(job.coordinateCollisions));
+		}
+		if (job.error != null)
+		{
+			description.put("error", job.error);
+		}
+		return description;
+	}
+
+	private static void respond(HttpExchange exchange, int status, Map<String, String> body) throws IOException
+	{
+		final StringBuilder text = new StringBuilder();
+		for (Map.Entry<String, String> e : body.entrySet())
+		{
+			text.append(e.getKey()).append('=').append(e.getValue().replace("\n", " ")).append('\n');
+		}
+		final byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody())
+		{
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Stops taking jobs, and waits (up to a minute) for those queued or running to finish.
+	 */
+	@Override public void close()
+	{
+		if (server != null)
+		{
+			server.stop(0);
+		}
+		jobExecutor.shutdown();
+		try
+		{
+			if (jobExecutor.awaitTermination(1, TimeUnit.MINUTES) == false)
+			{
+				logger.warn("Jobs still running after a minute - stopping them.");
+				jobExecutor.shutdownNow();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			jobExecutor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		workerExecutor.shutdownNow();
+	}
+}
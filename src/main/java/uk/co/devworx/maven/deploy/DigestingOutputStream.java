@@ -0,0 +1,127 @@
+package uk.co.devworx.maven.deploy;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Set;
+
+/**
+ * An output stream that updates a set of checksums with every byte written through it, so the checksums
+ * of a staged file are known as soon as it has been written - without reading it back from disk.
+ */
+final class DigestingOutputStream extends FilterOutputStream
+{
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final ChecksumAlgorithm[] algorithms;
+	private final MessageDigest[] digests;
+
+	DigestingOutputStream(OutputStream out, Set<ChecksumAlgorithm> algorithms)
+	{
+		super(out);
+		this.algorithms = algorithms.toArray(new ChecksumAlgorithm[0]);
+		this.digests = new MessageDigest[this.algorithms.length];
+		for (int i = 0; i < this.algorithms.length; i++)
+		{
+			digests[i] = this.algorithms[i].newMessageDigest();
+		}
+	}
+
+	/**
+	 * Writes the file through the checksums, then writes its sidecar files.
+	 */
+	static void write(Path file, byte[] data, Set<ChecksumAlgorithm> algorithms) throws IOException
+	{
+		final DigestingOutputStream out = new DigestingOutputStream(Files.newOutputStream(file), algorithms);
+		try
+		{
+			out.write(data);
+		}
+		finally
+		{
+			out.close();
+		}
+		out.writeChecksumFiles(file);
+	}
+
+	/**
+	 * Copies the source file through the checksums to the target, then writes the sidecar files of the target.
+	 */
+	static void copy(Path source, Path target, Set<ChecksumAlgorithm> algorithms) throws IOException
+	{
+		final DigestingOutputStream out = new DigestingOutputStream(Files.newOutputStream(target), algorithms);
+		try
+		{
+			Files.copy(source, out);
+		}
+		finally
+		{
+			out.close();
+		}
+		out.writeChecksumFiles(target);
+	}
+
+	/**
+	 * Reads the source through the checksums - without writing it anywhere - then writes the sidecar files of the target.
+	 */
+	static void writeChecksumFiles(Path source, Path target, Set<ChecksumAlgorithm> algorithms) throws IOException
+	{
+		final DigestingOutputStream out = new DigestingOutputStream(new OutputStream()
+		{
+			@Override public void write(int b)
+			{
+			}
+
+			@Override public void write(byte[] b, int off, int len)
+			{
+			}
+		}, algorithms);
+		Files.copy(source, out);
+		out.writeChecksumFiles(target);
+	}
+
+	@Override public void write(int b) throws IOException
+	{
+		for (MessageDigest digest : digests)
+		{
+			digest.update((byte) b);
+		}
+		out.write(b);
+	}
+
+	@Override public void write(byte[] b, int off, int len) throws IOException
+	{
+		for (MessageDigest digest : digests)
+		{
+			digest.update(b, off, len);
+		}
+		out.write(b, off, len);
+	}
+
+	/**
+	 * Writes [file].[extension] for each checksum. Call once everything has been written (and the stream closed).
+	 */
+	void writeChecksumFiles(Path file) throws IOException
+	{
+		for (int i = 0; i < algorithms.length; i++)
+		{
+			final Path checksumFile = file.resolveSibling(file.getFileName() + "." + algorithms[i].getFileExtension());
+			Files.write(checksumFile, hex(digests[i].digest()).getBytes(StandardCharsets.US_ASCII));
+		}
+	}
+
+	static String hex(byte[] bytes)
+	{
+		final char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++)
+		{
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+		}
+		return new String(chars);
+	}
+}
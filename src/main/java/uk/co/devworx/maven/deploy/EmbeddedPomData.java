@@ -0,0 +1,45 @@
+package uk.co.devworx.maven.deploy;
+
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * The Maven meta-data embedded in a jar/war under META-INF/maven/[groupId]/[artifactId]/ -
+ * i.e. the pom.xml and (if present) the pom.properties next to it.
+ */
+public class EmbeddedPomData
+{
+	private final String entryDirectory;
+	private final byte[] pomFileData;
+	private final Optional<Properties> pomProperties;
+
+	EmbeddedPomData(String entryDirectory, byte[] pomFileData, Optional<Properties> pomProperties)
+	{
+		this.entryDirectory = entryDirectory;
+		this.pomFileData = pomFileData;
+		this.pomProperties = pomProperties;
+	}
+
+	/**
+	 * @return the directory inside the jar the pom.xml was found in, e.g. META-INF/maven/uk.co.devworx/my-artifact/
+	 */
+	public String getEntryDirectory()
+	{
+		return entryDirectory;
+	}
+
+	public byte[] getPomFileData()
+	{
+		return pomFileData;
+	}
+
+	public Optional<Properties> getPomProperties()
+	{
+		return pomProperties;
+	}
+
+	@Override public String toString()
+	{
+		return "EmbeddedPomData{" + "entryDirectory='" + entryDirectory + '\'' + ", pomFileData=" + pomFileData.length + " bytes, pomProperties=" + pomProperties + '}';
+	}
+}
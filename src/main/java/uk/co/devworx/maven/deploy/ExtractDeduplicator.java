@@ -0,0 +1,95 @@
+package uk.co.devworx.maven.deploy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Passes on the first extract (in scan order) of each set of coordinates, numbered from 1 (or on from an earlier
+ * scan) in the order passed on.
+ *
+ * Copies of it with the same content - the same jar found under several mirror directories - are dropped. Copies
+ * with different content are collisions; they are dropped too, and reported by {@link #finish()}. The content
+ * hashes are only computed when two extracts share coordinates.
+ */
+final class ExtractDeduplicator implements Consumer<PomFileExtract>
+{
+	private static final Logger logger = LogManager.getLogger(ExtractDeduplicator.class);
+
+	private final Consumer<PomFileExtract> downstream;
+	private final int numberedAfter;
+	private final Map<String, PomFileExtract> byCoordinates = new HashMap<>();
+	private final Map<String, List<Path>> collisions = new TreeMap<>();
+	private int accepted;
+	private int duplicates;
+
+	ExtractDeduplicator(Consumer<PomFileExtract> downstream)
+	{
+		this(downstream, 0);
+	}
+
+	/**
+	 * @param numberedAfter the instance id the numbering carries on from.
+	 */
+	ExtractDeduplicator(Consumer<PomFileExtract> downstream, int numberedAfter)
+	{
+		this.downstream = downstream;
+		this.numberedAfter = numberedAfter;
+	}
+
+	/**
+	 * @return the instance id of the last extract passed on - or the one numbering carried on from, if there was none.
+	 */
+	int getLastInstanceId()
+	{
+		return numberedAfter + accepted;
+	}
+
+	@Override public void accept(PomFileExtract extract)
+	{
+		final String coordinates = extract.getGroupId() + ":" + extract.getArtefactId() + ":" + extract.getVersionId();
+		final PomFileExtract kept = byCoordinates.putIfAbsent(coordinates, extract);
+		if (kept == null)
+		{
+			downstream.accept(extract.withInstanceId(numberedAfter + ++accepted));
+			return;
+		}
+
+		duplicates++;
+		if (kept.getPomFileExtractType() == extract.getPomFileExtractType() && kept.getContentHash().equals(extract.getContentHash()))
+		{
+			logger.info("DUPLICATE : " + extract.getSourceFile().toAbsolutePath() + " - same content as " + kept.getSourceFile().toAbsolutePath());
+		}
+		else
+		{
+			collisions.computeIfAbsent(coordinates, k -> new ArrayList<>(Collections.singletonList(kept.getSourceFile()))).add(extract.getSourceFile());
+		}
+	}
+
+	/**
+	 * Logs the outcome.
+	 *
+	 * @return the coordinates found with different content in more than one file - and those files, the one used first.
+	 */
+	Map<String, List<Path>> finish()
+	{
+		logger.info("allMatchingJarWarFiles - total of " + (accepted + duplicates) + " found.");
+		for (Map.Entry<String, List<Path>> collision : collisions.entrySet())
+		{
+			logger.warn("COLLISION : " + collision.getKey() + " - found with different content in " + collision.getValue() + " - only the first is used.");
+		}
+		if (duplicates > 0)
+		{
+			logger.info("Deduplication - " + duplicates + " duplicate extracts dropped, " + collisions.size() + " coordinates with conflicting content.");
+		}
+		return Collections.unmodifiableMap(collisions);
+	}
+}
@@ -0,0 +1,39 @@
+package uk.co.devworx.maven.deploy;
+
+/**
+ * A JDK Flight Recorder event around one piece of work on an artifact - see {@link FlightEvents#begin(Kind)}.
+ *
+ * The values are only worked out and passed to {@link #commit} once {@link #finish()} says the event is
+ * wanted, so a recording without these events enabled (or no recording at all) costs next to nothing.
+ */
+interface FlightEvent
+{
+	enum Kind
+	{
+		/** Creating the extract of a candidate file found by the scan. */
+		DISCOVERY,
+		/** Parsing a POM. */
+		POM_PARSE,
+		/** Writing the sanitised copy of a jar / war. */
+		JAR_REWRITE,
+		/** Staging a file that needs no rewriting - a sources jar. */
+		STAGED_COPY
+	}
+
+	/**
+	 * Ends the event.
+	 *
+	 * @return true if the event is enabled in the recording, and took longer than its threshold.
+	 */
+	boolean finish();
+
+	/**
+	 * Writes the event to the recording. Only call this if {@link #finish()} returned true.
+	 *
+	 * @param path the file worked on - or null if there is none.
+	 * @param coordinates the [groupId]:[artifactId]:[version] of the artifact - or null if they are not known.
+	 * @param bytes the bytes read / written - or 0 if not known.
+	 * @param outcome what came of it - e.g. included, skipped, copied, hardlinked, failed.
+	 */
+	void commit(String path, String coordinates, long bytes, String outcome);
+}
@@ -0,0 +1,83 @@
+package uk.co.devworx.maven.deploy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Creates the {@link FlightEvent}s. The events are the jdk.jfr events of {@link ArtifactFlightEvent}, named
+ * uk.co.devworx.maven.deploy.[ArtifactDiscovery | PomParse | JarRewrite | StagedCopy], and are turned on and off
+ * (and given thresholds) through the usual JFR settings - e.g.
+ * -XX:StartFlightRecording:settings=profile,uk.co.devworx.maven.deploy.JarRewrite#threshold=10ms on JDK 17.
+ *
+ * On a Java runtime without jdk.jfr the events are a no-op; the event classes are never loaded.
+ */
+final class FlightEvents
+{
+	private static final boolean AVAILABLE = isAvailable();
+
+	private static final FlightEvent NOOP = new FlightEvent()
+	{
+		@Override public boolean finish()
+		{
+			return false;
+		}
+
+		@Override public void commit(String path, String coordinates, long bytes, String outcome)
+		{
+		}
+	};
+
+	private FlightEvents()
+	{
+	}
+
+	private static boolean isAvailable()
+	{
+		try
+		{
+			Class.forName("jdk.jfr.Event", false, FlightEvents.class.getClassLoader());
+			return true;
+		}
+		catch (ClassNotFoundException | LinkageError e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * @return the event, begun.
+	 */
+	static FlightEvent begin(FlightEvent.Kind kind)
+	{
+		if (AVAILABLE == false)
+		{
+			return NOOP;
+		}
+		return ArtifactFlightEvent.begin(kind);
+	}
+
+	/**
+	 * @return the size of the file - or 0 if it cannot be read. Used when committing events, which must not fail
+	 * (or hide the exception of) the work they describe.
+	 */
+	static long sizeOf(Path file)
+	{
+		try
+		{
+			return Files.size(file);
+		}
+		catch (IOException e)
+		{
+			return 0;
+		}
+	}
+
+	/**
+	 * @return the [groupId]:[artifactId]:[version] of the extract.
+	 */
+	static String coordinatesOf(PomFileExtract extract)
+	{
+		return extract.getGroupId() + ":" + extract.getArtefactId() + ":" + extract.getVersionId();
+	}
+}
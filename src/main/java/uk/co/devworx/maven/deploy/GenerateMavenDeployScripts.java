@@ -4,11 +4,20 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+import java.util.concurrent.Future;
 
 /**
  * A class that will generate a command line set of scripts for a
@@ -25,6 +34,46 @@ public class GenerateMavenDeployScripts
     private final Map<String, String> groupIdReplacements;
     private final Set<String> versionFilters;
     private final Set<String> groupIdFilters;
+    private final GroupIdRewriter groupIdRewriter;
+    private PomModelCache pomModelCache = new PomModelCache();
+
+    private ExecutorService discoveryExecutor;
+    private ScanCache scanCache;
+    private ExecutorService stagingExecutor;
+    private Optional<Set<ChecksumAlgorithm>> checksumAlgorithms = Optional.empty();
+    private int deployConcurrency = 1;
+    private int shardCount = 1;
+    private Optional<Path> deployJournalFile = Optional.empty();
+    private StagingStrategy stagingStrategy = StagingStrategy.COPY;
+    private boolean retainPomFileData = true;
+    private int pipelineCapacity = 256;
+    private int mavenBatchSize = 1;
+    private Optional<Path> runReportFile = Optional.empty();
+    private int runReportSlowestCount = 10;
+    private volatile Map<String, List<Path>> coordinateCollisions = Collections.emptyMap();
+    private volatile int lastInstanceId;
+
+    /**
+     * A file found by the directory walk, along with the attributes the walk already read for it.
+     */
+    private static final class CandidateFile implements Comparable<CandidateFile>
+    {
+        private final Path path;
+        private final long size;
+        private final long lastModified;
+
+        private CandidateFile(Path path, BasicFileAttributes attrs)
+        {
+            this.path = path;
+            this.size = attrs.size();
+            this.lastModified = attrs.lastModifiedTime().toMillis();
+        }
+
+        @Override public int compareTo(CandidateFile o)
+        {
+            return path.compareTo(o.path);
+        }
+    }
 
     public GenerateMavenDeployScripts(Path jarWarRootScanDirectory,
                                       OSTarget osTarget,
@@ -39,91 +88,485 @@ public class GenerateMavenDeployScripts
         this.groupIdReplacements = groupIdReplacements;
         this.versionFilters = versionFilters;
         this.groupIdFilters = groupIdFilters;
+        this.groupIdRewriter = new GroupIdRewriter(groupIdReplacements);
+    }
+
+    /**
+     * Sets the executor used to create the {@link PomFileExtract}s during discovery. The directory walk itself
+     * always runs on the calling thread; only the (expensive) opening and parsing of each candidate file is handed
+     * to the executor. Pass a {@link java.util.concurrent.ForkJoinPool} or a bounded pool from
+     * {@link java.util.concurrent.Executors#newFixedThreadPool(int)}. The executor is not shut down by this class.
+     *
+     * If no executor is set (the default), discovery runs on the calling thread.
+     */
+    public void setDiscoveryExecutor(ExecutorService discoveryExecutor)
+    {
+        this.discoveryExecutor = discoveryExecutor;
+    }
+
+    /**
+     * Sets the cache of the parent POMs the scanned POMs inherit from - e.g. to share it between generators that scan
+     * the same directory. By default each generator has its own.
+     */
+    public void setPomModelCache(PomModelCache pomModelCache)
+    {
+        this.pomModelCache = pomModelCache;
+    }
+
+    public PomModelCache getPomModelCache()
+    {
+        return pomModelCache;
+    }
+
+    /**
+     * Sets the cache of previous scan results. Files whose path, size and last modified time are unchanged since
+     * they were recorded are not opened or parsed again. The cache is flushed to disk at the end of each scan.
+     */
+    public void setScanCache(ScanCache scanCache)
+    {
+        this.scanCache = scanCache;
+    }
+
+    /**
+     * Sets the executor used to stage the artifacts (rewrite the jars, copy the sources, write the poms and their
+     * checksums) when generating the script. Artifacts are staged independently of each other, as they are found -
+     * while the scan is still running; the script still lists them in plan order. The executor is not shut down
+     * by this class.
+     *
+     * If no executor is set (the default), staging runs on the calling thread.
+     */
+    public void setStagingExecutor(ExecutorService stagingExecutor)
+    {
+        this.stagingExecutor = stagingExecutor;
+    }
+
+    /**
+     * Sets the checksums written next to every staged file. They are computed while the file is written, so the
+     * file is never read back. Defaults to {@link ChecksumAlgorithm#SHA1} and {@link ChecksumAlgorithm#MD5} for
+     * {@link ScriptType#DirectRepositoryLayout}, and to none for the mvn scripts - mvn computes its own.
+     */
+    public void setChecksumAlgorithms(Set<ChecksumAlgorithm> checksumAlgorithms)
+    {
+        this.checksumAlgorithms = Optional.of(Collections.unmodifiableSet(EnumSet.copyOf(checksumAlgorithms)));
+    }
+
+    /**
+     * Sets how many mvn commands of the same wave of the {@link DeployPlan} the generated script may run at once.
+     * Commands run as bash background jobs, so this only applies to {@link OSTarget#Unix}; Windows scripts always
+     * run one command at a time (in plan order). For {@link ScriptType#InProcessRemoteDeploy} it is the number of
+     * concurrent uploads. Defaults to 1.
+     */
+    public void setDeployConcurrency(int deployConcurrency)
+    {
+        if (deployConcurrency < 1)
+        {
+            throw new IllegalArgumentException("The deploy concurrency must be at least 1 - was : " + deployConcurrency);
+        }
+        this.deployConcurrency = deployConcurrency;
+    }
+
+    /**
+     * Splits the generated script into a shard of parent POMs plus the given number of jar/war shards, balanced by
+     * artifact bytes, with a driver script that runs them. The order between jars/wars that depend on each other is
+     * only kept within a shard, not across shards. Defaults to 1 - a single script. Not used with
+     * {@link ScriptType#DirectRepositoryLayout}, where there are no commands to run.
+     */
+    public void setShardCount(int shardCount)
+    {
+        if (shardCount < 1)
+        {
+            throw new IllegalArgumentException("The shard count must be at least 1 - was : " + shardCount);
+        }
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * Sets the {@link DeployJournal} that records what has been deployed. Artifacts already in it (with unchanged
+     * content) are left out of the next run. In-process deploys record each artifact once it is written / uploaded;
+     * the generated scripts check the journal before each mvn command and append to it when the command succeeds.
+     */
+    public void setDeployJournal(Path deployJournalFile)
+    {
+        this.deployJournalFile = Optional.of(deployJournalFile);
+    }
+
+    /**
+     * Sets how the sources jars - which need no rewriting - are staged. Defaults to {@link StagingStrategy#COPY}.
+     * The jars/wars themselves are always rewritten, as their META-INF/maven directory is removed.
+     */
+    public void setStagingStrategy(StagingStrategy stagingStrategy)
+    {
+        this.stagingStrategy = stagingStrategy;
+    }
+
+    /**
+     * When false, the extracts only keep their coordinates, parent and dependencies and the file they came from -
+     * the POM data is read again from that file each time it is needed (when staging; the {@link DeployPlan} does not
+     * need it), so a large scan does not hold every POM in memory. Defaults to true.
+     */
+    public void setRetainPomFileData(boolean retainPomFileData)
+    {
+        this.retainPomFileData = retainPomFileData;
+    }
+
+    /**
+     * Sets how many extracts each parallel stage - discovery, and staging - may have in flight ahead of the stage
+     * after it. A stage that gets that far ahead waits, so memory use does not grow with the size of the scan.
+     * Defaults to 256.
+     */
+    public void setPipelineCapacity(int pipelineCapacity)
+    {
+        if (pipelineCapacity < 1)
+        {
+            throw new IllegalArgumentException("The pipeline capacity must be at least 1 - got : " + pipelineCapacity);
+        }
+        this.pipelineCapacity = pipelineCapacity;
+    }
+
+    /**
+     * Sets the file the run report of {@link #generateScript(Path, Path, String, String)} is written to - a JSON
+     * document with the count, bytes and latency histogram of each phase (scan walk, zip read, POM parse, jar
+     * rewrite, upload, ...) per artifact type, and the slowest artifacts. Nothing is measured if no report is set.
+     */
+    public void setRunReport(Path runReportFile)
+    {
+        this.runReportFile = Optional.of(runReportFile);
+    }
+
+    /**
+     * Sets how many of the slowest artifacts the run report lists. Defaults to 10.
+     */
+    public void setRunReportSlowestCount(int runReportSlowestCount)
+    {
+        this.runReportSlowestCount = runReportSlowestCount;
+    }
+
+    /**
+     * Sets how many artifacts one mvn process installs / deploys. Above 1, the script no longer runs mvn once per
+     * artifact: the artifacts of each wave are chunked into batches of up to this many, and each batch is written as
+     * an aggregator POM - [id]-batch.pom.xml - binding one install-file / deploy-file execution per artifact, in plan
+     * order, to the validate phase. The script runs mvn once per batch, so parent POMs still go first. Defaults to 1.
+     *
+     * With a deploy journal, a batch is recorded as a whole, once its mvn process succeeds. A batch that fails part
+     * way records nothing - the script says so - and running it again installs / deploys the artifacts it had already
+     * done again. A repository that rejects redeploying a release then fails that batch on every run: deploy what is
+     * left of it with a batch size of 1, or add the artifacts that were deployed to the journal.
+     *
+     * Only applies to the mvn scripts - not to {@link ScriptType#isDirectLayout()}.
+     */
+    public void setMavenBatchSize(int mavenBatchSize)
+    {
+        if (mavenBatchSize < 1)
+        {
+            throw new IllegalArgumentException("The maven batch size must be at least 1 - got : " + mavenBatchSize);
+        }
+        this.mavenBatchSize = mavenBatchSize;
+    }
+
+    private boolean isBatched()
+    {
+        return mavenBatchSize > 1 && scriptType.isDirectLayout() == false;
+    }
+
+    private boolean isConcurrentScript()
+    {
+        return deployConcurrency > 1 && osTarget == OSTarget.Unix && scriptType.isDirectLayout() == false;
+    }
+
+    private boolean isShardedScript()
+    {
+        return shardCount > 1 && scriptType.isDirectLayout() == false;
+    }
+
+    private Set<ChecksumAlgorithm> getChecksumAlgorithms()
+    {
+        if (checksumAlgorithms.isPresent()) return checksumAlgorithms.get();
+        return scriptType.isDirectLayout() ? EnumSet.of(ChecksumAlgorithm.SHA1, ChecksumAlgorithm.MD5) : EnumSet.noneOf(ChecksumAlgorithm.class);
     }
 
+    /**
+     * Scans the root directory for jar/war and parent pom files. The returned list is sorted by the path
+     * of the file it was created from, regardless of whether discovery ran in parallel.
+     */
     public List<PomFileExtract> getPomFileExtracts()
     {
-        final List<PomFileExtract> allMatchingJarWarFiles = new ArrayList<>();
+        final List<PomFileExtract> extracts = new ArrayList<>();
+        forEachPomFileExtract(extracts::add);
+        return Collections.unmodifiableList(extracts);
+    }
+
+    /**
+     * As {@link #getPomFileExtracts()}, but hands each extract to the consumer as soon as it (and every extract
+     * before it) has been created - so the caller can start on them while the scan is still running. At most
+     * {@link #setPipelineCapacity(int)} extracts are created ahead of the consumer when discovery runs in parallel.
+     */
+    public void forEachPomFileExtract(final Consumer<PomFileExtract> consumer)
+    {
+        final RunMetrics metrics = RunMetrics.current();
+        final List<CandidateFile> candidateFiles = getCandidateFiles();
+        final ExtractDeduplicator deduplicator = new ExtractDeduplicator(consumer);
+
+        if (discoveryExecutor == null)
+        {
+            for (CandidateFile file : candidateFiles)
+            {
+                createPomFileExtract(file).ifPresent(deduplicator);
+            }
+        }
+        else
+        {
+            final Deque<Future<Optional<PomFileExtract>>> window = new ArrayDeque<>();
+            try
+            {
+                for (CandidateFile file : candidateFiles)
+                {
+                    if (window.size() == pipelineCapacity)
+                    {
+                        window.removeFirst().get().ifPresent(deduplicator);
+                    }
+                    window.addLast(discoveryExecutor.submit(metrics.wrap(() -> createPomFileExtract(file))));
+                }
+                while (window.isEmpty() == false)
+                {
+                    window.removeFirst().get().ifPresent(deduplicator);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                window.forEach(f -> f.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for the POM File extracts to be created.", e);
+            }
+            catch (ExecutionException e)
+            {
+                window.forEach(f -> f.cancel(true));
+                throw new RuntimeException("Unable to create the POM File extracts - got exception : " + e.getCause(), e.getCause());
+            }
+            catch (RuntimeException e)
+            {
+                window.forEach(f -> f.cancel(true));
+                throw e;
+            }
+        }
+
+        coordinateCollisions = deduplicator.finish();
+        lastInstanceId = deduplicator.getLastInstanceId();
+
+        if (scanCache != null)
+        {
+            logger.info("Scan cache - " + scanCache.getHitCount() + " hits, " + scanCache.getMissCount() + " misses.");
+            scanCache.flush();
+        }
+    }
+
+    /**
+     * @return from the last scan, the coordinates found with different content in more than one file - and those
+     * files, the one that was used first.
+     */
+    public Map<String, List<Path>> getCoordinateCollisions()
+    {
+        return coordinateCollisions;
+    }
+
+    /**
+     * Walks the root directory and returns (sorted) all the files that look like a jar, war or pom
+     * sitting in a Maven repository layout - i.e. named [artifactId]-[version].[ext].
+     */
+    private List<CandidateFile> getCandidateFiles()
+    {
+        final RunMetrics metrics = RunMetrics.current();
+        final long start = metrics.start();
+        final List<CandidateFile> candidateFiles = new ArrayList<>();
         try
         {
             Files.walkFileTree(jarWarRootScanDirectory, new SimpleFileVisitor<Path>()
             {
                 @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
                 {
-                    if (file.getFileName().toString().endsWith(".jar") == false &&
-                        file.getFileName().toString().endsWith(".war") == false &&
-                        file.getFileName().toString().endsWith(".pom") == false )
+                    if (isCandidateFile(file))
                     {
-                        return FileVisitResult.CONTINUE;
+                        candidateFiles.add(new CandidateFile(file, attrs));
                     }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        catch(Exception e)
+        {
+            String msg = "Unable to read the JAR Directory - got exception : " + e;
+            throw new RuntimeException(msg, e);
+        }
+
+        Collections.sort(candidateFiles);
+        metrics.record(RunMetrics.Phase.SCAN_WALK, null, start, 0);
+        return candidateFiles;
+    }
 
-                    String immediateParentName = file.getParent().getFileName().toString();
-                    String grandParentName = file.getParent().getParent().getFileName().toString();
+    /**
+     * @return true if the file looks like a jar, war or pom sitting in a Maven repository layout - i.e. named
+     * [artifactId]-[version].[ext], in [artifactId]/[version]/.
+     */
+    static boolean isCandidateFile(Path file)
+    {
+        if (file.getFileName().toString().endsWith(".jar") == false &&
+            file.getFileName().toString().endsWith(".war") == false &&
+            file.getFileName().toString().endsWith(".pom") == false )
+        {
+            return false;
+        }
+        if (file.getParent() == null || file.getParent().getParent() == null)
+        {
+            return false;
+        }
 
-                    String expectedPathPom = grandParentName + "-" + immediateParentName + ".pom";
-                    String expectedPathJar = grandParentName + "-" + immediateParentName + ".jar";
-                    String expectedPathWar = grandParentName + "-" + immediateParentName + ".war";
+        String immediateParentName = file.getParent().getFileName().toString();
+        String grandParentName = file.getParent().getParent().getFileName().toString();
 
-                        try
-                        {
-                            PomFileExtract fileExtract = null;
-                            String realFileName = file.getFileName().toString();
-
-                            logger.info("||| " + expectedPathJar  + " vs. " + expectedPathWar + " vs. " + realFileName + " || " + expectedPathJar.equals(realFileName) );
-
-                            if(expectedPathJar.equals(realFileName))
-                            {
-                                fileExtract = PomFileExtract.create(Optional.of(file), Optional.empty());
-                            }
-                            if(expectedPathWar.equals(realFileName))
-                            {
-                                fileExtract = PomFileExtract.create(Optional.of(file), Optional.empty());
-                            }
-                            else if(expectedPathPom.equals(realFileName))
-                            {
-                                fileExtract = PomFileExtract.create( Optional.empty(), Optional.of(file));
-                            }
-
-                            if(fileExtract != null)
-                            {
-                                if(!versionFilters.isEmpty() && !versionFilters.contains(fileExtract.getVersionId()))
-                                {
-                                    return FileVisitResult.CONTINUE;
-                                }
-                                if(!groupIdFilters.isEmpty() && !groupIdFilters.contains(fileExtract.getGroupId()))
-                                {
-                                    return FileVisitResult.CONTINUE;
-                                }
-
-                                logger.info("INCLUDED : " + file.toAbsolutePath());
-                                allMatchingJarWarFiles.add(fileExtract);
-                            }
-                        }
-                        catch (Exception e)
+        String expectedPathPom = grandParentName + "-" + immediateParentName + ".pom";
+        String expectedPathJar = grandParentName + "-" + immediateParentName + ".jar";
+        String expectedPathWar = grandParentName + "-" + immediateParentName + ".war";
+
+        String realFileName = file.getFileName().toString();
+
+        return expectedPathJar.equals(realFileName) ||
+               expectedPathWar.equals(realFileName) ||
+               expectedPathPom.equals(realFileName);
+    }
+
+    /**
+     * Creates the extract for a single candidate file and applies the version / group filters.
+     * Safe to call from multiple threads.
+     */
+    private Optional<PomFileExtract> createPomFileExtract(CandidateFile candidate)
+    {
+        final RunMetrics metrics = RunMetrics.current();
+        final long start = metrics.start();
+        final FlightEvent event = FlightEvents.begin(FlightEvent.Kind.DISCOVERY);
+        Optional<PomFileExtract> extract = Optional.empty();
+        try
+        {
+            extract = readPomFileExtract(candidate);
+            return extract;
+        }
+        finally
+        {
+            metrics.record(RunMetrics.Phase.EXTRACT, RunMetrics.typeOf(candidate.path), start, candidate.size);
+            if (event.finish())
+            {
+                event.commit(candidate.path.toString(),
+                             extract.isPresent() ? FlightEvents.coordinatesOf(extract.get()) : null,
+                             candidate.size,
+                             extract.isPresent() ? "included" : "skipped");
+            }
+        }
+    }
+
+    private Optional<PomFileExtract> readPomFileExtract(CandidateFile candidate)
+    {
+        final Path file = candidate.path;
+        try
+        {
+            final PomFileExtract fileExtract;
+            final Optional<ScanCache.Entry> cached = scanCache == null ? Optional.empty() : scanCache.lookup(file, candidate.size, candidate.lastModified);
+            if (cached.isPresent())
+            {
+                if (cached.get().pomFileExtractType.isPresent() == false)
+                {
+                    logger.info("SKIPPED : " + file.toAbsolutePath() + " - (cached) got the message : " + cached.get().skipReason);
+                    return Optional.empty();
+                }
+                fileExtract = PomFileExtract.fromCache(file, cached.get());
+            }
+            else
+            {
+                final boolean pom = file.getFileName().toString().endsWith(".pom");
+                try
+                {
+                    if (scanCache == null && (versionFilters.isEmpty() == false || groupIdFilters.isEmpty() == false))
+                    {
+                        //Nothing is recorded - so a file filtered out on its coordinates need not be read any further.
+                        final Optional<PomFileExtract> wanted = PomFileExtract.createIfWanted(pom ? Optional.empty() : Optional.of(file),
+                                                                                             pom ? Optional.of(file) : Optional.empty(),
+                                                                                             pomModelCache,
+                                                                                             model -> isWanted(model.getGroupId(), model.getVersion()));
+                        if (wanted.isPresent() == false)
                         {
-                            logger.info("SKIPPED : " + file.toAbsolutePath() + " - got the message : " + e.getMessage());
+                            return Optional.empty();
                         }
+                        fileExtract = wanted.get();
+                    }
+                    else
+                    {
+                        fileExtract = PomFileExtract.create(pom ? Optional.empty() : Optional.of(file), pom ? Optional.of(file) : Optional.empty(), pomModelCache);
+                    }
+                }
+                catch (RuntimeException e)
+                {
+                    if (scanCache != null && ScanCache.isPermanentSkip(e))
+                    {
+                        scanCache.record(file, ScanCache.Entry.skipped(candidate.size, candidate.lastModified, e.getMessage()));
+                    }
+                    throw e;
+                }
 
-                    return FileVisitResult.CONTINUE;
+                if (scanCache != null)
+                {
+                    scanCache.record(file, ScanCache.Entry.of(candidate.size, candidate.lastModified, fileExtract));
                 }
-            });
+            }
 
-            logger.info("allMatchingJarWarFiles - total of " + allMatchingJarWarFiles.size() + " found.");
+            if (isWanted(fileExtract.getGroupId(), fileExtract.getVersionId()) == false)
+            {
+                return Optional.empty();
+            }
 
+            logger.info("INCLUDED : " + file.toAbsolutePath());
+            if (retainPomFileData == false)
+            {
+                fileExtract.releasePomFileData();
+            }
+            return Optional.of(fileExtract);
         }
-        catch(Exception e)
+        catch (Exception e)
         {
-            String msg = "Unable to read the JAR Directory - got exception : " + e;
-            throw new RuntimeException(msg, e);
+            logger.info("SKIPPED : " + file.toAbsolutePath() + " - got the message : " + e.getMessage());
+            return Optional.empty();
         }
+    }
 
-        return Collections.unmodifiableList(allMatchingJarWarFiles);
+    /**
+     * @return true if the coordinates pass the version and group id filters.
+     */
+    private boolean isWanted(final String groupId, final String versionId)
+    {
+        if(!versionFilters.isEmpty() && !versionFilters.contains(versionId))
+        {
+            return false;
+        }
+        return groupIdFilters.isEmpty() || groupIdFilters.contains(groupId);
     }
 
     public void generateScript(final Path outputDir,
                                final Path settingsXml,
                                final String url,
                                final String repositoryId)
+    {
+        final RunMetrics metrics = runReportFile.isPresent() ? new RunMetrics(runReportSlowestCount) : RunMetrics.DISABLED;
+        try (RunMetrics.Scope scope = metrics.bind())
+        {
+            writeScript(outputDir, settingsXml, url, repositoryId);
+        }
+        if (runReportFile.isPresent())
+        {
+            metrics.writeReport(runReportFile.get());
+            logger.info("Run report written to : " + runReportFile.get().toAbsolutePath());
+        }
+    }
+
+    private void writeScript(final Path outputDir,
+                             final Path settingsXml,
+                             final String url,
+                             final String repositoryId)
     {
         try
         {
@@ -141,111 +584,792 @@ public class GenerateMavenDeployScripts
             throw new RuntimeException("Unable to create the output directory - " + outputDir + " - got the exception : " + e);
         }
 
-        final List<PomFileExtract> pomFileExtracts = getPomFileExtracts();
-        final StringBuilder outputScript = new StringBuilder();
+        if (deployConcurrency > 1 && isConcurrentScript() == false && scriptType.isUpload() == false)
+        {
+            logger.info("A deploy concurrency of " + deployConcurrency + " only applies to Unix mvn scripts - the commands will run one at a time.");
+        }
+
+        final StagingRun run = new StagingRun(outputDir, settingsXml, url, repositoryId);
+        try
+        {
+            writeScript(run, outputDir, settingsXml, url);
+        }
+        finally
+        {
+            run.close();
+        }
+    }
+
+    /**
+     * Stages the extracts while the scan is running, then writes the script. Only staging overlaps the scan: no part
+     * of the script is written until the scan has finished, as the {@link DeployPlan} - which orders the script -
+     * needs every extract (an extract found late in the scan may be the parent of one found early). Until then the
+     * parts of the script are held on disk, in the {@link ScriptFragments} of the run.
+     */
+    private void writeScript(final StagingRun run,
+                             final Path outputDir,
+                             final Path settingsXml,
+                             final String url)
+    {
+        final RunMetrics metrics = RunMetrics.current();
+        final List<PomFileExtract> pomFileExtracts = new ArrayList<>();
+        stageWhileScanning(run::stage, pomFileExtracts);
+        run.upload();
+
+        final long planStart = metrics.start();
+        final ScriptPlan plan = new ScriptPlan(DeployPlan.build(pomFileExtracts), run.extractScripts, run.batchExecutions);
+        metrics.record(RunMetrics.Phase.PLAN, null, planStart, 0);
+
+        final long scriptStart = metrics.start();
+        if (isShardedScript())
+        {
+            generateShardedScripts(outputDir, settingsXml, plan);
+            metrics.record(RunMetrics.Phase.SCRIPT_WRITE, null, scriptStart, 0);
+            return;
+        }
+
+        final Path script = outputDir.resolve(SCRIPT_NAME + osTarget.getFileExtension());
+        try (Writer outputScript = openScript(script))
+        {
+            appendPreamble(outputScript);
+            if (run.deployer.isPresent())
+            {
+                outputScript.append(osTarget.getCommentPrefix() + "Artifacts staged in : " + run.layoutWriter.get().getRepositoryRoot().toAbsolutePath() + " - and uploaded to : " + url + "\n");
+            }
+            else if (run.layoutWriter.isPresent())
+            {
+                outputScript.append(osTarget.getCommentPrefix() + "Artifacts written directly to the repository : " + run.layoutWriter.get().getRepositoryRoot().toAbsolutePath() + "\n");
+            }
+
+            appendWaves(outputScript, plan.all(), plan, outputDir, settingsXml);
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException("Unable to write the final execution script : " + e, e);
+        }
+        finishScript(script);
+        metrics.record(RunMetrics.Phase.SCRIPT_WRITE, null, scriptStart, 0);
+    }
+
+    /**
+     * @return the artifact type of the extract, for the run report - jar, war or pom.
+     */
+    private static String typeOf(final PomFileExtract extract)
+    {
+        return extract.getPomFileExtractType() == PomFileExtractType.JAR_FILE ? RunMetrics.typeOf(extract.getJarOrWarFile().get()) : "pom";
+    }
+
+    private static final String SCRIPT_NAME = "000-execute-maven-script";
+
+    public Path getJarWarRootScanDirectory()
+    {
+        return jarWarRootScanDirectory;
+    }
 
-        for(PomFileExtract extract : pomFileExtracts)
+    /**
+     * Stages just the given files - new or changed since the script was generated - and appends their commands to
+     * the script {@link #generateScript(Path, Path, String, String)} wrote in the output directory, as waves of their
+     * own. The extracts are numbered on from the last scan, so nothing staged earlier is overwritten. Files that are
+     * not a jar, war or pom in a repository layout (see {@link #getPomFileExtracts()}) are left out.
+     *
+     * Sharded scripts cannot be appended to.
+     *
+     * @return the extracts staged, in plan order.
+     */
+    public List<PomFileExtract> appendToScript(final Collection<Path> files,
+                                               final Path outputDir,
+                                               final Path settingsXml,
+                                               final String url,
+                                               final String repositoryId)
+    {
+        if (isShardedScript())
         {
-            generateScriptForPomFileExtract(extract,
-                                            outputScript,
-                                            outputDir,
-                                            settingsXml,
-                                            url,
-                                            repositoryId);
+            throw new IllegalStateException("Only a single script can be appended to - the shard count is : " + shardCount);
+        }
+
+        final List<CandidateFile> candidateFiles = new ArrayList<>();
+        for (Path file : files)
+        {
+            if (isCandidateFile(file) == false || Files.isRegularFile(file) == false)
+            {
+                continue;
+            }
+            try
+            {
+                candidateFiles.add(new CandidateFile(file, Files.readAttributes(file, BasicFileAttributes.class)));
+            }
+            catch (IOException e)
+            {
+                logger.info("SKIPPED : " + file.toAbsolutePath() + " - got the message : " + e.getMessage());
+            }
         }
+        Collections.sort(candidateFiles);
 
+        final StagingRun run = new StagingRun(outputDir, settingsXml, url, repositoryId);
+        final List<PomFileExtract> extracts = new ArrayList<>();
         try
         {
-            Path script = outputDir.resolve("000-execute-maven-script" + osTarget.getFileExtension());
-            Files.write(script, outputScript.toString().getBytes(StandardCharsets.UTF_8));
-            if (osTarget.equals(OSTarget.Unix))
+            final ExtractDeduplicator deduplicator = new ExtractDeduplicator(extract ->
+            {
+                extracts.add(extract);
+                run.stage(extract);
+            }, lastInstanceId);
+            for (CandidateFile file : candidateFiles)
+            {
+                createPomFileExtract(file).ifPresent(deduplicator);
+            }
+            deduplicator.finish();
+            lastInstanceId = deduplicator.getLastInstanceId();
+            run.upload();
+
+            final ScriptPlan plan = new ScriptPlan(DeployPlan.build(extracts), run.extractScripts, run.batchExecutions);
+            if (plan.extracts.isEmpty())
             {
-                script.toFile().setExecutable(true);
+                return plan.extracts;
             }
 
-            logger.info("Finished Writing the Deploy Pack to : " + script.toAbsolutePath());
+            final Path script = outputDir.resolve(SCRIPT_NAME + osTarget.getFileExtension());
+            try (Writer outputScript = Files.newBufferedWriter(script, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND))
+            {
+                outputScript.append("\n" + osTarget.getCommentPrefix() + "Appended " + new Date() + " - " + plan.extracts.size() + " new or changed artifacts.\n");
+                appendWaves(outputScript, plan.all(), plan, outputDir, settingsXml);
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException("Unable to append to the execution script : " + script + " - got the exception : " + e, e);
+            }
+            finishScript(script);
+            return plan.extracts;
         }
-        catch(IOException e)
+        finally
+        {
+            run.close();
+        }
+    }
+
+    /**
+     * Writes one script per shard (see {@link ScriptSharder}) and a driver - under the usual script name - that runs
+     * the parent POM shard and then the other shards. On Unix the driver runs the other shards in parallel; they can
+     * equally be run on separate machines that share the output directory, once shard 00 has finished.
+     *
+     * A shard stops at its first failed command (see {@link #appendCommand(StringBuilder, String, List)}) and
+     * exits non-zero, so the driver never starts the later shards on top of parents that were not deployed.
+     *
+     * Only the parent POMs are ordered before the jars/wars. The waves of the plan are kept within each shard, but
+     * not across shards: a jar may be deployed by one shard before a jar it depends on is deployed by another.
+     */
+    private void generateShardedScripts(final Path outputDir, final Path settingsXml, final ScriptPlan plan)
+    {
+        final List<List<Integer>> shards = ScriptSharder.assign(plan.extracts, shardCount);
+        final DecimalFormat shardFormat = new DecimalFormat("00");
+        final List<String> shardScriptNames = new ArrayList<>(shards.size());
+
+        for (int s = 0; s < shards.size(); s++)
+        {
+            final String shardScriptName = SCRIPT_NAME + "-shard-" + shardFormat.format(s) + osTarget.getFileExtension();
+            shardScriptNames.add(shardScriptName);
+
+            final Path shardScript = outputDir.resolve(shardScriptName);
+            try (Writer out = openScript(shardScript))
+            {
+                appendPreamble(out);
+                out.append(osTarget.getCommentPrefix() + "Shard " + s + " of " + shards.size() + (s == 0 ? " - the parent POMs, which must be deployed before the other shards run." : "") + "\n");
+                appendWaves(out, shards.get(s), plan, outputDir, settingsXml);
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException("Unable to write the shard script : " + shardScript + " - got the exception : " + e, e);
+            }
+            finishScript(shardScript);
+        }
+
+        final StringBuilder driver = new StringBuilder();
+        if (osTarget == OSTarget.Unix)
+        {
+            driver.append("#!/usr/bin/env bash\n");
+            driver.append("# Runs shard 00 (the parent POMs), then the other shards in parallel.\n");
+            driver.append("# The jar/war shards are not ordered against each other - a jar may be deployed before a jar it depends on.\n");
+            driver.append("DIR=\"$(cd \"$(dirname \"$0\")\" && pwd)\"\n");
+            driver.append("bash \"$DIR/" + shardScriptNames.get(0) + "\" || exit 1\n");
+            driver.append("PIDS=\"\"\n");
+            for (int s = 1; s < shardScriptNames.size(); s++)
+            {
+                driver.append("bash \"$DIR/" + shardScriptNames.get(s) + "\" & PIDS=\"$PIDS $!\"\n");
+            }
+            driver.append("STATUS=0\n");
+            driver.append("for PID in $PIDS; do wait $PID || STATUS=1; done\n");
+            driver.append("exit $STATUS\n");
+        }
+        else
+        {
+            driver.append(osTarget.getCommentPrefix() + "Runs shard 00 (the parent POMs), then the other shards one after the other.\n");
+            driver.append(osTarget.getCommentPrefix() + "The jar/war shards are not ordered against each other - a jar may be deployed before a jar it depends on.\n");
+            for (int s = 0; s < shardScriptNames.size(); s++)
+            {
+                driver.append(osTarget.getPrefix() + "\"%~dp0" + shardScriptNames.get(s) + "\" || exit /b 1\n");
+            }
+        }
+        final Path driverScript = outputDir.resolve(SCRIPT_NAME + osTarget.getFileExtension());
+        try (Writer out = openScript(driverScript))
+        {
+            out.append(driver);
+        }
+        catch (IOException e)
         {
             throw new RuntimeException("Unable to write the final execution script : " + e, e);
         }
+        finishScript(driverScript);
+    }
+
+    /**
+     * The helper functions a script running the commands of a wave concurrently needs.
+     */
+    private void appendPreamble(final Writer outputScript) throws IOException
+    {
+        if (isConcurrentScript() == false)
+        {
+            return;
+        }
+        outputScript.append("#!/usr/bin/env bash\n");
+        outputScript.append("# Runs up to " + deployConcurrency + " commands of a wave at once; a wave starts once the previous one has finished.\n");
+        outputScript.append("MAX_JOBS=" + deployConcurrency + "\n");
+        outputScript.append("FAILED_MARKER=\"$(mktemp)\" && rm -f \"$FAILED_MARKER\"\n");
+        outputScript.append("fail() { touch \"$FAILED_MARKER\"; }\n");
+        outputScript.append("throttle() { while [ \"$(jobs -rp | wc -l)\" -ge \"$MAX_JOBS\" ]; do wait -n; done; }\n");
+        outputScript.append("endWave() { wait; if [ -e \"$FAILED_MARKER\" ]; then rm -f \"$FAILED_MARKER\"; echo \"A command in wave $1 failed - stopping.\" >&2; exit 1; fi; }\n");
+    }
+
+    /**
+     * Appends the scripts of the given extracts (positions in plan order, ascending) wave by wave. When batching, the
+     * batched extracts of each wave are written out as batches - see {@link #setMavenBatchSize(int)}.
+     */
+    private void appendWaves(final Writer outputScript,
+                             final List<Integer> extracts,
+                             final ScriptPlan plan,
+                             final Path outputDir,
+                             final Path settingsXml) throws IOException
+    {
+        final List<Integer> batch = new ArrayList<>(mavenBatchSize);
+        int currentWave = -1;
+        for (int i : extracts)
+        {
+            final int wave = plan.waveOf.get(i);
+            if (wave != currentWave)
+            {
+                appendBatch(outputScript, batch, plan, outputDir, settingsXml);
+                if (currentWave != -1 && isConcurrentScript())
+                {
+                    outputScript.append("endWave " + (currentWave + 1) + "\n");
+                }
+                outputScript.append("\n" + osTarget.getCommentPrefix() + "Wave " + (wave + 1) + " of " + plan.waveCount + "\n");
+                currentWave = wave;
+            }
+            outputScript.append(plan.extractScripts.get(plan.extracts.get(i).getInstanceId()));
+            if (plan.batchExecutions.containsKey(plan.extracts.get(i).getInstanceId()))
+            {
+                batch.add(i);
+                if (batch.size() == mavenBatchSize)
+                {
+                    appendBatch(outputScript, batch, plan, outputDir, settingsXml);
+                }
+            }
+        }
+        appendBatch(outputScript, batch, plan, outputDir, settingsXml);
+        if (currentWave != -1 && isConcurrentScript())
+        {
+            outputScript.append("endWave " + (currentWave + 1) + "\n");
+        }
+    }
+
+    private static final String INSTALL_PLUGIN_VERSION = "3.1.1";
+    private static final String DEPLOY_PLUGIN_VERSION = "3.1.1";
+
+    /**
+     * Writes the aggregator POM of the batch - named after its first extract - and appends the mvn command that runs
+     * it. Then empties the batch.
+     */
+    private void appendBatch(final Writer outputScript,
+                             final List<Integer> batch,
+                             final ScriptPlan plan,
+                             final Path outputDir,
+                             final Path settingsXml) throws IOException
+    {
+        if (batch.isEmpty())
+        {
+            return;
+        }
+
+        final String batchId = fileNameFormatter.get().format(plan.extracts.get(batch.get(0)).getInstanceId()) + "-batch";
+        final boolean deploy = scriptType == ScriptType.RemoteRepoDeploy;
+        final StringBuilder pom = new StringBuilder();
+        pom.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        pom.append("<project xmlns=\"http://maven.apache.org/POM/4.0.0\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:schemaLocation=\"http://maven.apache.org/POM/4.0.0 http://maven.apache.org/xsd/maven-4.0.0.xsd\">\n");
+        pom.append("  <modelVersion>4.0.0</modelVersion>\n");
+        pom.append("  <groupId>uk.co.devworx.maven.deploy.batch</groupId>\n");
+        pom.append("  <artifactId>").append(batchId).append("</artifactId>\n");
+        pom.append("  <version>1</version>\n");
+        pom.append("  <packaging>pom</packaging>\n");
+        pom.append("  <build>\n");
+        pom.append("    <plugins>\n");
+        pom.append("      <plugin>\n");
+        pom.append("        <groupId>org.apache.maven.plugins</groupId>\n");
+        pom.append("        <artifactId>").append(deploy ? "maven-deploy-plugin" : "maven-install-plugin").append("</artifactId>\n");
+        pom.append("        <version>").append(deploy ? DEPLOY_PLUGIN_VERSION : INSTALL_PLUGIN_VERSION).append("</version>\n");
+        pom.append("        <executions>\n");
+        final StringBuilder journalEntries = new StringBuilder();
+        for (int i : batch)
+        {
+            final PomFileExtract extract = plan.extracts.get(i);
+            pom.append(plan.batchExecutions.get(extract.getInstanceId()));
+            journalEntries.append(DeployJournal.entryOf(extract)).append(osTarget == OSTarget.Windows ? "\r\n" : "\n");
+        }
+        pom.append("        </executions>\n");
+        pom.append("      </plugin>\n");
+        pom.append("    </plugins>\n");
+        pom.append("  </build>\n");
+        pom.append("</project>\n");
+
+        final Path batchPom = outputDir.resolve(batchId + ".pom.xml");
+        Files.write(batchPom, pom.toString().getBytes(StandardCharsets.UTF_8));
+
+        Optional<Path> entriesFile = Optional.empty();
+        if (deployJournalFile.isPresent())
+        {
+            entriesFile = Optional.of(outputDir.resolve(batchId + ".journal"));
+            Files.write(entriesFile.get(), journalEntries.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        final StringBuilder command = new StringBuilder();
+        command.append("\n" + osTarget.getCommentPrefix() + "Batch of " + batch.size() + " artifacts - see " + batchPom.toAbsolutePath() + "\n");
+        appendBatchCommand(command, batchId, osTarget.getPrefix() + "mvn -f \"" + batchPom.toAbsolutePath() + "\" validate" +
+                                             " -s \"" + settingsXml.toAbsolutePath() + "\"", entriesFile, batch.size());
+        outputScript.append(command);
+        batch.clear();
+    }
+
+    /**
+     * The extracts in plan order, with the wave of each - and the part of the script and the batch execution (see
+     * {@link #setMavenBatchSize(int)}) of each, by instance id.
+     */
+    private static final class ScriptPlan
+    {
+        private final List<PomFileExtract> extracts = new ArrayList<>();
+        private final List<Integer> waveOf = new ArrayList<>();
+        private final ScriptFragments extractScripts;
+        private final ScriptFragments batchExecutions;
+        private final int waveCount;
+
+        private ScriptPlan(final DeployPlan plan, final ScriptFragments extractScripts, final ScriptFragments batchExecutions)
+        {
+            for (int w = 0; w < plan.getWaves().size(); w++)
+            {
+                for(PomFileExtract extract : plan.getWaves().get(w))
+                {
+                    extracts.add(extract);
+                    waveOf.add(w);
+                }
+            }
+            this.extractScripts = extractScripts;
+            this.batchExecutions = batchExecutions;
+            this.waveCount = plan.getWaves().size();
+        }
+
+        /**
+         * @return the positions of all the extracts.
+         */
+        private List<Integer> all()
+        {
+            final List<Integer> all = new ArrayList<>(extracts.size());
+            for (int i = 0; i < extracts.size(); i++)
+            {
+                all.add(i);
+            }
+            return all;
+        }
+    }
+
+    private Writer openScript(final Path script) throws IOException
+    {
+        return Files.newBufferedWriter(script, StandardCharsets.UTF_8);
+    }
+
+    private void finishScript(final Path script)
+    {
+        if (osTarget.equals(OSTarget.Unix))
+        {
+            script.toFile().setExecutable(true);
+        }
+        logger.info("Finished Writing the Deploy Pack to : " + script.toAbsolutePath());
+    }
+
+    /**
+     * The state of staging one set of extracts - the repository layout they are written to and / or the deployer they
+     * are uploaded with, the deploy journal, and the parts of the script staged so far (spilled to disk, see
+     * {@link ScriptFragments}). {@link #stage(PomFileExtract)} is safe to call from multiple threads.
+     */
+    private final class StagingRun
+    {
+        private final Path outputDir;
+        private final Path settingsXml;
+        private final String url;
+        private final String repositoryId;
+        private final Optional<RepositoryDeployer> deployer;
+        private final Optional<RepositoryLayoutWriter> layoutWriter;
+        private final Queue<Path> stagedVersionDirs = new ConcurrentLinkedQueue<>();
+        private final Map<Path, String> journalEntries = new ConcurrentHashMap<>();
+        private final ScriptFragments extractScripts = new ScriptFragments();
+        private final ScriptFragments batchExecutions = new ScriptFragments();
+        private final Optional<DeployJournal> journal;
+
+        private StagingRun(final Path outputDir, final Path settingsXml, final String url, final String repositoryId)
+        {
+            this.outputDir = outputDir;
+            this.settingsXml = settingsXml;
+            this.url = url;
+            this.repositoryId = repositoryId;
+            this.deployer = scriptType.isUpload() ? Optional.of(createRepositoryDeployer(settingsXml, url, repositoryId)) : Optional.empty();
+            this.layoutWriter = scriptType.isDirectLayout() ? Optional.of(createRepositoryLayoutWriter(outputDir, url)) : Optional.empty();
+            layoutWriter.ifPresent(w -> w.setStagingStrategy(stagingStrategy));
+            if (deployer.isPresent())
+            {
+                layoutWriter.get().setExistingMetadataSource(deployer.get()::get);
+            }
+            this.journal = deployJournalFile.isPresent() ? Optional.of(DeployJournal.open(deployJournalFile.get())) : Optional.empty();
+        }
+
+        /**
+         * Stages the extract, and adds its part of the script to {@link #extractScripts}.
+         */
+        private void stage(final PomFileExtract extract)
+        {
+            final RunMetrics metrics = RunMetrics.current();
+            final long start = metrics.start();
+            final StringBuilder extractScript = new StringBuilder();
+            final Optional<String> journalEntry = journal.isPresent() ? Optional.of(DeployJournal.entryOf(extract)) : Optional.empty();
+            if (journalEntry.isPresent() && journal.get().isDone(journalEntry.get()))
+            {
+                extractScript.append(osTarget.getCommentPrefix() + extract.getGroupId() + ":" + extract.getArtefactId() + ":" + extract.getVersionId() + " - already deployed (see " + deployJournalFile.get().toAbsolutePath() + ")\n");
+            }
+            else if (layoutWriter.isPresent())
+            {
+                final long installStart = metrics.start();
+                final Path versionDir = layoutWriter.get().install(extract);
+                metrics.record(RunMetrics.Phase.LAYOUT_INSTALL, typeOf(extract), installStart, 0);
+                extractScript.append(osTarget.getCommentPrefix() + extract.getGroupId() + ":" + extract.getArtefactId() + ":" + extract.getVersionId() + " -> " + versionDir.toAbsolutePath() + "\n");
+                if (deployer.isPresent())
+                {
+                    stagedVersionDirs.add(versionDir);
+                    journalEntry.ifPresent(entry -> journalEntries.put(versionDir, entry));
+                }
+                else if (journalEntry.isPresent())
+                {
+                    journal.get().record(journalEntry.get());
+                }
+            }
+            else
+            {
+                generateScriptForPomFileExtract(extract,
+                                                extractScript,
+                                                outputDir,
+                                                settingsXml,
+                                                url,
+                                                repositoryId,
+                                                journalEntry,
+                                                batchExecutions);
+            }
+            extractScripts.put(extract.getInstanceId(), extractScript.toString());
+            metrics.recordArtifact(extract.getGroupId() + ":" + extract.getArtefactId() + ":" + extract.getVersionId(), typeOf(extract), start);
+        }
+
+        /**
+         * Uploads what has been staged, for an in-process deploy.
+         */
+        private void upload()
+        {
+            if (deployer.isPresent())
+            {
+                deployer.get().uploadArtifacts(layoutWriter.get().getRepositoryRoot(), new ArrayList<>(stagedVersionDirs), versionDir ->
+                {
+                    if (journal.isPresent())
+                    {
+                        journal.get().record(journalEntries.get(versionDir));
+                    }
+                });
+            }
+        }
+
+        private void close()
+        {
+            try
+            {
+                if (journal.isPresent())
+                {
+                    journal.get().close();
+                }
+            }
+            finally
+            {
+                extractScripts.close();
+                batchExecutions.close();
+            }
+        }
+    }
+
+    /**
+     * Stages each extract as the scan hands it over - on the staging executor, if there is one, with at most
+     * {@link #setPipelineCapacity(int)} extracts in flight; the scan waits when staging falls that far behind.
+     * Collects the extracts, in scan order. Nothing is written to the script here - see
+     * {@link #writeScript(StagingRun, Path, Path, String)}.
+     */
+    private void stageWhileScanning(final Consumer<PomFileExtract> stageExtract,
+                                    final List<PomFileExtract> extracts)
+    {
+        if (stagingExecutor == null)
+        {
+            forEachPomFileExtract(extract ->
+            {
+                extracts.add(extract);
+                stageExtract.accept(extract);
+            });
+            return;
+        }
+
+        final RunMetrics metrics = RunMetrics.current();
+        final Deque<Future<?>> window = new ArrayDeque<>();
+        try
+        {
+            forEachPomFileExtract(extract ->
+            {
+                if (window.size() == pipelineCapacity)
+                {
+                    awaitStaging(window.removeFirst(), window);
+                }
+                extracts.add(extract);
+                window.addLast(stagingExecutor.submit(metrics.wrap(() ->
+                {
+                    stageExtract.accept(extract);
+                    return null;
+                })));
+            });
+            while (window.isEmpty() == false)
+            {
+                awaitStaging(window.removeFirst(), window);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            window.forEach(f -> f.cancel(true));
+            throw e;
+        }
+    }
+
+    private static void awaitStaging(final Future<?> future, final Deque<Future<?>> window)
+    {
+        try
+        {
+            future.get();
+        }
+        catch (InterruptedException e)
+        {
+            window.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the artifacts to be staged.", e);
+        }
+        catch (ExecutionException e)
+        {
+            window.forEach(f -> f.cancel(true));
+            throw new RuntimeException("Unable to stage the artifacts - got exception : " + e.getCause(), e.getCause());
+        }
+    }
+
+    private RepositoryDeployer createRepositoryDeployer(final Path settingsXml, final String url, final String repositoryId)
+    {
+        if (url == null || (url.startsWith("http://") == false && url.startsWith("https://") == false))
+        {
+            throw new RuntimeException("An in-process deploy needs an http or https repository url - got : " + url);
+        }
+        final RepositoryDeployer deployer = new RepositoryDeployer(url);
+        deployer.setConcurrency(deployConcurrency);
+        if (deployer.setCredentialsFromSettings(settingsXml, repositoryId) == false)
+        {
+            logger.info("No credentials found for the server " + repositoryId + " in : " + settingsXml + " - deploying without.");
+        }
+        return deployer;
+    }
+
+    /**
+     * A file: url is written to as a (remote) repository; otherwise the artifacts go into a local repository under
+     * the output directory.
+     */
+    private RepositoryLayoutWriter createRepositoryLayoutWriter(final Path outputDir, final String url)
+    {
+        if (scriptType.isUpload())
+        {
+            return new RepositoryLayoutWriter(outputDir.resolve("repository-staging"), groupIdRewriter, false, getChecksumAlgorithms());
+        }
+        if (url != null && url.startsWith("file:"))
+        {
+            try
+            {
+                return new RepositoryLayoutWriter(Paths.get(new URI(url)), groupIdRewriter, false, getChecksumAlgorithms());
+            }
+            catch (URISyntaxException | IllegalArgumentException e)
+            {
+                throw new RuntimeException("Unable to use the url : " + url + " - as a repository directory. Got the exception : " + e, e);
+            }
+        }
+        return new RepositoryLayoutWriter(outputDir.resolve("repository"), groupIdRewriter, true, getChecksumAlgorithms());
     }
 
-    private static final DecimalFormat fileNameFormatter = new DecimalFormat("000");
+    /**
+     * DecimalFormat is not thread-safe, and artifacts may be staged in parallel.
+     */
+    private static final ThreadLocal<DecimalFormat> fileNameFormatter = ThreadLocal.withInitial(() -> new DecimalFormat("000"));
 
     private void generateScriptForPomFileExtract(final PomFileExtract extract,
                                                  final StringBuilder outputScript,
                                                  final Path outputDir,
                                                  final Path settingsXml,
                                                  final String url,
-                                                 final String repositoryId)
+                                                 final String repositoryId,
+                                                 final Optional<String> journalEntry,
+                                                 final ScriptFragments batchExecutions)
     {
         switch(extract.getPomFileExtractType())
         {
 
         case PARENT_POM:
-            generateScriptForPomFileExtract_parentPom(extract,outputScript,outputDir,settingsXml,url,repositoryId);
+            generateScriptForPomFileExtract_parentPom(extract,outputScript,outputDir,settingsXml,url,repositoryId,journalEntry,batchExecutions);
             return;
         case JAR_FILE:
-            generateScriptForPomFileExtract_jar(extract,outputScript,outputDir,settingsXml,url,repositoryId);
+            generateScriptForPomFileExtract_jar(extract,outputScript,outputDir,settingsXml,url,repositoryId,journalEntry,batchExecutions);
             return;
         default:
             throw new IllegalStateException("Unexpected value: " + extract.getPomFileExtractType() + " - you have not coded for this value.");
         }
     }
 
+    /**
+     * Appends the command - as a throttled background job when the script runs the commands of a wave concurrently.
+     * With a deploy journal, the command is skipped if its entry is already in the journal, and the entry is
+     * appended once the command succeeds.
+     */
+    private void appendCommand(final StringBuilder outputScript, String command, final Optional<String> journalEntry)
+    {
+        if (journalEntry.isPresent())
+        {
+            final String journal = deployJournalFile.get().toAbsolutePath().toString();
+            if (osTarget == OSTarget.Windows)
+            {
+                command = "findstr /x /c:\"" + journalEntry.get() + "\" \"" + journal + "\" >nul 2>&1 || (" + command + " && (>>\"" + journal + "\" echo " + journalEntry.get() + "))";
+            }
+            else
+            {
+                command = "{ grep -qxF '" + journalEntry.get() + "' \"" + journal + "\" 2>/dev/null || { " + command + " && echo '" + journalEntry.get() + "' >> \"" + journal + "\"; }; }";
+            }
+        }
+        appendLine(outputScript, command);
+    }
+
+    /**
+     * As {@link #appendCommand(StringBuilder, String, Optional)}, for the mvn command of a batch. With a deploy
+     * journal, the journal entries of the batch are in the entries file - one per line - and:
+     * <ul>
+     * <li>the batch is skipped if all of them are in the journal already;</li>
+     * <li>it fails, without running, if only some of them are - e.g. the journal was written by a script with another
+     * batch size. Generating the script again leaves out what is in the journal;</li>
+     * <li>otherwise it runs, and the entries file is appended to the journal once it succeeds. If it fails, nothing is
+     * recorded - see {@link #setMavenBatchSize(int)}.</li>
+     * </ul>
+     */
+    private void appendBatchCommand(final StringBuilder outputScript, final String batchId, String command, final Optional<Path> entriesFile, final int entryCount)
+    {
+        if (entriesFile.isPresent() == false)
+        {
+            appendLine(outputScript, command);
+            return;
+        }
+
+        final String journal = deployJournalFile.get().toAbsolutePath().toString();
+        final String entries = entriesFile.get().toAbsolutePath().toString();
+        final String partlyDeployed = "Batch " + batchId + " - some but not all of its artifacts are in the deploy journal " + journal + " - generate the script again.";
+        final String failed = "Batch " + batchId + " failed - the artifacts it deployed before the failure are not in the deploy journal " + journal + " - see the mvn output.";
+        if (osTarget == OSTarget.Windows)
+        {
+            outputScript.append("set DONE=0\n");
+            outputScript.append("for /f %%n in ('findstr /x /l /g:\"" + entries + "\" \"" + journal + "\" 2^>nul ^| find /c /v \"\"') do set DONE=%%n\n");
+            command = "(if %DONE%==0 (" + command + " && type \"" + entries + "\" >> \"" + journal + "\" || (echo " + failed + " 1>&2 & cmd /c exit /b 1))" +
+                      " else if %DONE% LSS " + entryCount + " (echo " + partlyDeployed + " 1>&2 & cmd /c exit /b 1))";
+        }
+        else
+        {
+            command = "{ DONE=$(grep -xF -f \"" + entries + "\" \"" + journal + "\" 2>/dev/null | sort -u | wc -l);" +
+                      " if [ \"$DONE\" -eq 0 ]; then " + command + " && cat \"" + entries + "\" >> \"" + journal + "\" || { echo \"" + failed + "\" >&2; false; };" +
+                      " elif [ \"$DONE\" -lt " + entryCount + " ]; then echo \"" + partlyDeployed + "\" >&2; false; fi; }";
+        }
+        appendLine(outputScript, command);
+    }
+
+    /**
+     * Appends the command - as a throttled background job when the script runs the commands of a wave concurrently,
+     * or stopping the script if it fails when the script is a shard.
+     */
+    private void appendLine(final StringBuilder outputScript, final String command)
+    {
+        if (isConcurrentScript())
+        {
+            outputScript.append(command + " || fail &\n");
+            outputScript.append("throttle\n");
+        }
+        else if (isShardedScript())
+        {
+            outputScript.append(command + (osTarget == OSTarget.Windows ? " || exit /b 1" : " || exit 1") + "\n");
+        }
+        else
+        {
+            outputScript.append(command + "\n");
+        }
+    }
+
     private void generateScriptForPomFileExtract_jar(final PomFileExtract extract,
                                                      final StringBuilder outputScript,
                                                      final Path outputDir,
                                                      final Path settingsXml,
                                                      final String url,
-                                                     final String repositoryId)
+                                                     final String repositoryId,
+                                                     final Optional<String> journalEntry,
+                                                     final ScriptFragments batchExecutions)
     {
         try
         {
-            final String idPrefix = fileNameFormatter.format(extract.getInstanceId());
+            final RunMetrics metrics = RunMetrics.current();
+            final String idPrefix = fileNameFormatter.get().format(extract.getInstanceId());
             //Generate the mavenless jar & extract the pom.
 
             final Path jarFile = outputDir.resolve(idPrefix + "-" + extract.getJarOrWarFile().get().getFileName());
             final Path pomFile = outputDir.resolve(idPrefix + "-" + extract.getJarOrWarFile().get().getFileName() + ".pom.xml");
 
-            logger.info("Copying from " + extract.getJarOrWarFile().get().toAbsolutePath() + " to " + jarFile.toAbsolutePath());
+            logger.info("Rewriting from " + extract.getJarOrWarFile().get().toAbsolutePath() + " to " + jarFile.toAbsolutePath());
 
-            Files.copy(extract.getJarOrWarFile().get(), jarFile, StandardCopyOption.REPLACE_EXISTING);
+            final Set<ChecksumAlgorithm> checksums = getChecksumAlgorithms();
+            Files.deleteIfExists(jarFile);
+            final DigestingOutputStream jarOut = new DigestingOutputStream(Files.newOutputStream(jarFile), checksums);
+            ZipUtils.rewriteJar(extract.getJarOrWarFile().get(), jarOut, groupIdRewriter, FlightEvents.coordinatesOf(extract));
+            jarOut.writeChecksumFiles(jarFile);
 
             Path sourceJarFile = null;
             if(extract.getSourceJarFile().isPresent())
             {
                 sourceJarFile = outputDir.resolve(idPrefix + "-" + extract.getSourceJarFile().get().getFileName());
-                logger.info("Copying Source Jar " + extract.getSourceJarFile().get().toAbsolutePath() + " to " + sourceJarFile.toAbsolutePath());
-                Files.copy(extract.getSourceJarFile().get(), sourceJarFile, StandardCopyOption.REPLACE_EXISTING);
-            }
-
-            ZipUtils.removeMavenSubDirFromJar(jarFile);
-            ZipUtils.replacePluginXMLInJar(jarFile, groupIdReplacements);
-
-            String pomFileData = new String(extract.getPomFileData());
-            Set<Map.Entry<String, String>> entries = groupIdReplacements.entrySet();
-            for (Map.Entry<String, String> e : entries)
-            {
-                pomFileData = pomFileData.replace(">" + e.getKey() + "<", ">" + e.getValue() + "<");
+                logger.info("Staging Source Jar (" + stagingStrategy + ") " + extract.getSourceJarFile().get().toAbsolutePath() + " to " + sourceJarFile.toAbsolutePath());
+                final long start = metrics.start();
+                sourceJarFile = stagingStrategy.stage(extract.getSourceJarFile().get(), sourceJarFile, checksums, false, FlightEvents.coordinatesOf(extract));
+                metrics.record(RunMetrics.Phase.SOURCES_STAGE, null, start, 0);
             }
 
-            Files.write(pomFile, pomFileData.getBytes(StandardCharsets.UTF_8));
-
-            outputScript.append("\n");
-
-            String srcJarPortion = sourceJarFile == null ? "" : " -Dsources=\"" + sourceJarFile.toAbsolutePath() + "\"";
+            writePom(pomFile, extract, checksums);
 
-            outputScript.append(osTarget.getPrefix() + "mvn " + scriptType.getMavenTarget() +
-                                        " -Durl=\"" + url + "\"" +
-                                        " -DrepositoryId=\"" + repositoryId + "\"" +
-                                        " -Dfile=\"" + jarFile.toAbsolutePath() + "\"" +
-                                        srcJarPortion +
-                                        " -DpomFile=\"" + pomFile.toAbsolutePath() + "\"" +
-                                        " -s \"" + settingsXml.toAbsolutePath() + "\"");
-
-            outputScript.append("\n");
+            appendDeploy(extract, outputScript, jarFile, Optional.ofNullable(sourceJarFile), pomFile, settingsXml, url, repositoryId, journalEntry, batchExecutions);
         }
         catch(Exception e)
         {
@@ -261,30 +1385,18 @@ public class GenerateMavenDeployScripts
                                                            final Path outputDir,
                                                            final Path settingsXml,
                                                            final String url,
-                                                           final String repositoryId)
+                                                           final String repositoryId,
+                                                           final Optional<String> journalEntry,
+                                                           final ScriptFragments batchExecutions)
     {
         try
         {
-            final String idPrefix = fileNameFormatter.format(extract.getInstanceId());
+            final String idPrefix = fileNameFormatter.get().format(extract.getInstanceId());
             final Path pomFile = outputDir.resolve(idPrefix + "-" + extract.getPomFile().get().getFileName());
 
-            String pomFileDataRepl = new String(extract.getPomFileData());
-            Set<Map.Entry<String, String>> entries = groupIdReplacements.entrySet();
-            for (Map.Entry<String, String> e : entries)
-            {
-                pomFileDataRepl = pomFileDataRepl.replace(">" + e.getKey() + "<", ">" + e.getValue() + "<");
-            }
-
-            Files.write(pomFile, pomFileDataRepl.getBytes(StandardCharsets.UTF_8));
+            writePom(pomFile, extract, getChecksumAlgorithms());
 
-            outputScript.append("\n");
-            outputScript.append(osTarget.getPrefix() + "mvn " + scriptType.getMavenTarget() +
-                                        " -Durl=\"" + url + "\"" +
-                                        " -DrepositoryId=\"" + repositoryId + "\"" +
-                                        " -Dfile=\"" + pomFile.toAbsolutePath() + "\"" +
-                                        " -DpomFile=\"" + pomFile.toAbsolutePath() + "\"" +
-                                        " -s \"" + settingsXml.toAbsolutePath() + "\"");
-            outputScript.append("\n");
+            appendDeploy(extract, outputScript, pomFile, Optional.empty(), pomFile, settingsXml, url, repositoryId, journalEntry, batchExecutions);
         }
         catch(Exception e)
         {
@@ -295,6 +1407,78 @@ public class GenerateMavenDeployScripts
         }
     }
 
+    /**
+     * Appends the mvn command that installs / deploys the staged files - or, when batching, records the execution
+     * doing the same in a batch POM, and only notes the artifact in the script.
+     */
+    private void appendDeploy(final PomFileExtract extract,
+                              final StringBuilder outputScript,
+                              final Path file,
+                              final Optional<Path> sourcesFile,
+                              final Path pomFile,
+                              final Path settingsXml,
+                              final String url,
+                              final String repositoryId,
+                              final Optional<String> journalEntry,
+                              final ScriptFragments batchExecutions)
+    {
+        if (isBatched() == false)
+        {
+            outputScript.append("\n");
+
+            String srcJarPortion = sourcesFile.isPresent() == false ? "" : " -Dsources=\"" + sourcesFile.get().toAbsolutePath() + "\"";
+
+            appendCommand(outputScript, osTarget.getPrefix() + "mvn " + scriptType.getMavenTarget() +
+                                        " -Durl=\"" + url + "\"" +
+                                        " -DrepositoryId=\"" + repositoryId + "\"" +
+                                        " -Dfile=\"" + file.toAbsolutePath() + "\"" +
+                                        srcJarPortion +
+                                        " -DpomFile=\"" + pomFile.toAbsolutePath() + "\"" +
+                                        " -s \"" + settingsXml.toAbsolutePath() + "\"", journalEntry);
+            return;
+        }
+
+        final String mavenTarget = scriptType.getMavenTarget();
+        final StringBuilder execution = new StringBuilder();
+        execution.append("          <execution>\n");
+        execution.append("            <id>").append(escapeXml(file.getFileName().toString())).append("</id>\n");
+        execution.append("            <phase>validate</phase>\n");
+        execution.append("            <goals>\n");
+        execution.append("              <goal>").append(mavenTarget.substring(mavenTarget.indexOf(':') + 1)).append("</goal>\n");
+        execution.append("            </goals>\n");
+        execution.append("            <configuration>\n");
+        execution.append("              <file>").append(escapeXml(file.toAbsolutePath().toString())).append("</file>\n");
+        if (sourcesFile.isPresent())
+        {
+            execution.append("              <sources>").append(escapeXml(sourcesFile.get().toAbsolutePath().toString())).append("</sources>\n");
+        }
+        execution.append("              <pomFile>").append(escapeXml(pomFile.toAbsolutePath().toString())).append("</pomFile>\n");
+        if (scriptType == ScriptType.RemoteRepoDeploy)
+        {
+            execution.append("              <url>").append(escapeXml(url)).append("</url>\n");
+            execution.append("              <repositoryId>").append(escapeXml(repositoryId)).append("</repositoryId>\n");
+        }
+        execution.append("            </configuration>\n");
+        execution.append("          </execution>\n");
+        batchExecutions.put(extract.getInstanceId(), execution.toString());
+
+        outputScript.append(osTarget.getCommentPrefix() + extract.getGroupId() + ":" + extract.getArtefactId() + ":" + extract.getVersionId() + " -> " + file.toAbsolutePath() + "\n");
+    }
+
+    private static String escapeXml(final String s)
+    {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private void writePom(final Path pomFile, final PomFileExtract extract, final Set<ChecksumAlgorithm> checksums) throws IOException
+    {
+        final RunMetrics metrics = RunMetrics.current();
+        final long start = metrics.start();
+        final byte[] pomFileData = groupIdRewriter.rewrite(extract.getPomFileData());
+        DigestingOutputStream.write(pomFile, pomFileData, checksums);
+        metrics.record(RunMetrics.Phase.POM_WRITE, "pom", start, pomFileData.length);
+    }
+
 
 }
 
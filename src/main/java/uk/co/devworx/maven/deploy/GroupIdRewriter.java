@@ -0,0 +1,209 @@
+package uk.co.devworx.maven.deploy;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Applies a set of group id replacements to XML documents (pom.xml, plugin.xml) in a single pass.
+ *
+ * The replacement keys are compiled once into a byte trie. Each element text in the document - the
+ * bytes between a '>' and the next '<' - is then matched against the trie, so the cost of a rewrite is
+ * linear in the size of the document no matter how many rules there are.
+ *
+ * Two kinds of rule are supported:
+ * <ul>
+ *     <li>Exact - "uk.co.devworx" : "repl.uk.co.devworx" replaces the element text only if it is exactly the key.</li>
+ *     <li>Prefix - "org.foo.*" : "corp.org.foo.*" replaces "org.foo" and any group beneath it, e.g. "org.foo.bar" becomes
+ *     "corp.org.foo.bar".</li>
+ * </ul>
+ * An exact rule wins over a prefix rule, and the longest matching prefix rule wins over shorter ones.
+ * Replaced text is never matched again, so rules do not chain.
+ */
+public class GroupIdRewriter
+{
+	private static final String PREFIX_SUFFIX = ".*";
+
+	private static final class Node
+	{
+		private byte[] keys = new byte[0];
+		private Node[] next = new Node[0];
+		private byte[] exactReplacement;
+		private byte[] prefixReplacement;
+
+		private Node child(byte b)
+		{
+			int idx = Arrays.binarySearch(keys, b);
+			return idx < 0 ? null : next[idx];
+		}
+
+		private Node getOrCreateChild(byte b)
+		{
+			int idx = Arrays.binarySearch(keys, b);
+			if (idx >= 0) return next[idx];
+
+			int insertAt = -idx - 1;
+			byte[] newKeys = new byte[keys.length + 1];
+			Node[] newNext = new Node[next.length + 1];
+			System.arraycopy(keys, 0, newKeys, 0, insertAt);
+			System.arraycopy(next, 0, newNext, 0, insertAt);
+			newKeys[insertAt] = b;
+			newNext[insertAt] = new Node();
+			System.arraycopy(keys, insertAt, newKeys, insertAt + 1, keys.length - insertAt);
+			System.arraycopy(next, insertAt, newNext, insertAt + 1, next.length - insertAt);
+			keys = newKeys;
+			next = newNext;
+			return next[insertAt];
+		}
+	}
+
+	private final Node root = new Node();
+	private final boolean empty;
+
+	public GroupIdRewriter(Map<String, String> groupIdReplacements)
+	{
+		for (Map.Entry<String, String> e : groupIdReplacements.entrySet())
+		{
+			final String key = e.getKey();
+			final String value = e.getValue();
+			if (key.endsWith(PREFIX_SUFFIX))
+			{
+				final String base = key.substring(0, key.length() - PREFIX_SUFFIX.length());
+				final String replacementBase = value.endsWith(PREFIX_SUFFIX) ? value.substring(0, value.length() - PREFIX_SUFFIX.length()) : value;
+				if (base.isEmpty())
+				{
+					throw new IllegalArgumentException("The prefix group id replacement '" + key + "' must have something before the " + PREFIX_SUFFIX);
+				}
+				nodeFor(base).prefixReplacement = replacementBase.getBytes(StandardCharsets.UTF_8);
+			}
+			else
+			{
+				nodeFor(key).exactReplacement = value.getBytes(StandardCharsets.UTF_8);
+			}
+		}
+		this.empty = groupIdReplacements.isEmpty();
+	}
+
+	private Node nodeFor(String key)
+	{
+		Node node = root;
+		for (byte b : key.getBytes(StandardCharsets.UTF_8))
+		{
+			node = node.getOrCreateChild(b);
+		}
+		return node;
+	}
+
+	/**
+	 * @return the rewritten document - or the same array if nothing was replaced.
+	 */
+	public byte[] rewrite(byte[] document)
+	{
+		if (empty) return document;
+
+		ByteArrayOutputStream out = null;
+		int copiedUpTo = 0;
+		int i = 0;
+		final int len = document.length;
+
+		while (i < len)
+		{
+			if (document[i] != '>')
+			{
+				i++;
+				continue;
+			}
+
+			final int textStart = i + 1;
+
+			// Walk the trie as far as the text allows, remembering the deepest prefix rule that matched at a boundary.
+			Node node = root;
+			int pos = textStart;
+			Node prefixNode = null;
+			int prefixEnd = -1;
+			while (node != null && pos <= len)
+			{
+				final byte b = pos < len ? document[pos] : 0;
+				if (node.prefixReplacement != null && (b == '<' || b == '.'))
+				{
+					prefixNode = node;
+					prefixEnd = pos;
+				}
+				if (pos == len || b == '<')
+				{
+					break;
+				}
+				node = node.child(b);
+				pos++;
+			}
+
+			byte[] replacement = null;
+			int replaceEnd = -1;
+			if (node != null && pos < len && document[pos] == '<' && node.exactReplacement != null)
+			{
+				replacement = node.exactReplacement;
+				replaceEnd = pos;
+			}
+			else if (prefixNode != null && endOfText(document, prefixEnd) != -1)
+			{
+				replacement = prefixNode.prefixReplacement;
+				replaceEnd = prefixEnd;
+			}
+
+			if (replacement == null)
+			{
+				i = textStart;
+				continue;
+			}
+
+			if (out == null)
+			{
+				out = new ByteArrayOutputStream(len + 64);
+			}
+			out.write(document, copiedUpTo, textStart - copiedUpTo);
+			out.write(replacement, 0, replacement.length);
+			copiedUpTo = replaceEnd;
+			i = endOfText(document, replaceEnd);
+		}
+
+		if (out == null)
+		{
+			return document;
+		}
+		out.write(document, copiedUpTo, len - copiedUpTo);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Applies the rules to the (UTF-8) document.
+	 */
+	public String rewrite(String document)
+	{
+		if (empty) return document;
+		return new String(rewrite(document.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Applies the rules to a bare group id, i.e. as if it were the text of a groupId element.
+	 */
+	public String rewriteGroupId(String groupId)
+	{
+		if (empty) return groupId;
+		final String rewritten = rewrite(">" + groupId + "<");
+		return rewritten.substring(1, rewritten.length() - 1);
+	}
+
+	/**
+	 * @return the position of the '<' closing the element text that contains from, or -1 if the text is not closed.
+	 */
+	private static int endOfText(byte[] document, int from)
+	{
+		for (int i = from; i < document.length; i++)
+		{
+			if (document[i] == '<') return i;
+			if (document[i] == '>') return -1;
+		}
+		return -1;
+	}
+}
@@ -2,16 +2,18 @@ package uk.co.devworx.maven.deploy;
 
 public enum OSTarget
 {
-    Windows("call ", ".bat"),
-    Unix("", ".sh");
+    Windows("call ", ".bat", "REM "),
+    Unix("", ".sh", "# ");
 
     private final String prefix;
     private final String fileExt;
+    private final String commentPrefix;
 
-    OSTarget(String prefix, String fileExt)
+    OSTarget(String prefix, String fileExt, String commentPrefix)
     {
         this.prefix = prefix;
         this.fileExt = fileExt;
+        this.commentPrefix = commentPrefix;
     }
 
     public String getPrefix()
@@ -23,4 +25,9 @@ public enum OSTarget
     {
         return fileExt;
     }
+
+    public String getCommentPrefix()
+    {
+        return commentPrefix;
+    }
 }
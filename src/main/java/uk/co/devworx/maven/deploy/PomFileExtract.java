@@ -2,23 +2,25 @@ package uk.co.devworx.maven.deploy;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.w3c.dom.Document;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import java.io.BufferedReader;
+
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringReader;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.zip.ZipException;
 
 /**
  * Represents a PomFile Extract item.
@@ -27,8 +29,6 @@ public class PomFileExtract
 {
 	private static final Logger logger = LogManager.getLogger(PomFileExtract.class);
 
-	private static final AtomicInteger counter = new AtomicInteger();
-
 	private final int instanceId;
 	private final Optional<Path> jarOrWarFile;
 
@@ -40,7 +40,21 @@ public class PomFileExtract
 
 	private final PomFileExtractType pomFileExtractType;
 
-	private final byte[] pomFileData;
+	/**
+	 * The parent (group:artifact:version) and the dependencies of the POM, with the properties they refer to resolved
+	 * - recorded when it is scanned, so a {@link DeployPlan} is built without reading the POM again.
+	 */
+	private final Optional<String> parentCoordinates;
+	private final List<PomModel.Dependency> dependencies;
+
+	/**
+	 * Null until first asked for when the extract was created from the {@link ScanCache}, and whenever the
+	 * data is not retained (see {@link #releasePomFileData()}).
+	 */
+	private volatile byte[] pomFileData;
+	private volatile boolean retainPomFileData = true;
+	private final byte[] pomFileDigest;
+	private volatile String contentHash;
 
 	@Override public String toString()
 	{
@@ -49,6 +63,31 @@ public class PomFileExtract
 
 	public static PomFileExtract create(Optional<Path> jarWarFilePathOpt,
 										Optional<Path> pomFileOpt)
+	{
+		return create(jarWarFilePathOpt, pomFileOpt, new PomModelCache());
+	}
+
+	/**
+	 * As {@link #create(Optional, Optional)}, but resolves inherited coordinates and ${...} references
+	 * against the parent POMs held in (or added to) the given cache.
+	 */
+	public static PomFileExtract create(Optional<Path> jarWarFilePathOpt,
+										Optional<Path> pomFileOpt,
+										PomModelCache pomModelCache)
+	{
+		return createIfWanted(jarWarFilePathOpt, pomFileOpt, pomModelCache, null).get();
+	}
+
+	/**
+	 * As {@link #create(Optional, Optional, PomModelCache)}, but reads just the coordinates of the POM first - and
+	 * returns empty, without reading the rest of the POM, if they need no resolving and are not wanted.
+	 *
+	 * @param wanted whether the (resolved) coordinates are wanted - or null to read every POM in full straight away.
+	 */
+	static Optional<PomFileExtract> createIfWanted(Optional<Path> jarWarFilePathOpt,
+												   Optional<Path> pomFileOpt,
+												   PomModelCache pomModelCache,
+												   Predicate<PomModel> wanted)
 	{
 		if (jarWarFilePathOpt.isPresent() == true && pomFileOpt.isPresent() == true)
 		{
@@ -61,13 +100,25 @@ public class PomFileExtract
 
 		if (jarWarFilePathOpt.isPresent())
 		{
-			return create_fromJarWar(jarWarFilePathOpt.get());
+			return Optional.ofNullable(create_fromJarWar(jarWarFilePathOpt.get(), pomModelCache, wanted));
 		}
 		else
 		{
-			return create_fromPom(pomFileOpt.get());
+			return Optional.ofNullable(create_fromPom(pomFileOpt.get(), pomModelCache, wanted));
 		}
+	}
 
+	/**
+	 * @return true if the coordinates read so far are known not to be wanted - so the rest of the POM need not be read.
+	 */
+	private static boolean isUnwanted(byte[] data, Path source, Predicate<PomModel> wanted)
+	{
+		if (wanted == null)
+		{
+			return false;
+		}
+		final PomModel coordinates = PomModel.readCoordinates(data, source);
+		return coordinates.needsResolution() == false && wanted.test(coordinates) == false;
 	}
 
 	public Optional<Path> getSourceJarFile()
@@ -75,70 +126,82 @@ public class PomFileExtract
 		return sourceJarFile;
 	}
 
-	private static PomFileExtract create_fromJarWar(Path jarWarFilePath)
+	/**
+	 * Re-creates an extract from what a previous scan recorded in the {@link ScanCache}. The POM data is not
+	 * read until {@link #getPomFileData()} is called. The cache entry only covers the jar/war itself, so whether it
+	 * has a sources jar is checked again.
+	 */
+	static PomFileExtract fromCache(Path file, ScanCache.Entry entry)
+	{
+		final PomFileExtractType type = entry.pomFileExtractType.orElseThrow(() -> new RuntimeException("The scan cache entry for " + file + " is not an artifact."));
+		if (type == PomFileExtractType.JAR_FILE)
+		{
+			final Path candidateSourceFile = sourceJarFileFor(file);
+			final Optional<Path> sourceJar = Files.exists(candidateSourceFile) ? Optional.of(candidateSourceFile) : Optional.empty();
+			return new PomFileExtract(Optional.of(file), Optional.empty(), sourceJar, entry.groupId, entry.artefactId, entry.versionId, entry.parentCoordinates, entry.dependencies, null, entry.pomFileDigest);
+		}
+		return new PomFileExtract(Optional.empty(), Optional.of(file), Optional.empty(), entry.groupId, entry.artefactId, entry.versionId, entry.parentCoordinates, entry.dependencies, null, entry.pomFileDigest);
+	}
+
+	/**
+	 * @return where the sources jar of the jar/war would be, i.e. [name]-sources.jar in the same directory.
+	 */
+	static Path sourceJarFileFor(Path jarWarFilePath)
+	{
+		String sourceJarName = jarWarFilePath.getFileName().toString();
+		sourceJarName = sourceJarName.substring(0, sourceJarName.length() - 4);
+		sourceJarName = sourceJarName + "-sources.jar";
+		return jarWarFilePath.getParent().resolve(sourceJarName);
+	}
+
+	private static PomFileExtract create_fromJarWar(Path jarWarFilePath, PomModelCache pomModelCache, Predicate<PomModel> wanted)
 	{
 		if (Files.exists(jarWarFilePath) == false || Files.isRegularFile(jarWarFilePath) == false || Files.isReadable(jarWarFilePath) == false)
 		{
-			throw new RuntimeException("Unable to read the file : " + jarWarFilePath);
+			throw new RuntimeException("Unable to read the file : " + jarWarFilePath, new FileSystemException(jarWarFilePath.toString()));
 		}
 
 		try
 		{
 			Optional<byte[]> dataOpt = ZipUtils.getPomFileDataFromJar(jarWarFilePath);
 			byte[] data = dataOpt.orElseThrow(() -> new RuntimeException("Could not extract a pom.xml file from the META-INF directory in the file : " + jarWarFilePath));
-
-			try (BufferedReader pomFileReader = new BufferedReader(new StringReader(new String(data))))
+			if (isUnwanted(data, jarWarFilePath, wanted))
 			{
-				Document document = PomFileUtils.docBuilder.parse(new InputSource(pomFileReader));
-				XPath xpath = PomFileUtils.xPathFactory.newXPath();
-
-				final String version = (String) xpath.compile("/project/version").evaluate(document, XPathConstants.STRING);
-				final String groupId = (String) xpath.compile("/project/groupId").evaluate(document, XPathConstants.STRING);
-				final String artefactId = (String) xpath.compile("/project/artifactId").evaluate(document, XPathConstants.STRING);
-
-				//Found out the source jar
-				final Optional<Path> sourceJar;
-				String sourceJarName = jarWarFilePath.getFileName().toString();
-				sourceJarName = sourceJarName.substring(0, sourceJarName.length() - 4);
-				sourceJarName = sourceJarName + "-sources.jar";
-				Path candidateSourceFile = jarWarFilePath.getParent().resolve(sourceJarName);
-				if(Files.exists(candidateSourceFile))
-				{
-					sourceJar = Optional.of(candidateSourceFile);
-				}
-				else
-				{
-					sourceJar = Optional.empty();
-				}
-
-				return new PomFileExtract(Optional.of(jarWarFilePath), Optional.empty(), sourceJar, groupId, artefactId, version, data);
+				return null;
 			}
+
+			final PomModel model = pomModelCache.resolve(PomModel.readFull(data, jarWarFilePath), data, jarWarFilePath);
+
+			//Found out the source jar
+			final Path candidateSourceFile = sourceJarFileFor(jarWarFilePath);
+			final Optional<Path> sourceJar = Files.exists(candidateSourceFile) ? Optional.of(candidateSourceFile) : Optional.empty();
+
+			return new PomFileExtract(Optional.of(jarWarFilePath), Optional.empty(), sourceJar, model.getGroupId(), model.getArtifactId(), model.getVersion(),
+									  parentCoordinatesOf(model), dependenciesOf(model), data, PomFileUtils.digest(data));
 		}
-		catch (IOException | URISyntaxException | SAXException | XPathExpressionException e)
+		catch (IOException | URISyntaxException e)
 		{
 			throw new RuntimeException("Unable to read the source file : " + jarWarFilePath + " - got the exception : " + e, e);
 		}
 	}
 
-    private static PomFileExtract create_fromPom(Path pomFilePath)
+    private static PomFileExtract create_fromPom(Path pomFilePath, PomModelCache pomModelCache, Predicate<PomModel> wanted)
     {
         if (Files.exists(pomFilePath) == false || Files.isRegularFile(pomFilePath) == false || Files.isReadable(pomFilePath) == false)
         {
-            throw new RuntimeException("Unable to read the file : " + pomFilePath);
+            throw new RuntimeException("Unable to read the file : " + pomFilePath, new FileSystemException(pomFilePath.toString()));
         }
 
-        Path tmpDir = null;
-        try (InputStream pomFileReader = Files.newInputStream(pomFilePath))
+        try
         {
-            Document document = PomFileUtils.docBuilder.parse(new InputSource(pomFileReader));
-            XPath xpath = PomFileUtils.xPathFactory.newXPath();
-
-            final String version = (String) xpath.compile("/project/version").evaluate(document, XPathConstants.STRING);
-            final String groupId = (String) xpath.compile("/project/groupId").evaluate(document, XPathConstants.STRING);
-            final String artefactId = (String) xpath.compile("/project/artifactId").evaluate(document, XPathConstants.STRING);
-            final String packaging = (String) xpath.compile("/project/packaging").evaluate(document, XPathConstants.STRING);
+            final byte[] data = Files.readAllBytes(pomFilePath);
+            if (isUnwanted(data, pomFilePath, wanted))
+            {
+                return null;
+            }
+            final PomModel model = pomModelCache.resolve(PomModel.readFull(data, pomFilePath), data, pomFilePath);
 
-            if(packaging.equals("pom") == false)
+            if(model.getPackaging().equals("pom") == false)
             {
                 throw new RuntimeException("Have tried to read the POM file - " + pomFilePath + " - but seems the packaging for it is not of 'pom' - hence it is not a parent pom that needs to be deployed.");
             }
@@ -146,35 +209,103 @@ public class PomFileExtract
             return new PomFileExtract(Optional.empty(),
                                       Optional.of(pomFilePath),
 									  Optional.empty(),
-                                      groupId, artefactId, version,
-                                      Files.readAllBytes(pomFilePath));
+                                      model.getGroupId(), model.getArtifactId(), model.getVersion(),
+                                      parentCoordinatesOf(model), dependenciesOf(model),
+                                      data, PomFileUtils.digest(data));
         }
         catch (IOException e)
         {
-            throw new RuntimeException("Unable to read the source file : " + pomFilePath + " - got the exception : " + e);
-        }
-        catch (SAXException | XPathExpressionException e)
-        {
-            throw new RuntimeException("Unable to parse the POM XML file : " + pomFilePath + " - got the exception : " + e, e);
+            throw new RuntimeException("Unable to read the source file : " + pomFilePath + " - got the exception : " + e, e);
         }
     }
 
+	/**
+	 * @return the coordinates of the parent of the (resolved) model, if it has one.
+	 */
+	private static Optional<String> parentCoordinatesOf(PomModel model)
+	{
+		if (model.getParentArtifactId().isPresent() == false)
+		{
+			return Optional.empty();
+		}
+		return Optional.of(model.getParentGroupId().orElse("") + ":" + model.getParentArtifactId().get() + ":" + model.getParentVersion().orElse(""));
+	}
+
+	/**
+	 * @return the dependencies of the (resolved, fully read) model, with the ${...} references to its own coordinates
+	 * and properties resolved. References that cannot be resolved are left in place.
+	 */
+	private static List<PomModel.Dependency> dependenciesOf(PomModel model)
+	{
+		if (model.getDependencies().isEmpty())
+		{
+			return Collections.emptyList();
+		}
+
+		final Function<String, String> lookup = name ->
+		{
+			switch (name)
+			{
+			case "project.groupId":
+			case "pom.groupId":
+			case "groupId":
+				return model.getGroupId();
+			case "project.version":
+			case "pom.version":
+			case "version":
+				return model.getVersion();
+			default:
+				return model.getProperties().get(name);
+			}
+		};
+
+		final List<PomModel.Dependency> dependencies = new ArrayList<>(model.getDependencies().size());
+		for (PomModel.Dependency dependency : model.getDependencies())
+		{
+			dependencies.add(new PomModel.Dependency(PomModelCache.interpolate(dependency.getGroupId(), lookup),
+													 PomModelCache.interpolate(dependency.getArtifactId(), lookup),
+													 dependency.getVersion().map(v -> PomModelCache.interpolate(v, lookup))));
+		}
+		return Collections.unmodifiableList(dependencies);
+	}
+
 	private PomFileExtract(Optional<Path> jarOrWarFile,
 						   Optional<Path> pomFile,
 						   Optional<Path> sourceJarFile,
 						   String groupId,
 						   String artefactId,
 						   String versionId,
-						   final byte[] pomFileData)
+						   Optional<String> parentCoordinates,
+						   List<PomModel.Dependency> dependencies,
+						   final byte[] pomFileData,
+						   final byte[] pomFileDigest)
+	{
+		this(0, jarOrWarFile, pomFile, sourceJarFile, groupId, artefactId, versionId, parentCoordinates, dependencies, pomFileData, pomFileDigest);
+	}
+
+	private PomFileExtract(int instanceId,
+						   Optional<Path> jarOrWarFile,
+						   Optional<Path> pomFile,
+						   Optional<Path> sourceJarFile,
+						   String groupId,
+						   String artefactId,
+						   String versionId,
+						   Optional<String> parentCoordinates,
+						   List<PomModel.Dependency> dependencies,
+						   final byte[] pomFileData,
+						   final byte[] pomFileDigest)
 	{
 		this.jarOrWarFile = jarOrWarFile;
+		this.parentCoordinates = parentCoordinates;
+		this.dependencies = dependencies;
 		this.pomFile = pomFile;
 		this.groupId = groupId;
 		this.artefactId = artefactId;
 		this.versionId = versionId;
 		this.sourceJarFile = sourceJarFile;
-		this.instanceId = counter.incrementAndGet();
+		this.instanceId = instanceId;
 		this.pomFileData = pomFileData;
+		this.pomFileDigest = pomFileDigest;
 
 		if(jarOrWarFile.isPresent() && pomFile.isPresent() == false)
         {
@@ -206,6 +337,30 @@ public class PomFileExtract
         return pomFileExtractType;
     }
 
+    /**
+     * @return a copy of this extract with the given instance id - used to number the extracts of a scan by their
+     * position, so the staged file names do not depend on how many extracts were created before.
+     */
+    PomFileExtract withInstanceId(int instanceId)
+    {
+        final PomFileExtract copy = new PomFileExtract(instanceId, jarOrWarFile, pomFile, sourceJarFile, groupId, artefactId, versionId, parentCoordinates, dependencies, pomFileData, pomFileDigest);
+        copy.contentHash = contentHash;
+        copy.retainPomFileData = retainPomFileData;
+        return copy;
+    }
+
+    /**
+     * @return the jar/war file, or the POM file for a parent POM.
+     */
+    public Path getSourceFile()
+    {
+        return jarOrWarFile.isPresent() ? jarOrWarFile.get() : pomFile.get();
+    }
+
+    /**
+     * @return the position of the extract in its scan, from 1 - or 0 until the scan has numbered it (see
+     * {@link #withInstanceId(int)}). Instances are only numbered within a scan, so concurrent scans do not interfere.
+     */
     public int getInstanceId()
 	{
 		return instanceId;
@@ -226,8 +381,145 @@ public class PomFileExtract
 		return versionId;
 	}
 
+	/**
+	 * @return the coordinates (group:artifact:version) of the parent named in the POM, if it names one.
+	 */
+	Optional<String> getParentCoordinates()
+	{
+		return parentCoordinates;
+	}
+
+	/**
+	 * @return the dependencies of the POM, with the references to its coordinates and properties resolved.
+	 */
+	List<PomModel.Dependency> getDependencies()
+	{
+		return dependencies;
+	}
+
 	public byte[] getPomFileData()
 	{
-		return pomFileData;
+		byte[] data = pomFileData;
+		if (data == null)
+		{
+			data = loadPomFileData();
+			if (retainPomFileData)
+			{
+				pomFileData = data;
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Drops the POM data, and stops it being kept when it is next read - from then on {@link #getPomFileData()}
+	 * reads it from the jar/war or POM file each time (and checks it against the digest).
+	 */
+	void releasePomFileData()
+	{
+		retainPomFileData = false;
+		pomFileData = null;
+	}
+
+	/**
+	 * @return the SHA-1 digest of the POM data.
+	 */
+	public byte[] getPomFileDigest()
+	{
+		return pomFileDigest;
+	}
+
+	/**
+	 * The SHA-1 (hex) of the POM plus the central directories of the jar/war and sources jar - the name, CRC and
+	 * sizes of every entry. It changes whenever any entry does, without the compressed data having to be read.
+	 * Files that are not (readable) zips, or are Zip64, are hashed in full.
+	 */
+	public String getContentHash()
+	{
+		String hash = contentHash;
+		if (hash == null)
+		{
+			final MessageDigest digest = ChecksumAlgorithm.SHA1.newMessageDigest();
+			digest.update(pomFileDigest);
+			if (jarOrWarFile.isPresent())
+			{
+				updateWithZip(digest, jarOrWarFile.get());
+			}
+			if (sourceJarFile.isPresent())
+			{
+				updateWithZip(digest, sourceJarFile.get());
+			}
+			hash = DigestingOutputStream.hex(digest.digest());
+			contentHash = hash;
+		}
+		return hash;
+	}
+
+	private static void updateWithZip(MessageDigest digest, Path zipFile)
+	{
+		try
+		{
+			try (FileChannel channel = FileChannel.open(zipFile, StandardOpenOption.READ))
+			{
+				final ZipCentralDirectory centralDirectory = ZipCentralDirectory.read(channel);
+				if (centralDirectory.isZip64() == false)
+				{
+					final ByteBuffer fields = ByteBuffer.allocate(20);
+					for (ZipCentralDirectory.Entry entry : centralDirectory.getEntries())
+					{
+						digest.update(entry.nameBytes);
+						fields.clear();
+						fields.putInt(entry.nameBytes.length).putLong(entry.crc).putInt((int) entry.compressedSize).putInt((int) entry.size);
+						digest.update(fields.array());
+					}
+					return;
+				}
+			}
+			catch (ZipException e)
+			{
+				logger.debug("Not a readable zip - hashing the whole of : " + zipFile + " - " + e.getMessage());
+			}
+
+			final byte[] buffer = new byte[64 * 1024];
+			try (InputStream ins = Files.newInputStream(zipFile))
+			{
+				int read;
+				while ((read = ins.read(buffer)) != -1)
+				{
+					digest.update(buffer, 0, read);
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Unable to hash the file : " + zipFile + " - got the exception : " + e, e);
+		}
+	}
+
+	private byte[] loadPomFileData()
+	{
+		final Path source = jarOrWarFile.isPresent() ? jarOrWarFile.get() : pomFile.get();
+		final byte[] data;
+		try
+		{
+			if (jarOrWarFile.isPresent())
+			{
+				data = ZipUtils.getPomFileDataFromJar(source).orElseThrow(() -> new RuntimeException("Could not extract a pom.xml file from the META-INF directory in the file : " + source));
+			}
+			else
+			{
+				data = Files.readAllBytes(source);
+			}
+		}
+		catch (IOException | URISyntaxException e)
+		{
+			throw new RuntimeException("Unable to read the POM data from : " + source + " - got the exception : " + e, e);
+		}
+
+		if (Arrays.equals(pomFileDigest, PomFileUtils.digest(data)) == false)
+		{
+			throw new RuntimeException("The POM data in " + source + " no longer matches what was recorded when it was scanned. Delete the scan cache and re-run.");
+		}
+		return data;
 	}
 }
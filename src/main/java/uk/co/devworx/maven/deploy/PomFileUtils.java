@@ -3,16 +3,15 @@ package uk.co.devworx.maven.deploy;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.xpath.XPathFactory;
+import javax.xml.stream.XMLInputFactory;
 import java.io.IOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -23,27 +22,42 @@ public class PomFileUtils
 {
 	private static final Logger logger = LogManager.getLogger(PomFileUtils.class);
 
-	static final DocumentBuilderFactory docBuilderFactory;
-	static final DocumentBuilder docBuilder;
-	static final XPathFactory xPathFactory;
+	/**
+	 * XMLInputFactory instances are not guaranteed to be thread-safe, so each worker thread gets its own.
+	 */
+	private static final ThreadLocal<XMLInputFactory> xmlInputFactories = ThreadLocal.withInitial(PomFileUtils::newXmlInputFactory);
 
-	static
+	private static XMLInputFactory newXmlInputFactory()
+	{
+		final XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false); // prevent external loading.
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+
+	/**
+	 * @return the StAX factory owned by the calling thread.
+	 */
+	static XMLInputFactory xmlInputFactory()
+	{
+		return xmlInputFactories.get();
+	}
+
+	/**
+	 * @return the SHA-1 digest of the data.
+	 */
+	static byte[] digest(byte[] data)
 	{
 		try
 		{
-			docBuilderFactory = DocumentBuilderFactory.newInstance();
-			docBuilderFactory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, ""); // prevent external loading.
-			docBuilderFactory.setAttribute(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
-			docBuilder = docBuilderFactory.newDocumentBuilder();
-			xPathFactory = XPathFactory.newInstance();
+			return MessageDigest.getInstance("SHA-1").digest(data);
 		}
-		catch(Exception e)
+		catch (NoSuchAlgorithmException e)
 		{
-			throw new RuntimeException("Unable to create an XML document factory. This is most unexpected : " + e);
+			throw new RuntimeException("SHA-1 is not available. This is most unexpected : " + e, e);
 		}
 	}
 
-
 	static Optional<Path> findEmbeddedPomFile(Path mavenDir)
 	{
 		final AtomicReference<Path> pathRef = new AtomicReference<>();
@@ -0,0 +1,494 @@
+package uk.co.devworx.maven.deploy;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The coordinates of a POM - its own groupId, artifactId, version and packaging, plus the coordinates
+ * of its parent (if it has one). A full read also picks up the &lt;properties&gt; of the POM, which are
+ * needed to resolve ${...} references, and its &lt;dependencies&gt;.
+ *
+ * The POM is read with a streaming (StAX) parser: no tree is built, and elements other than the
+ * coordinates (and properties) are skipped over. When reading only the coordinates, reading stops as
+ * soon as all of them have been seen.
+ */
+public class PomModel
+{
+	static final String DEFAULT_PACKAGING = "jar";
+
+	private final String groupId;
+	private final String artifactId;
+	private final String version;
+	private final String packaging;
+
+	private final Optional<String> parentGroupId;
+	private final Optional<String> parentArtifactId;
+	private final Optional<String> parentVersion;
+
+	private final Map<String, String> properties;
+	private final List<Dependency> dependencies;
+	private final boolean full;
+
+	/**
+	 * A single &lt;dependency&gt; of the POM, as written - no properties are resolved (but see
+	 * {@link PomFileExtract#getDependencies()}).
+	 */
+	public static final class Dependency
+	{
+		private final String groupId;
+		private final String artifactId;
+		private final Optional<String> version;
+
+		Dependency(String groupId, String artifactId, Optional<String> version)
+		{
+			this.groupId = groupId;
+			this.artifactId = artifactId;
+			this.version = version;
+		}
+
+		public String getGroupId()
+		{
+			return groupId;
+		}
+
+		public String getArtifactId()
+		{
+			return artifactId;
+		}
+
+		public Optional<String> getVersion()
+		{
+			return version;
+		}
+
+		@Override public String toString()
+		{
+			return groupId + ":" + artifactId + ":" + version.orElse("");
+		}
+	}
+
+	private PomModel(PomModel source, String groupId, String artifactId, String version)
+	{
+		this.groupId = groupId;
+		this.artifactId = artifactId;
+		this.version = version;
+		this.packaging = source.packaging;
+		this.parentGroupId = source.parentGroupId;
+		this.parentArtifactId = source.parentArtifactId;
+		this.parentVersion = source.parentVersion;
+		this.properties = source.properties;
+		this.dependencies = source.dependencies;
+		this.full = source.full;
+	}
+
+	private PomModel(Reader r)
+	{
+		this.groupId = r.groupId == null ? "" : r.groupId;
+		this.artifactId = r.artifactId == null ? "" : r.artifactId;
+		this.version = r.version == null ? "" : r.version;
+		this.packaging = r.packaging == null ? DEFAULT_PACKAGING : r.packaging;
+		this.parentGroupId = Optional.ofNullable(r.parentGroupId);
+		this.parentArtifactId = Optional.ofNullable(r.parentArtifactId);
+		this.parentVersion = Optional.ofNullable(r.parentVersion);
+		this.properties = Collections.unmodifiableMap(r.properties);
+		this.dependencies = Collections.unmodifiableList(r.dependencies);
+		this.full = r.full;
+	}
+
+	/**
+	 * Reads the coordinates out of the POM data.
+	 */
+	public static PomModel readCoordinates(byte[] pomFileData)
+	{
+		return readCoordinates(pomFileData, null);
+	}
+
+	/**
+	 * As per {@link #readCoordinates(byte[])}.
+	 *
+	 * @param source the file the POM data came from (a jar / war, or the POM itself), for the flight events - or null.
+	 */
+	static PomModel readCoordinates(byte[] pomFileData, Path source)
+	{
+		return read(new ByteArrayInputStream(pomFileData), false, pomFileData.length, source);
+	}
+
+	/**
+	 * Reads the coordinates out of the POM stream. The stream is not closed.
+	 */
+	public static PomModel readCoordinates(InputStream pomFileStream)
+	{
+		return read(pomFileStream, false, 0, null);
+	}
+
+	/**
+	 * Reads the coordinates, the properties and the dependencies out of the POM data. This always reads the whole document.
+	 */
+	public static PomModel readFull(byte[] pomFileData)
+	{
+		return readFull(pomFileData, null);
+	}
+
+	/**
+	 * As per {@link #readFull(byte[])}.
+	 *
+	 * @param source the file the POM data came from (a jar / war, or the POM itself), for the flight events - or null.
+	 */
+	static PomModel readFull(byte[] pomFileData, Path source)
+	{
+		return read(new ByteArrayInputStream(pomFileData), true, pomFileData.length, source);
+	}
+
+	/**
+	 * @param bytes the length of the POM data, for the metrics and flight events - or 0 if it is not known.
+	 */
+	private static PomModel read(InputStream pomFileStream, boolean full, long bytes, Path source)
+	{
+		final RunMetrics metrics = RunMetrics.current();
+		final long start = metrics.start();
+		final FlightEvent event = FlightEvents.begin(FlightEvent.Kind.POM_PARSE);
+		PomModel model = null;
+		try
+		{
+			final Reader reader = new Reader(full);
+			reader.read(pomFileStream);
+			model = new PomModel(reader);
+			metrics.record(RunMetrics.Phase.POM_PARSE, full ? "full" : "coordinates", start, bytes);
+			return model;
+		}
+		catch (XMLStreamException | IOException e)
+		{
+			throw new RuntimeException("Unable to parse the POM XML - got the exception : " + e, e);
+		}
+		finally
+		{
+			if (event.finish())
+			{
+				event.commit(source == null ? null : source.toString(),
+							 model == null ? null : model.getGroupId() + ":" + model.getArtifactId() + ":" + model.getVersion(),
+							 bytes,
+							 model == null ? "failed" : full ? "full" : "coordinates");
+			}
+		}
+	}
+
+	/**
+	 * The state of a single streaming read.
+	 */
+	private static final class Reader
+	{
+		private String groupId;
+		private String artifactId;
+		private String version;
+		private String packaging;
+
+		private boolean parentSeen;
+		private boolean pastHead;
+		private String parentGroupId;
+		private String parentArtifactId;
+		private String parentVersion;
+
+		private final boolean full;
+		private final Map<String, String> properties = new HashMap<>();
+		private final List<Dependency> dependencies = new ArrayList<>();
+
+		private Reader(boolean full)
+		{
+			this.full = full;
+		}
+
+		private void read(InputStream ins) throws XMLStreamException, IOException
+		{
+			final XMLStreamReader r = PomFileUtils.xmlInputFactory().createXMLStreamReader(ins);
+			try
+			{
+				if (r.nextTag() != XMLStreamConstants.START_ELEMENT || "project".equals(r.getLocalName()) == false)
+				{
+					throw new XMLStreamException("The root element of a POM must be <project> but was <" + r.getLocalName() + ">");
+				}
+
+				while (isComplete() == false && r.nextTag() == XMLStreamConstants.START_ELEMENT)
+				{
+					switch (r.getLocalName())
+					{
+					case "groupId":
+						groupId = r.getElementText().trim();
+						break;
+					case "artifactId":
+						artifactId = r.getElementText().trim();
+						break;
+					case "version":
+						version = r.getElementText().trim();
+						break;
+					case "packaging":
+						packaging = r.getElementText().trim();
+						break;
+					case "parent":
+						readParent(r);
+						break;
+					case "properties":
+						passHead();
+						if (full)
+						{
+							readProperties(r);
+						}
+						else
+						{
+							skipElement(r);
+						}
+						break;
+					case "dependencies":
+						passHead();
+						if (full)
+						{
+							readDependencies(r);
+						}
+						else
+						{
+							skipElement(r);
+						}
+						break;
+					default:
+						if ("modelVersion".equals(r.getLocalName()) == false)
+						{
+							passHead();
+						}
+						skipElement(r);
+					}
+				}
+			}
+			finally
+			{
+				r.close();
+			}
+		}
+
+		private void readParent(XMLStreamReader r) throws XMLStreamException
+		{
+			parentSeen = true;
+			while (r.nextTag() == XMLStreamConstants.START_ELEMENT)
+			{
+				switch (r.getLocalName())
+				{
+				case "groupId":
+					parentGroupId = r.getElementText().trim();
+					break;
+				case "artifactId":
+					parentArtifactId = r.getElementText().trim();
+					break;
+				case "version":
+					parentVersion = r.getElementText().trim();
+					break;
+				default:
+					skipElement(r);
+				}
+			}
+		}
+
+		private void readProperties(XMLStreamReader r) throws XMLStreamException
+		{
+			while (r.nextTag() == XMLStreamConstants.START_ELEMENT)
+			{
+				final String name = r.getLocalName();
+				properties.put(name, readText(r).trim());
+			}
+		}
+
+		private void readDependencies(XMLStreamReader r) throws XMLStreamException
+		{
+			while (r.nextTag() == XMLStreamConstants.START_ELEMENT)
+			{
+				if ("dependency".equals(r.getLocalName()) == false)
+				{
+					skipElement(r);
+					continue;
+				}
+
+				String depGroupId = null;
+				String depArtifactId = null;
+				String depVersion = null;
+				while (r.nextTag() == XMLStreamConstants.START_ELEMENT)
+				{
+					switch (r.getLocalName())
+					{
+					case "groupId":
+						depGroupId = r.getElementText().trim();
+						break;
+					case "artifactId":
+						depArtifactId = r.getElementText().trim();
+						break;
+					case "version":
+						depVersion = r.getElementText().trim();
+						break;
+					default:
+						skipElement(r);
+					}
+				}
+				if (depGroupId != null && depArtifactId != null)
+				{
+					dependencies.add(new Dependency(depGroupId, depArtifactId, Optional.ofNullable(depVersion)));
+				}
+			}
+		}
+
+		/**
+		 * Called on an element that does not belong in the head of a POM (with the coordinates, parent, packaging and
+		 * modelVersion) - the head is over if the coordinates have been read.
+		 */
+		private void passHead()
+		{
+			pastHead |= groupId != null && artifactId != null && version != null;
+		}
+
+		/**
+		 * The coordinates are complete once groupId, artifactId and version have all been read, and either the
+		 * packaging and parent have been too, or the head of the POM - where they go - is over (see {@link #passHead()}).
+		 * Only a parent or packaging given after the head is then missed: the packaging is taken to be the default,
+		 * and the parent does not change coordinates given in full.
+		 */
+		private boolean isComplete()
+		{
+			return full == false && groupId != null && artifactId != null && version != null && (pastHead || (packaging != null && parentSeen));
+		}
+	}
+
+	/**
+	 * Like {@link XMLStreamReader#getElementText()}, but skips over (rather than failing on) any nested elements.
+	 */
+	static String readText(XMLStreamReader r) throws XMLStreamException
+	{
+		final StringBuilder text = new StringBuilder();
+		int depth = 1;
+		while (depth > 0)
+		{
+			int event = r.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+			{
+				depth++;
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT)
+			{
+				depth--;
+			}
+			else if (depth == 1 && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA))
+			{
+				text.append(r.getText());
+			}
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Skips from the current start element to its matching end element, without looking at anything in between.
+	 */
+	static void skipElement(XMLStreamReader r) throws XMLStreamException
+	{
+		int depth = 1;
+		while (depth > 0)
+		{
+			int event = r.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+			{
+				depth++;
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT)
+			{
+				depth--;
+			}
+		}
+	}
+
+	public String getGroupId()
+	{
+		return groupId;
+	}
+
+	public String getArtifactId()
+	{
+		return artifactId;
+	}
+
+	public String getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * @return the packaging - "jar" if the POM does not specify it.
+	 */
+	public String getPackaging()
+	{
+		return packaging;
+	}
+
+	public Optional<String> getParentGroupId()
+	{
+		return parentGroupId;
+	}
+
+	public Optional<String> getParentArtifactId()
+	{
+		return parentArtifactId;
+	}
+
+	public Optional<String> getParentVersion()
+	{
+		return parentVersion;
+	}
+
+	/**
+	 * @return the &lt;properties&gt; of the POM - always empty unless it was read with {@link #readFull(byte[])}
+	 */
+	public Map<String, String> getProperties()
+	{
+		return properties;
+	}
+
+	/**
+	 * @return the &lt;dependencies&gt; of the POM - always empty unless it was read with {@link #readFull(byte[])}
+	 */
+	public List<Dependency> getDependencies()
+	{
+		return dependencies;
+	}
+
+	/**
+	 * @return true if the whole POM was read (see {@link #readFull(byte[])}) - false if just its coordinates were.
+	 */
+	boolean isFull()
+	{
+		return full;
+	}
+
+	/**
+	 * @return a copy of this model with the given (resolved) coordinates.
+	 */
+	PomModel withCoordinates(String groupId, String artifactId, String version)
+	{
+		return new PomModel(this, groupId, artifactId, version);
+	}
+
+	/**
+	 * @return true if any of the coordinates are missing or refer to a property, so need resolving.
+	 */
+	boolean needsResolution()
+	{
+		return groupId.isEmpty() || version.isEmpty() || groupId.contains("${") || artifactId.contains("${") || version.contains("${");
+	}
+
+	@Override public String toString()
+	{
+		return "PomModel{" + groupId + ":" + artifactId + ":" + version + ":" + packaging + (parentArtifactId.isPresent() ? ", parent=" + parentGroupId.orElse("") + ":" + parentArtifactId.get() + ":" + parentVersion.orElse("") : "") + '}';
+	}
+}
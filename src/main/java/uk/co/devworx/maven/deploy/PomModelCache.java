@@ -0,0 +1,283 @@
+package uk.co.devworx.maven.deploy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves the coordinates of a POM that inherits its groupId / version from its &lt;parent&gt;, or
+ * refers to them through ${project.*}, ${parent.*} or its own (or its ancestors') properties.
+ *
+ * Parent POMs are looked up in the Maven repository layout the child sits in, i.e.
+ * [repo root]/[group path]/[artifactId]/[version]/[artifactId]-[version].pom, and once parsed
+ * they are kept in a concurrent cache - so a parent shared by thousands of modules is only
+ * read once per scan. Parents that could not be found are not cached, and with
+ * {@link #setCheckFreshness(boolean)} on a cached parent is read again if the size or last
+ * modified time of its file has changed since - so a cache that outlives a scan (see
+ * {@link ScanDirectoryWatcher}) picks up parents that arrive or change later.
+ * The cache is safe to share between threads; a parent is read by one thread while the others
+ * that want it wait for it, and the reading is not done under a lock of the map.
+ */
+public class PomModelCache
+{
+	private static final Logger logger = LogManager.getLogger(PomModelCache.class);
+
+	private static final Pattern PROPERTY_REF = Pattern.compile("\\$\\{([^}]+)}");
+	private static final int MAX_INTERPOLATION_PASSES = 10;
+	private static final int MAX_PARENT_DEPTH = 16;
+
+	/**
+	 * A parent POM model and the file it was read from.
+	 */
+	static final class Located
+	{
+		final PomModel model;
+		final Path file;
+		private final long size;
+		private final long lastModified;
+
+		private Located(PomModel model, Path file, BasicFileAttributes attributes)
+		{
+			this.model = model;
+			this.file = file;
+			this.size = attributes.size();
+			this.lastModified = attributes.lastModifiedTime().toMillis();
+		}
+
+		/**
+		 * @return true if the file is unchanged since it was read.
+		 */
+		private boolean isCurrent()
+		{
+			try
+			{
+				final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+				return attributes.size() == size && attributes.lastModifiedTime().toMillis() == lastModified;
+			}
+			catch (IOException e)
+			{
+				return false;
+			}
+		}
+	}
+
+	private final ConcurrentMap<String, CompletableFuture<Optional<Located>>> parents = new ConcurrentHashMap<>();
+	private final AtomicInteger parentsParsed = new AtomicInteger();
+
+	private volatile boolean checkFreshness = false;
+
+	/**
+	 * Sets whether a cached parent is checked against its file - a stat each time it is used - and read again if the
+	 * file has changed. Only worth it for a cache that outlives a scan, as in watch mode. Defaults to false.
+	 */
+	public void setCheckFreshness(boolean checkFreshness)
+	{
+		this.checkFreshness = checkFreshness;
+	}
+
+	/**
+	 * @return the model with its groupId, artifactId and version resolved. If nothing needs resolving, the
+	 * model passed in is returned as-is. References that cannot be resolved are left in place. The POM data is only
+	 * read again if the model passed in holds just the coordinates (see {@link PomModel#isFull()}).
+	 */
+	PomModel resolve(PomModel model, byte[] pomFileData, Path sourceFile)
+	{
+		if (model.needsResolution() == false)
+		{
+			return model;
+		}
+
+		final PomModel full = model.isFull() ? model : PomModel.readFull(pomFileData, sourceFile);
+		final String groupId = full.getGroupId().isEmpty() ? full.getParentGroupId().orElse("") : full.getGroupId();
+		final String artifactId = full.getArtifactId();
+		final String version = full.getVersion().isEmpty() ? full.getParentVersion().orElse("") : full.getVersion();
+
+		final Function<String, String> lookup = name ->
+		{
+			switch (name)
+			{
+			case "project.groupId":
+			case "pom.groupId":
+			case "groupId":
+				return groupId;
+			case "project.artifactId":
+			case "pom.artifactId":
+			case "artifactId":
+				return artifactId;
+			case "project.version":
+			case "pom.version":
+			case "version":
+				return version;
+			case "project.parent.groupId":
+			case "parent.groupId":
+				return full.getParentGroupId().orElse(null);
+			case "project.parent.artifactId":
+			case "parent.artifactId":
+				return full.getParentArtifactId().orElse(null);
+			case "project.parent.version":
+			case "parent.version":
+				return full.getParentVersion().orElse(null);
+			default:
+				return lookupProperty(full, sourceFile, name);
+			}
+		};
+
+		return full.withCoordinates(interpolate(groupId, lookup), interpolate(artifactId, lookup), interpolate(version, lookup));
+	}
+
+	/**
+	 * Looks the property up in the POM itself, then in each of its ancestors in turn.
+	 */
+	private String lookupProperty(PomModel model, Path file, String name)
+	{
+		String value = model.getProperties().get(name);
+		if (value != null) return value;
+
+		final Set<String> visited = new HashSet<>();
+		PomModel current = model;
+		Path currentFile = file;
+		for (int depth = 0; depth < MAX_PARENT_DEPTH; depth++)
+		{
+			Optional<Located> parentOpt = getParent(current, currentFile);
+			if (parentOpt.isPresent() == false || visited.add(parentOpt.get().file.toString()) == false)
+			{
+				return null;
+			}
+
+			current = parentOpt.get().model;
+			currentFile = parentOpt.get().file;
+			value = current.getProperties().get(name);
+			if (value != null) return value;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the (cached) parent of the model, if it has one and it can be found next to the file. The parent is read
+	 * if it is not in the cache (or, when checking freshness, its file has changed); only one thread reads a given
+	 * parent at a time, and the others wait for what it reads.
+	 */
+	Optional<Located> getParent(PomModel model, Path file)
+	{
+		if (model.getParentArtifactId().isPresent() == false || model.getParentGroupId().isPresent() == false || model.getParentVersion().isPresent() == false)
+		{
+			return Optional.empty();
+		}
+
+		final String groupId = model.getParentGroupId().get();
+		final String artifactId = model.getParentArtifactId().get();
+		final String version = model.getParentVersion().get();
+		final String key = groupId + ":" + artifactId + ":" + version;
+		while (true)
+		{
+			final CompletableFuture<Optional<Located>> cached = parents.get(key);
+			if (cached == null)
+			{
+				final CompletableFuture<Optional<Located>> loading = new CompletableFuture<>();
+				if (parents.putIfAbsent(key, loading) != null)
+				{
+					continue;
+				}
+				Optional<Located> located = Optional.empty();
+				try
+				{
+					located = locateParent(groupId, artifactId, version, file);
+				}
+				finally
+				{
+					if (located.isPresent() == false)
+					{
+						parents.remove(key, loading);
+					}
+					loading.complete(located);
+				}
+				return located;
+			}
+
+			final Optional<Located> located = cached.join();
+			if (located.isPresent() == false || checkFreshness == false || located.get().isCurrent())
+			{
+				return located;
+			}
+			parents.remove(key, cached);
+		}
+	}
+
+	private Optional<Located> locateParent(String groupId, String artifactId, String version, Path childFile)
+	{
+		final String relativePath = groupId.replace('.', '/') + "/" + artifactId + "/" + version + "/" + artifactId + "-" + version + ".pom";
+		for (Path dir = childFile.toAbsolutePath().getParent(); dir != null; dir = dir.getParent())
+		{
+			final Path candidate = dir.resolve(relativePath);
+			if (Files.isRegularFile(candidate))
+			{
+				try
+				{
+					parentsParsed.incrementAndGet();
+					final BasicFileAttributes attributes = Files.readAttributes(candidate, BasicFileAttributes.class);
+					return Optional.of(new Located(PomModel.readFull(Files.readAllBytes(candidate), candidate), candidate, attributes));
+				}
+				catch (IOException | RuntimeException e)
+				{
+					logger.info("Unable to read the parent POM : " + candidate + " - got the message : " + e.getMessage());
+					return Optional.empty();
+				}
+			}
+		}
+		logger.info("Could not find the parent POM " + groupId + ":" + artifactId + ":" + version + " of " + childFile);
+		return Optional.empty();
+	}
+
+	/**
+	 * @return the number of parent POMs this cache has parsed.
+	 */
+	public int getParentsParsed()
+	{
+		return parentsParsed.get();
+	}
+
+	static String interpolate(String value, Function<String, String> lookup)
+	{
+		String current = value;
+		for (int pass = 0; pass < MAX_INTERPOLATION_PASSES && current.contains("${"); pass++)
+		{
+			final Matcher m = PROPERTY_REF.matcher(current);
+			final StringBuffer sb = new StringBuffer();
+			boolean replaced = false;
+			while (m.find())
+			{
+				final String resolved = lookup.apply(m.group(1));
+				if (resolved != null)
+				{
+					replaced = true;
+					m.appendReplacement(sb, Matcher.quoteReplacement(resolved));
+				}
+				else
+				{
+					m.appendReplacement(sb, Matcher.quoteReplacement(m.group()));
+				}
+			}
+			m.appendTail(sb);
+			if (replaced == false)
+			{
+				break;
+			}
+			current = sb.toString();
+		}
+		return current;
+	}
+}
@@ -0,0 +1,235 @@
+package uk.co.devworx.maven.deploy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a zip file out of entries taken from the central directory of another zip file.
+ * Untouched entries are copied raw - the compressed bytes, CRC and sizes go straight from the
+ * source into the output, without being inflated and deflated again. Only entries whose
+ * content has actually changed are compressed.
+ */
+final class RawZipWriter implements Closeable
+{
+	private static final int COPY_BUFFER = 64 * 1024;
+	private static final int VERSION_NEEDED_DEFLATE = 20;
+
+	/**
+	 * What has been written for an entry - used to write the central directory at the end.
+	 */
+	private static final class WrittenEntry
+	{
+		private final ZipCentralDirectory.Entry source;
+		private final int flags;
+		private final int method;
+		private final long crc;
+		private final long compressedSize;
+		private final long size;
+		private final long localHeaderOffset;
+
+		private WrittenEntry(ZipCentralDirectory.Entry source, int flags, int method, long crc, long compressedSize, long size, long localHeaderOffset)
+		{
+			this.source = source;
+			this.flags = flags;
+			this.method = method;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+	}
+
+	private final OutputStream out;
+	private final List<WrittenEntry> written = new ArrayList<>();
+	private final byte[] copyBuffer = new byte[COPY_BUFFER];
+	private long position;
+	private boolean finished;
+
+	RawZipWriter(OutputStream out)
+	{
+		this.out = out;
+	}
+
+	/**
+	 * Copies the entry as-is from the source channel.
+	 */
+	void copyRaw(FileChannel source, ZipCentralDirectory.Entry entry) throws IOException
+	{
+		final long dataOffset = ZipCentralDirectory.dataOffset(source, entry);
+		final byte[] localExtra = ZipCentralDirectory.localExtra(source, entry);
+
+		// The sizes always go into the local header, so a data descriptor is never needed.
+		final int flags = entry.flags & ~ZipCentralDirectory.FLAG_DATA_DESCRIPTOR;
+		final WrittenEntry w = new WrittenEntry(entry, flags, entry.method, entry.crc, entry.compressedSize, entry.size, position);
+		writeLocalHeader(w, localExtra);
+
+		final ByteBuffer buf = ByteBuffer.wrap(copyBuffer);
+		long remaining = entry.compressedSize;
+		long readPos = dataOffset;
+		while (remaining > 0)
+		{
+			buf.clear();
+			buf.limit((int) Math.min(copyBuffer.length, remaining));
+			int read = source.read(buf, readPos);
+			if (read < 0)
+			{
+				throw new IOException("Unexpected end of zip file while copying the entry : " + entry.name);
+			}
+			write(copyBuffer, 0, read);
+			readPos += read;
+			remaining -= read;
+		}
+
+		written.add(w);
+	}
+
+	/**
+	 * Writes the entry with new (uncompressed) content, deflating it.
+	 */
+	void writeDeflated(ZipCentralDirectory.Entry entry, byte[] data) throws IOException
+	{
+		final CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+
+		final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		final ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 64);
+		try
+		{
+			deflater.setInput(data);
+			deflater.finish();
+			while (deflater.finished() == false)
+			{
+				int len = deflater.deflate(copyBuffer);
+				compressed.write(copyBuffer, 0, len);
+			}
+		}
+		finally
+		{
+			deflater.end();
+		}
+
+		final int flags = entry.flags & ~ZipCentralDirectory.FLAG_DATA_DESCRIPTOR;
+		final WrittenEntry w = new WrittenEntry(entry, flags, ZipEntry.DEFLATED, crc.getValue(), compressed.size(), data.length, position);
+		writeLocalHeader(w, entry.extra);
+		compressed.writeTo(new PositionTrackingStream());
+
+		written.add(w);
+	}
+
+	/**
+	 * Writes the central directory and the end of central directory record.
+	 */
+	void finish(byte[] archiveComment) throws IOException
+	{
+		if (finished) return;
+		finished = true;
+
+		final long cdOffset = position;
+		for (WrittenEntry w : written)
+		{
+			final ZipCentralDirectory.Entry e = w.source;
+			final ByteBuffer header = newBuffer(ZipCentralDirectory.CENTRAL_HEADER_LEN);
+			header.putInt(ZipCentralDirectory.CENTRAL_HEADER_SIG);
+			header.putShort((short) e.versionMadeBy);
+			header.putShort((short) versionNeeded(e, w.method));
+			header.putShort((short) w.flags);
+			header.putShort((short) w.method);
+			header.putInt(e.dosTime);
+			header.putInt((int) w.crc);
+			header.putInt((int) w.compressedSize);
+			header.putInt((int) w.size);
+			header.putShort((short) e.nameBytes.length);
+			header.putShort((short) e.extra.length);
+			header.putShort((short) e.comment.length);
+			header.putShort((short) 0);
+			header.putShort((short) e.internalAttributes);
+			header.putInt((int) e.externalAttributes);
+			header.putInt((int) w.localHeaderOffset);
+			write(header.array(), 0, header.position());
+			write(e.nameBytes, 0, e.nameBytes.length);
+			write(e.extra, 0, e.extra.length);
+			write(e.comment, 0, e.comment.length);
+		}
+		final long cdSize = position - cdOffset;
+
+		final ByteBuffer eocd = newBuffer(ZipCentralDirectory.END_OF_CENTRAL_DIR_LEN);
+		eocd.putInt(ZipCentralDirectory.END_OF_CENTRAL_DIR_SIG);
+		eocd.putShort((short) 0);
+		eocd.putShort((short) 0);
+		eocd.putShort((short) written.size());
+		eocd.putShort((short) written.size());
+		eocd.putInt((int) cdSize);
+		eocd.putInt((int) cdOffset);
+		eocd.putShort((short) archiveComment.length);
+		write(eocd.array(), 0, eocd.position());
+		write(archiveComment, 0, archiveComment.length);
+		out.flush();
+	}
+
+	@Override public void close() throws IOException
+	{
+		out.close();
+	}
+
+	private void writeLocalHeader(WrittenEntry w, byte[] localExtra) throws IOException
+	{
+		final ZipCentralDirectory.Entry e = w.source;
+		final ByteBuffer header = newBuffer(ZipCentralDirectory.LOCAL_HEADER_LEN);
+		header.putInt(ZipCentralDirectory.LOCAL_HEADER_SIG);
+		header.putShort((short) versionNeeded(e, w.method));
+		header.putShort((short) w.flags);
+		header.putShort((short) w.method);
+		header.putInt(e.dosTime);
+		header.putInt((int) w.crc);
+		header.putInt((int) w.compressedSize);
+		header.putInt((int) w.size);
+		header.putShort((short) e.nameBytes.length);
+		header.putShort((short) localExtra.length);
+		write(header.array(), 0, header.position());
+		write(e.nameBytes, 0, e.nameBytes.length);
+		write(localExtra, 0, localExtra.length);
+	}
+
+	private static int versionNeeded(ZipCentralDirectory.Entry e, int method)
+	{
+		return method == ZipEntry.DEFLATED ? Math.max(e.versionNeeded, VERSION_NEEDED_DEFLATE) : e.versionNeeded;
+	}
+
+	private static ByteBuffer newBuffer(int len)
+	{
+		return ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private void write(byte[] b, int off, int len) throws IOException
+	{
+		out.write(b, off, len);
+		position += len;
+	}
+
+	/**
+	 * Lets a ByteArrayOutputStream be written out while keeping the position up to date.
+	 */
+	private final class PositionTrackingStream extends OutputStream
+	{
+		@Override public void write(int b) throws IOException
+		{
+			out.write(b);
+			position++;
+		}
+
+		@Override public void write(byte[] b, int off, int len) throws IOException
+		{
+			RawZipWriter.this.write(b, off, len);
+		}
+	}
+}
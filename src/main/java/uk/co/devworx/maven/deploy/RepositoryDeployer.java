@@ -0,0 +1,457 @@
+package uk.co.devworx.maven.deploy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Uploads files to a Maven repository over HTTP(S), in process - the job deploy:deploy-file does, without a
+ * JVM and a fresh TLS handshake per file.
+ *
+ * Files are PUT to [repository url]/[path relative to the staging root], up to a configurable number at once.
+ * Connections are kept alive and re-used between requests through the JDK's HttpURLConnection keep-alive cache
+ * (every response is read to the end so the connection can go back to it); note the cache keeps at most
+ * http.maxConnections (default 5) idle connections per host. Failed requests - I/O errors, 5xx and 429
+ * responses - are retried with an exponential backoff; any other 4xx fails the upload straight away.
+ *
+ * Metadata files (maven-metadata.xml and its checksums) are only uploaded once the files they describe have
+ * been, so the repository never lists a version whose files are not there yet.
+ */
+public class RepositoryDeployer
+{
+	private static final Logger logger = LogManager.getLogger(RepositoryDeployer.class);
+
+	private static final int CONNECT_TIMEOUT_MILLIS = 30_000;
+	private static final int READ_TIMEOUT_MILLIS = 120_000;
+
+	private final String repositoryUrl;
+
+	private Optional<String> authorization = Optional.empty();
+	private int concurrency = 4;
+	private int maxAttempts = 3;
+	private long initialBackoffMillis = 500;
+
+	private final AtomicInteger uploadCount = new AtomicInteger();
+	private final AtomicLong uploadBytes = new AtomicLong();
+	private final AtomicInteger retryCount = new AtomicInteger();
+
+	public RepositoryDeployer(String repositoryUrl)
+	{
+		this.repositoryUrl = repositoryUrl.endsWith("/") ? repositoryUrl : repositoryUrl + "/";
+	}
+
+	public void setCredentials(String username, String password)
+	{
+		final String token = Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+		this.authorization = Optional.of("Basic " + token);
+	}
+
+	/**
+	 * Sets the maximum number of uploads in flight at once. Defaults to 4.
+	 */
+	public void setConcurrency(int concurrency)
+	{
+		if (concurrency < 1)
+		{
+			throw new IllegalArgumentException("The upload concurrency must be at least 1 - was : " + concurrency);
+		}
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * Sets how many times a request is tried before giving up, and the wait before the first retry - which doubles
+	 * with every further retry. Defaults to 3 attempts, 500ms.
+	 */
+	public void setRetry(int maxAttempts, long initialBackoffMillis)
+	{
+		if (maxAttempts < 1)
+		{
+			throw new IllegalArgumentException("The number of attempts must be at least 1 - was : " + maxAttempts);
+		}
+		this.maxAttempts = maxAttempts;
+		this.initialBackoffMillis = initialBackoffMillis;
+	}
+
+	/**
+	 * Sets the credentials from the &lt;server&gt; with the given id in a Maven settings.xml, if there is one.
+	 * Encrypted passwords are not supported.
+	 *
+	 * @return true if credentials were found.
+	 */
+	public boolean setCredentialsFromSettings(Path settingsXml, String serverId)
+	{
+		if (settingsXml == null || Files.isRegularFile(settingsXml) == false)
+		{
+			return false;
+		}
+
+		try (InputStream ins = Files.newInputStream(settingsXml))
+		{
+			final XMLStreamReader r = PomFileUtils.xmlInputFactory().createXMLStreamReader(ins);
+			try
+			{
+				String id = null;
+				String username = null;
+				String password = null;
+				boolean inServer = false;
+				while (r.hasNext())
+				{
+					final int event = r.next();
+					if (event == XMLStreamConstants.START_ELEMENT)
+					{
+						final String name = r.getLocalName();
+						if ("server".equals(name))
+						{
+							inServer = true;
+							id = username = password = null;
+						}
+						else if (inServer && "id".equals(name))
+						{
+							id = r.getElementText().trim();
+						}
+						else if (inServer && "username".equals(name))
+						{
+							username = r.getElementText().trim();
+						}
+						else if (inServer && "password".equals(name))
+						{
+							password = r.getElementText().trim();
+						}
+					}
+					else if (event == XMLStreamConstants.END_ELEMENT && "server".equals(r.getLocalName()))
+					{
+						inServer = false;
+						if (serverId.equals(id) && username != null)
+						{
+							if (password != null && password.startsWith("{") && password.endsWith("}"))
+							{
+								logger.warn("The password of server " + serverId + " in " + settingsXml + " looks encrypted - this is not supported, it will be sent as is.");
+							}
+							setCredentials(username, password == null ? "" : password);
+							return true;
+						}
+					}
+				}
+			}
+			finally
+			{
+				r.close();
+			}
+		}
+		catch (IOException | XMLStreamException e)
+		{
+			throw new RuntimeException("Unable to read the settings file : " + settingsXml + " - got the exception : " + e, e);
+		}
+		return false;
+	}
+
+	/**
+	 * @return the file at the path (relative to the repository url) - or empty if the repository does not have it.
+	 */
+	public Optional<byte[]> get(String relativePath)
+	{
+		return withRetries("GET " + relativePath, () ->
+		{
+			final HttpURLConnection conn = open(relativePath, "GET");
+			final int status = conn.getResponseCode();
+			if (status == HttpURLConnection.HTTP_NOT_FOUND)
+			{
+				drain(conn);
+				return Optional.empty();
+			}
+			checkStatus(conn, status, relativePath);
+			try (InputStream ins = conn.getInputStream())
+			{
+				final ByteArrayOutputStream bous = new ByteArrayOutputStream();
+				final byte[] buffer = new byte[8192];
+				int read;
+				while ((read = ins.read(buffer)) != -1)
+				{
+					bous.write(buffer, 0, read);
+				}
+				return Optional.of(bous.toByteArray());
+			}
+		});
+	}
+
+	/**
+	 * Uploads each version directory of a staged repository layout - its files, then the metadata of the
+	 * artifact - with up to the concurrency limit of artifacts in flight at once. The versions of an artifact are
+	 * uploaded one after the other by the same task, and the metadata of the artifact only once, after the last of
+	 * them - so two versions never race to PUT the same maven-metadata.xml. The callback is told about each version
+	 * directory once all of the files of its artifact, metadata included, are uploaded.
+	 */
+	public void uploadArtifacts(Path stagingRoot, List<Path> versionDirs, Consumer<Path> onUploaded)
+	{
+		final Map<Path, List<Path>> byArtifact = new LinkedHashMap<>();
+		for (Path versionDir : versionDirs)
+		{
+			byArtifact.computeIfAbsent(versionDir.getParent(), k -> new ArrayList<>()).add(versionDir);
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		try
+		{
+			final List<Runnable> tasks = new ArrayList<>(byArtifact.size());
+			for (Map.Entry<Path, List<Path>> artifact : byArtifact.entrySet())
+			{
+				tasks.add(() ->
+				{
+					for (Path versionDir : artifact.getValue())
+					{
+						for (Path file : filesIn(versionDir, false))
+						{
+							put(relativePathOf(stagingRoot, file), file);
+						}
+						for (Path file : filesIn(versionDir, true))
+						{
+							put(relativePathOf(stagingRoot, file), file);
+						}
+					}
+					for (Path file : filesIn(artifact.getKey(), true))
+					{
+						put(relativePathOf(stagingRoot, file), file);
+					}
+					artifact.getValue().forEach(onUploaded);
+				});
+			}
+			runAll(executor, tasks);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		logger.info("Uploaded " + uploadCount.get() + " files (" + uploadBytes.get() + " bytes) to " + repositoryUrl + " with " + retryCount.get() + " retries.");
+	}
+
+	/**
+	 * @return the staged files in the directory - either the metadata files only, or everything but the metadata.
+	 */
+	private static List<Path> filesIn(Path dir, boolean metadata)
+	{
+		final List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir))
+		{
+			for (Path file : stream)
+			{
+				final String name = file.getFileName().toString();
+				if (Files.isRegularFile(file) && name.endsWith(".part") == false && name.startsWith("maven-metadata") == metadata)
+				{
+					files.add(file);
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Unable to list the staged files in : " + dir + " - got the exception : " + e, e);
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	private void runAll(ExecutorService executor, List<Runnable> tasks)
+	{
+		final RunMetrics metrics = RunMetrics.current();
+		final List<Future<?>> futures = new ArrayList<>(tasks.size());
+		for (Runnable task : tasks)
+		{
+			futures.add(executor.submit(metrics.wrap(Executors.callable(task))));
+		}
+		try
+		{
+			for (Future<?> future : futures)
+			{
+				future.get();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			futures.forEach(f -> f.cancel(true));
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while uploading to : " + repositoryUrl, e);
+		}
+		catch (ExecutionException e)
+		{
+			futures.forEach(f -> f.cancel(true));
+			throw new RuntimeException("Unable to upload to : " + repositoryUrl + " - got exception : " + e.getCause(), e.getCause());
+		}
+	}
+
+	static String relativePathOf(Path root, Path file)
+	{
+		final StringBuilder relativePath = new StringBuilder();
+		for (Path part : root.relativize(file))
+		{
+			if (relativePath.length() > 0) relativePath.append('/');
+			relativePath.append(part.toString());
+		}
+		return relativePath.toString();
+	}
+
+	private void put(String relativePath, Path file)
+	{
+		final RunMetrics metrics = RunMetrics.current();
+		final long start = metrics.start();
+		final long uploaded = withRetries("PUT " + relativePath, () ->
+		{
+			final long size = Files.size(file);
+			final HttpURLConnection conn = open(relativePath, "PUT");
+			conn.setDoOutput(true);
+			conn.setFixedLengthStreamingMode(size);
+			conn.setRequestProperty("Content-Type", "application/octet-stream");
+			try (OutputStream out = conn.getOutputStream())
+			{
+				Files.copy(file, out);
+			}
+			final int status = conn.getResponseCode();
+			checkStatus(conn, status, relativePath);
+			drain(conn);
+			uploadCount.incrementAndGet();
+			uploadBytes.addAndGet(size);
+			return size;
+		});
+		metrics.record(RunMetrics.Phase.UPLOAD, RunMetrics.typeOf(file), start, uploaded);
+	}
+
+	private HttpURLConnection open(String relativePath, String method) throws IOException
+	{
+		final HttpURLConnection conn = (HttpURLConnection) new URL(repositoryUrl + relativePath).openConnection();
+		conn.setRequestMethod(method);
+		conn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+		conn.setReadTimeout(READ_TIMEOUT_MILLIS);
+		conn.setUseCaches(false);
+		if (authorization.isPresent())
+		{
+			conn.setRequestProperty("Authorization", authorization.get());
+		}
+		return conn;
+	}
+
+	/**
+	 * A response that may succeed if tried again.
+	 */
+	private static final class RetryableException extends IOException
+	{
+		private RetryableException(String message)
+		{
+			super(message);
+		}
+	}
+
+	private void checkStatus(HttpURLConnection conn, int status, String relativePath) throws IOException
+	{
+		if (status >= 200 && status < 300)
+		{
+			return;
+		}
+		drain(conn);
+		final String message = "The repository responded " + status + " " + conn.getResponseMessage() + " for : " + repositoryUrl + relativePath;
+		if (status >= 500 || status == 429)
+		{
+			throw new RetryableException(message);
+		}
+		throw new RuntimeException(message);
+	}
+
+	/**
+	 * Reads and closes whatever is left of the response, so the connection can be re-used.
+	 */
+	private static void drain(HttpURLConnection conn)
+	{
+		try
+		{
+			InputStream ins = conn.getResponseCode() >= 400 ? conn.getErrorStream() : conn.getInputStream();
+			if (ins == null) return;
+			try (InputStream toClose = ins)
+			{
+				final byte[] buffer = new byte[8192];
+				while (toClose.read(buffer) != -1)
+				{
+					// Discard.
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			logger.debug("Unable to drain the response - the connection will not be re-used : " + e);
+		}
+	}
+
+	private interface Request<T>
+	{
+		T execute() throws IOException;
+	}
+
+	private <T> T withRetries(String description, Request<T> request)
+	{
+		long backoff = initialBackoffMillis;
+		for (int attempt = 1; ; attempt++)
+		{
+			try
+			{
+				return request.execute();
+			}
+			catch (IOException e)
+			{
+				if (attempt >= maxAttempts)
+				{
+					throw new RuntimeException("Unable to " + description + " after " + attempt + " attempts - got the exception : " + e, e);
+				}
+				logger.info("Attempt " + attempt + " to " + description + " failed - retrying in " + backoff + "ms. Got the message : " + e.getMessage());
+				retryCount.incrementAndGet();
+				try
+				{
+					Thread.sleep(backoff);
+				}
+				catch (InterruptedException ie)
+				{
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Interrupted while waiting to retry : " + description, ie);
+				}
+				backoff *= 2;
+			}
+		}
+	}
+
+	public int getUploadCount()
+	{
+		return uploadCount.get();
+	}
+
+	public long getUploadBytes()
+	{
+		return uploadBytes.get();
+	}
+
+	public int getRetryCount()
+	{
+		return retryCount.get();
+	}
+}
@@ -0,0 +1,338 @@
+package uk.co.devworx.maven.deploy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.maven.artifact.versioning.ComparableVersion;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Writes artifacts straight into a Maven 2 repository layout - [group path]/[artifactId]/[version]/ - in the
+ * same form install:install-file / deploy:deploy-file would, but without starting a JVM and Maven per artifact.
+ *
+ * For each artifact the rewritten jar/war, its sources jar (if any) and the rewritten POM are written, each
+ * with its checksum files - computed as the file is written, not by reading it back. The artifact level
+ * metadata is then updated - maven-metadata-local.xml for a local repository, maven-metadata.xml (plus
+ * checksums) for a file: deployment. The latest and release versions it lists are the highest by Maven's version
+ * ordering, not the last written - installing an older version does not move them back. Snapshots are written
+ * under their -SNAPSHOT name, as install does; no timestamped snapshot versions are created.
+ */
+class RepositoryLayoutWriter
+{
+	private static final Logger logger = LogManager.getLogger(RepositoryLayoutWriter.class);
+
+	static final String LOCAL_METADATA_FILE = "maven-metadata-local.xml";
+	static final String REMOTE_METADATA_FILE = "maven-metadata.xml";
+
+	private static final String SNAPSHOT_SUFFIX = "-SNAPSHOT";
+
+	private final Path repositoryRoot;
+	private final GroupIdRewriter groupIdRewriter;
+	private final boolean localRepository;
+	private final Set<ChecksumAlgorithm> checksumAlgorithms;
+
+	private StagingStrategy stagingStrategy = StagingStrategy.COPY;
+	private Optional<Function<String, Optional<byte[]>>> existingMetadataSource = Optional.empty();
+	private final Map<Path, MetadataFetch> metadataFetches = new ConcurrentHashMap<>();
+
+	private static final class MetadataFetch
+	{
+		private boolean done;
+	}
+
+	RepositoryLayoutWriter(Path repositoryRoot, GroupIdRewriter groupIdRewriter, boolean localRepository, Set<ChecksumAlgorithm> checksumAlgorithms)
+	{
+		this.repositoryRoot = repositoryRoot;
+		this.groupIdRewriter = groupIdRewriter;
+		this.localRepository = localRepository;
+		this.checksumAlgorithms = checksumAlgorithms;
+	}
+
+	/**
+	 * Sets where the current metadata of an artifact comes from - given its path relative to the repository root -
+	 * when the repository being written is only a staging copy of the real one. It is asked once per artifact; the
+	 * versions it lists are kept.
+	 */
+	void setExistingMetadataSource(Function<String, Optional<byte[]>> existingMetadataSource)
+	{
+		this.existingMetadataSource = Optional.of(existingMetadataSource);
+	}
+
+	/**
+	 * Sets how the sources jars are staged - see {@link StagingStrategy}.
+	 */
+	void setStagingStrategy(StagingStrategy stagingStrategy)
+	{
+		this.stagingStrategy = stagingStrategy;
+	}
+
+	Path getRepositoryRoot()
+	{
+		return repositoryRoot;
+	}
+
+	/**
+	 * @return the directory the artifact was written to.
+	 */
+	Path install(PomFileExtract extract)
+	{
+		final String groupId = groupIdRewriter.rewriteGroupId(extract.getGroupId());
+		final String artifactId = extract.getArtefactId();
+		final String version = extract.getVersionId();
+		final Path artifactDir = repositoryRoot.resolve(groupId.replace('.', '/')).resolve(artifactId);
+		final Path versionDir = artifactDir.resolve(version);
+		final String baseName = artifactId + "-" + version;
+		final RunMetrics metrics = RunMetrics.current();
+
+		try
+		{
+			Files.createDirectories(versionDir);
+
+			if (extract.getPomFileExtractType() == PomFileExtractType.JAR_FILE)
+			{
+				final Path source = extract.getJarOrWarFile().get();
+				final String fileName = source.getFileName().toString();
+				final String extension = fileName.substring(fileName.lastIndexOf('.'));
+
+				final Path jarFile = versionDir.resolve(baseName + extension);
+				final Path tmpJarFile = versionDir.resolve(baseName + extension + ".part");
+				final DigestingOutputStream jarOut = new DigestingOutputStream(Files.newOutputStream(tmpJarFile), checksumAlgorithms);
+				ZipUtils.rewriteJar(source, jarOut, groupIdRewriter, FlightEvents.coordinatesOf(extract));
+				Files.move(tmpJarFile, jarFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				jarOut.writeChecksumFiles(jarFile);
+
+				if (extract.getSourceJarFile().isPresent())
+				{
+					final long start = metrics.start();
+					stagingStrategy.stage(extract.getSourceJarFile().get(), versionDir.resolve(baseName + "-sources.jar"), checksumAlgorithms, true, FlightEvents.coordinatesOf(extract));
+					metrics.record(RunMetrics.Phase.SOURCES_STAGE, null, start, 0);
+				}
+			}
+
+			final long pomStart = metrics.start();
+			final Path pomFile = versionDir.resolve(baseName + ".pom");
+			final byte[] pomFileData = groupIdRewriter.rewrite(extract.getPomFileData());
+			DigestingOutputStream.write(pomFile, pomFileData, checksumAlgorithms);
+			metrics.record(RunMetrics.Phase.POM_WRITE, "pom", pomStart, pomFileData.length);
+
+			fetchExistingMetadata(artifactDir);
+			updateMetadata(artifactDir, versionDir, groupId, artifactId, version);
+
+			logger.info("Installed " + groupId + ":" + artifactId + ":" + version + " to " + versionDir.toAbsolutePath());
+			return versionDir;
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Unable to write " + groupId + ":" + artifactId + ":" + version + " to the repository : " + repositoryRoot + " - got the exception : " + e, e);
+		}
+	}
+
+	private String metadataFileName()
+	{
+		return localRepository ? LOCAL_METADATA_FILE : REMOTE_METADATA_FILE;
+	}
+
+	/**
+	 * Replaces the staged metadata of the artifact with the current one from the {@link #setExistingMetadataSource(Function)},
+	 * the first time the artifact is written to. Other versions of the same artifact wait for the fetch.
+	 */
+	private void fetchExistingMetadata(Path artifactDir) throws IOException
+	{
+		if (existingMetadataSource.isPresent() == false)
+		{
+			return;
+		}
+
+		final MetadataFetch fetch = metadataFetches.computeIfAbsent(artifactDir, k -> new MetadataFetch());
+		synchronized (fetch)
+		{
+			if (fetch.done)
+			{
+				return;
+			}
+			final Path metadataFile = artifactDir.resolve(metadataFileName());
+			final Optional<byte[]> existing = existingMetadataSource.get().apply(RepositoryDeployer.relativePathOf(repositoryRoot, metadataFile));
+			synchronized (this)
+			{
+				if (existing.isPresent())
+				{
+					Files.write(metadataFile, existing.get());
+				}
+				else
+				{
+					Files.deleteIfExists(metadataFile);
+				}
+			}
+			fetch.done = true;
+		}
+	}
+
+	/**
+	 * Metadata files are shared between the versions of an artifact, so updates are serialised.
+	 */
+	private synchronized void updateMetadata(Path artifactDir, Path versionDir, String groupId, String artifactId, String version) throws IOException
+	{
+		final String metadataFileName = metadataFileName();
+		final Path metadataFile = artifactDir.resolve(metadataFileName);
+		final String lastUpdated = lastUpdatedTimestamp();
+
+		final Set<String> versions = new LinkedHashSet<>();
+		Optional<String> release = Optional.empty();
+		if (Files.exists(metadataFile))
+		{
+			final ExistingMetadata existing = readMetadata(metadataFile);
+			versions.addAll(existing.versions);
+			release = existing.release;
+		}
+		versions.add(version);
+		String latest = version;
+		for (String v : versions)
+		{
+			latest = highestOf(latest, v);
+			if (v.endsWith(SNAPSHOT_SUFFIX) == false)
+			{
+				release = Optional.of(release.isPresent() ? highestOf(release.get(), v) : v);
+			}
+		}
+
+		final StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		xml.append("<metadata>\n");
+		xml.append("  <groupId>").append(groupId).append("</groupId>\n");
+		xml.append("  <artifactId>").append(artifactId).append("</artifactId>\n");
+		xml.append("  <versioning>\n");
+		xml.append("    <latest>").append(latest).append("</latest>\n");
+		if (release.isPresent())
+		{
+			xml.append("    <release>").append(release.get()).append("</release>\n");
+		}
+		xml.append("    <versions>\n");
+		for (String v : versions)
+		{
+			xml.append("      <version>").append(v).append("</version>\n");
+		}
+		xml.append("    </versions>\n");
+		xml.append("    <lastUpdated>").append(lastUpdated).append("</lastUpdated>\n");
+		xml.append("  </versioning>\n");
+		xml.append("</metadata>\n");
+
+		writeMetadata(metadataFile, xml.toString());
+
+		if (version.endsWith(SNAPSHOT_SUFFIX))
+		{
+			final StringBuilder snapshotXml = new StringBuilder();
+			snapshotXml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			snapshotXml.append("<metadata>\n");
+			snapshotXml.append("  <groupId>").append(groupId).append("</groupId>\n");
+			snapshotXml.append("  <artifactId>").append(artifactId).append("</artifactId>\n");
+			snapshotXml.append("  <version>").append(version).append("</version>\n");
+			snapshotXml.append("  <versioning>\n");
+			snapshotXml.append("    <snapshot>\n");
+			snapshotXml.append("      <localCopy>true</localCopy>\n");
+			snapshotXml.append("    </snapshot>\n");
+			snapshotXml.append("    <lastUpdated>").append(lastUpdated).append("</lastUpdated>\n");
+			snapshotXml.append("  </versioning>\n");
+			snapshotXml.append("</metadata>\n");
+			writeMetadata(versionDir.resolve(metadataFileName), snapshotXml.toString());
+		}
+	}
+
+	/**
+	 * @return the higher of the two versions, as Maven orders them.
+	 */
+	static String highestOf(String a, String b)
+	{
+		return new ComparableVersion(a).compareTo(new ComparableVersion(b)) >= 0 ? a : b;
+	}
+
+	private void writeMetadata(Path metadataFile, String xml) throws IOException
+	{
+		final byte[] data = xml.getBytes(StandardCharsets.UTF_8);
+		if (localRepository)
+		{
+			Files.write(metadataFile, data);
+		}
+		else
+		{
+			DigestingOutputStream.write(metadataFile, data, checksumAlgorithms);
+		}
+	}
+
+	private static final class ExistingMetadata
+	{
+		private final List<String> versions = new ArrayList<>();
+		private Optional<String> release = Optional.empty();
+	}
+
+	private static ExistingMetadata readMetadata(Path metadataFile) throws IOException
+	{
+		final ExistingMetadata existing = new ExistingMetadata();
+		try (InputStream ins = Files.newInputStream(metadataFile))
+		{
+			final XMLStreamReader r = PomFileUtils.xmlInputFactory().createXMLStreamReader(ins);
+			try
+			{
+				boolean inVersions = false;
+				while (r.hasNext())
+				{
+					final int event = r.next();
+					if (event == XMLStreamConstants.START_ELEMENT)
+					{
+						final String name = r.getLocalName();
+						if ("versions".equals(name))
+						{
+							inVersions = true;
+						}
+						else if (inVersions && "version".equals(name))
+						{
+							existing.versions.add(r.getElementText().trim());
+						}
+						else if ("release".equals(name))
+						{
+							existing.release = Optional.of(r.getElementText().trim());
+						}
+					}
+					else if (event == XMLStreamConstants.END_ELEMENT && "versions".equals(r.getLocalName()))
+					{
+						inVersions = false;
+					}
+				}
+			}
+			finally
+			{
+				r.close();
+			}
+		}
+		catch (XMLStreamException e)
+		{
+			logger.info("Unable to read the existing metadata : " + metadataFile + " - it will be replaced. Got the message : " + e.getMessage());
+		}
+		return existing;
+	}
+
+	private static String lastUpdatedTimestamp()
+	{
+		final SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(new Date());
+	}
+}
@@ -0,0 +1,322 @@
+package uk.co.devworx.maven.deploy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters, bytes processed and latency histograms per phase of a run - and per artifact type (jar, war, pom)
+ * within a phase - plus the slowest artifacts overall. Written out as a JSON run report by {@link #writeReport(Path)}.
+ *
+ * The metrics of a run are found through {@link #current()}, so code deep in the call chain (ZipUtils, PomFileExtract)
+ * can record without them being passed down. The run binds them to its own thread with {@link #bind()}, and to the
+ * tasks it hands to executors with {@link #wrap(Callable)}. Outside a run, {@link #current()} is a disabled instance
+ * that records nothing - and {@link #start()} does not even read the clock.
+ *
+ * Latencies go into power of two buckets of microseconds - bucket n holds those under 2^n us.
+ */
+final class RunMetrics
+{
+	enum Phase
+	{
+		/** Walking the scan directory for candidate files. */
+		SCAN_WALK,
+		/** Creating the extract of a candidate file - reading and resolving its POM. */
+		EXTRACT,
+		/** Opening a jar / war and reading its embedded POM. */
+		ZIP_READ,
+		/** Parsing a POM (coordinates, or in full). */
+		POM_PARSE,
+		/** Building the deploy plan. */
+		PLAN,
+		/** Writing the sanitised copy of a jar / war. */
+		JAR_REWRITE,
+		/** Staging a sources jar. */
+		SOURCES_STAGE,
+		/** Writing a rewritten POM. */
+		POM_WRITE,
+		/** Writing an artifact into a repository layout, metadata included. */
+		LAYOUT_INSTALL,
+		/** Uploading a file to the repository. */
+		UPLOAD,
+		/** Writing the generated script(s). */
+		SCRIPT_WRITE
+	}
+
+	private static final int BUCKETS = 40;
+	private static final String ALL_TYPES = "all";
+
+	static final RunMetrics DISABLED = new RunMetrics(false, 0);
+
+	private static final ThreadLocal<RunMetrics> CURRENT = ThreadLocal.withInitial(() -> DISABLED);
+
+	private static final class Stats
+	{
+		private final LongAdder count = new LongAdder();
+		private final LongAdder bytes = new LongAdder();
+		private final LongAdder nanos = new LongAdder();
+		private final AtomicLong maxNanos = new AtomicLong();
+		private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+		private void add(long elapsedNanos, long byteCount)
+		{
+			count.increment();
+			bytes.add(byteCount);
+			nanos.add(elapsedNanos);
+			maxNanos.accumulateAndGet(elapsedNanos, Math::max);
+			final long micros = elapsedNanos / 1000;
+			histogram.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+		}
+	}
+
+	private static final class SlowArtifact
+	{
+		private final String coordinates;
+		private final String type;
+		private final long nanos;
+
+		private SlowArtifact(String coordinates, String type, long nanos)
+		{
+			this.coordinates = coordinates;
+			this.type = type;
+			this.nanos = nanos;
+		}
+	}
+
+	private final boolean enabled;
+	private final int slowestCount;
+	private final long startedAt = System.currentTimeMillis();
+	private final long startedNanos = System.nanoTime();
+	private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+	private final PriorityQueue<SlowArtifact> slowest = new PriorityQueue<>(Comparator.comparingLong((SlowArtifact a) -> a.nanos));
+
+	private RunMetrics(boolean enabled, int slowestCount)
+	{
+		this.enabled = enabled;
+		this.slowestCount = slowestCount;
+	}
+
+	/**
+	 * @param slowestCount how many of the slowest artifacts the report lists.
+	 */
+	RunMetrics(int slowestCount)
+	{
+		this(true, slowestCount);
+	}
+
+	/**
+	 * @return the metrics of the run on this thread - {@link #DISABLED} if there is none.
+	 */
+	static RunMetrics current()
+	{
+		return CURRENT.get();
+	}
+
+	/**
+	 * Makes these the {@link #current()} metrics of this thread, until the returned scope is closed.
+	 */
+	Scope bind()
+	{
+		final RunMetrics previous = CURRENT.get();
+		CURRENT.set(this);
+		return () -> CURRENT.set(previous);
+	}
+
+	interface Scope extends AutoCloseable
+	{
+		@Override void close();
+	}
+
+	/**
+	 * @return the task, with these metrics bound while it runs.
+	 */
+	<T> Callable<T> wrap(Callable<T> task)
+	{
+		if (enabled == false)
+		{
+			return task;
+		}
+		return () ->
+		{
+			try (Scope scope = bind())
+			{
+				return task.call();
+			}
+		};
+	}
+
+	boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * @return the time to pass to {@link #record} - or 0, without reading the clock, when disabled.
+	 */
+	long start()
+	{
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Records one occurrence of the phase that started at the given {@link #start()} time.
+	 *
+	 * @param type the artifact type - see {@link #typeOf(Path)} - or null if it does not apply.
+	 */
+	void record(Phase phase, String type, long start, long bytes)
+	{
+		if (enabled == false)
+		{
+			return;
+		}
+		final long elapsed = System.nanoTime() - start;
+		stats.computeIfAbsent(phase + "/" + ALL_TYPES, k -> new Stats()).add(elapsed, bytes);
+		if (type != null)
+		{
+			stats.computeIfAbsent(phase + "/" + type, k -> new Stats()).add(elapsed, bytes);
+		}
+	}
+
+	/**
+	 * Records the total time spent on one artifact, for the list of the slowest.
+	 */
+	void recordArtifact(String coordinates, String type, long start)
+	{
+		if (enabled == false || slowestCount == 0)
+		{
+			return;
+		}
+		final long elapsed = System.nanoTime() - start;
+		synchronized (slowest)
+		{
+			if (slowest.size() < slowestCount)
+			{
+				slowest.add(new SlowArtifact(coordinates, type, elapsed));
+			}
+			else if (slowest.peek().nanos < elapsed)
+			{
+				slowest.poll();
+				slowest.add(new SlowArtifact(coordinates, type, elapsed));
+			}
+		}
+	}
+
+	/**
+	 * @return the artifact type of the file - its extension: jar, war or pom.
+	 */
+	static String typeOf(Path file)
+	{
+		final String name = file.getFileName().toString();
+		return name.substring(name.lastIndexOf('.') + 1);
+	}
+
+	/**
+	 * @return the number of times the phase was recorded, over all types.
+	 */
+	long getCount(Phase phase)
+	{
+		final Stats s = stats.get(phase + "/" + ALL_TYPES);
+		return s == null ? 0 : s.count.sum();
+	}
+
+	String toJson()
+	{
+		final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		final StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append("  \"startedAt\": \"").append(format.format(new Date(startedAt))).append("\",\n");
+		json.append("  \"wallMillis\": ").append(millis(System.nanoTime() - startedNanos)).append(",\n");
+		json.append("  \"phases\": [");
+
+		boolean first = true;
+		for (Map.Entry<String, Stats> e : new TreeMap<>(stats).entrySet())
+		{
+			final String[] phaseType = e.getKey().split("/", 2);
+			final Stats s = e.getValue();
+			json.append(first ? "\n" : ",\n");
+			first = false;
+			json.append("    { \"phase\": \"").append(phaseType[0]).append("\"");
+			json.append(", \"type\": \"").append(phaseType[1]).append("\"");
+			json.append(", \"count\": ").append(s.count.sum());
+			json.append(", \"bytes\": ").append(s.bytes.sum());
+			json.append(", \"totalMillis\": ").append(millis(s.nanos.sum()));
+			json.append(", \"maxMillis\": ").append(millis(s.maxNanos.get()));
+			json.append(", \"histogramMicros\": {");
+			boolean firstBucket = true;
+			for (int b = 0; b < BUCKETS; b++)
+			{
+				final long n = s.histogram.get(b);
+				if (n > 0)
+				{
+					json.append(firstBucket ? " " : ", ");
+					firstBucket = false;
+					json.append("\"<").append(b == BUCKETS - 1 ? "inf" : String.valueOf(1L << b)).append("\": ").append(n);
+				}
+			}
+			json.append(" } }");
+		}
+		json.append("\n  ],\n");
+
+		final List<SlowArtifact> slow;
+		synchronized (slowest)
+		{
+			slow = new ArrayList<>(slowest);
+		}
+		slow.sort(Comparator.comparingLong((SlowArtifact a) -> a.nanos).reversed());
+		json.append("  \"slowestArtifacts\": [");
+		for (int i = 0; i < slow.size(); i++)
+		{
+			json.append(i == 0 ? "\n" : ",\n");
+			json.append("    { \"coordinates\": \"").append(escape(slow.get(i).coordinates)).append("\"");
+			json.append(", \"type\": \"").append(slow.get(i).type).append("\"");
+			json.append(", \"millis\": ").append(millis(slow.get(i).nanos)).append(" }");
+		}
+		json.append("\n  ]\n");
+		json.append("}\n");
+		return json.toString();
+	}
+
+	void writeReport(Path reportFile)
+	{
+		try
+		{
+			if (reportFile.getParent() != null)
+			{
+				Files.createDirectories(reportFile.getParent());
+			}
+			Files.write(reportFile, toJson().getBytes(StandardCharsets.UTF_8));
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Unable to write the run report : " + reportFile + " - got the exception : " + e, e);
+		}
+	}
+
+	private static String millis(long nanos)
+	{
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	private static String escape(String s)
+	{
+		return s.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+}
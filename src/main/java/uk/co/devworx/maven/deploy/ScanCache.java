@@ -0,0 +1,350 @@
+package uk.co.devworx.maven.deploy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.CharConversionException;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipException;
+
+/**
+ * An on-disk index of what a previous scan found in each candidate file, keyed by the
+ * path, size and last modified time of the file. An unchanged file can then be turned
+ * into a {@link PomFileExtract} without opening the jar or parsing the POM - its parent and dependencies are recorded
+ * too, for the {@link DeployPlan}, and the POM bytes are only loaded (and checked against the recorded hash) if they
+ * are actually needed.
+ *
+ * Files that are not artifacts are recorded too, so they are skipped without being read again - but not those that
+ * could not be read at the time (see {@link #isPermanentSkip(Throwable)}), which are tried again on the next scan.
+ *
+ * The file is an append-only log of binary records; later records for the same path win.
+ * It is re-written compactly once it holds more stale records than live ones.
+ */
+public class ScanCache
+{
+	private static final Logger logger = LogManager.getLogger(ScanCache.class);
+
+	private static final int MAGIC = 0x50464543; // "PFEC"
+	private static final int FORMAT_VERSION = 2;
+
+	private static final byte TYPE_NOT_AN_ARTIFACT = 0;
+	private static final byte TYPE_JAR_FILE = 1;
+	private static final byte TYPE_PARENT_POM = 2;
+
+	private static final int MAX_DEPENDENCIES = 65_536;
+
+	/**
+	 * What was recorded for a single file.
+	 */
+	static final class Entry
+	{
+		final long size;
+		final long lastModified;
+		final Optional<PomFileExtractType> pomFileExtractType;
+		final String groupId;
+		final String artefactId;
+		final String versionId;
+		final boolean sourceJarPresent;
+		final byte[] pomFileDigest;
+		final Optional<String> parentCoordinates;
+		final List<PomModel.Dependency> dependencies;
+		final String skipReason;
+
+		private Entry(long size, long lastModified, Optional<PomFileExtractType> pomFileExtractType, String groupId, String artefactId, String versionId, boolean sourceJarPresent, byte[] pomFileDigest,
+					  Optional<String> parentCoordinates, List<PomModel.Dependency> dependencies, String skipReason)
+		{
+			this.size = size;
+			this.lastModified = lastModified;
+			this.pomFileExtractType = pomFileExtractType;
+			this.groupId = groupId;
+			this.artefactId = artefactId;
+			this.versionId = versionId;
+			this.sourceJarPresent = sourceJarPresent;
+			this.pomFileDigest = pomFileDigest;
+			this.parentCoordinates = parentCoordinates;
+			this.dependencies = dependencies;
+			this.skipReason = skipReason;
+		}
+
+		static Entry of(long size, long lastModified, PomFileExtract extract)
+		{
+			return new Entry(size, lastModified, Optional.of(extract.getPomFileExtractType()), extract.getGroupId(), extract.getArtefactId(),
+							 extract.getVersionId(), extract.getSourceJarFile().isPresent(), extract.getPomFileDigest(), extract.getParentCoordinates(), extract.getDependencies(), "");
+		}
+
+		static Entry skipped(long size, long lastModified, String skipReason)
+		{
+			return new Entry(size, lastModified, Optional.empty(), "", "", "", false, new byte[0], Optional.empty(), Collections.emptyList(), skipReason == null ? "" : skipReason);
+		}
+	}
+
+	private final Path cacheFile;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private final ConcurrentLinkedQueue<Map.Entry<String, Entry>> pending = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+	private int recordsOnDisk;
+	private boolean rewriteRequired;
+
+	private ScanCache(Path cacheFile)
+	{
+		this.cacheFile = cacheFile;
+	}
+
+	/**
+	 * Loads the cache from the file, or starts an empty one if the file does not exist yet.
+	 */
+	public static ScanCache open(Path cacheFile)
+	{
+		final ScanCache cache = new ScanCache(cacheFile.toAbsolutePath());
+		if (Files.exists(cacheFile) == false)
+		{
+			return cache;
+		}
+
+		final long start = System.currentTimeMillis();
+		try (DataInputStream ins = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile), 64 * 1024)))
+		{
+			if (ins.readInt() != MAGIC || ins.readInt() != FORMAT_VERSION)
+			{
+				logger.info("The scan cache " + cacheFile + " is not in the expected format - it will be re-built.");
+				cache.rewriteRequired = true;
+				return cache;
+			}
+
+			while (true)
+			{
+				ins.mark(1);
+				if (ins.read() == -1)
+				{
+					break;
+				}
+				ins.reset();
+				final String path = ins.readUTF();
+				final Entry entry = readEntry(ins);
+				cache.entries.put(path, entry);
+				cache.recordsOnDisk++;
+			}
+		}
+		catch (IOException e)
+		{
+			// A torn or damaged record - keep what was read before it, and write the file out afresh on the next flush.
+			logger.info("The scan cache " + cacheFile + " could not be read past its first " + cache.recordsOnDisk + " records - it will be re-written. Got the exception : " + e);
+			cache.rewriteRequired = true;
+		}
+
+		logger.info("Loaded " + cache.entries.size() + " scan cache entries from " + cacheFile + " in " + (System.currentTimeMillis() - start) + " ms.");
+		return cache;
+	}
+
+	/**
+	 * @return the recorded entry, if the file has not changed since it was recorded.
+	 */
+	Optional<Entry> lookup(Path file, long size, long lastModified)
+	{
+		final Entry entry = entries.get(keyOf(file));
+		if (entry != null && entry.size == size && entry.lastModified == lastModified)
+		{
+			hits.incrementAndGet();
+			return Optional.of(entry);
+		}
+		misses.incrementAndGet();
+		return Optional.empty();
+	}
+
+	void record(Path file, Entry entry)
+	{
+		final String key = keyOf(file);
+		entries.put(key, entry);
+		pending.add(new AbstractMap.SimpleImmutableEntry<>(key, entry));
+	}
+
+	public int getHitCount()
+	{
+		return hits.get();
+	}
+
+	public int getMissCount()
+	{
+		return misses.get();
+	}
+
+	public int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Appends everything recorded since the last flush to the cache file (or re-writes the file if it has become
+	 * mostly stale records).
+	 */
+	public synchronized void flush()
+	{
+		final List<Map.Entry<String, Entry>> toWrite = new ArrayList<>();
+		Map.Entry<String, Entry> next;
+		while ((next = pending.poll()) != null)
+		{
+			toWrite.add(next);
+		}
+
+		try
+		{
+			if (rewriteRequired || Files.exists(cacheFile) == false || recordsOnDisk + toWrite.size() > 2 * entries.size())
+			{
+				rewrite();
+				return;
+			}
+			if (toWrite.isEmpty())
+			{
+				return;
+			}
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(cacheFile, StandardOpenOption.APPEND), 64 * 1024)))
+			{
+				for (Map.Entry<String, Entry> e : toWrite)
+				{
+					out.writeUTF(e.getKey());
+					writeEntry(out, e.getValue());
+				}
+			}
+			recordsOnDisk += toWrite.size();
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Unable to write the scan cache : " + cacheFile + " - got the exception : " + e, e);
+		}
+	}
+
+	private void rewrite() throws IOException
+	{
+		if (cacheFile.getParent() != null)
+		{
+			Files.createDirectories(cacheFile.getParent());
+		}
+
+		final Path tmp = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024)))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			for (Map.Entry<String, Entry> e : entries.entrySet())
+			{
+				out.writeUTF(e.getKey());
+				writeEntry(out, e.getValue());
+			}
+		}
+		Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+
+		recordsOnDisk = entries.size();
+		rewriteRequired = false;
+	}
+
+	/**
+	 * @return true if the exception says the file cannot be read as an artifact - so it is skipped for as long as it
+	 * is unchanged - rather than that it could not be read just now (it is locked, unreadable, vanished ...).
+	 */
+	static boolean isPermanentSkip(Throwable e)
+	{
+		for (Throwable cause = e; cause != null; cause = cause.getCause())
+		{
+			if (cause instanceof IOException && cause instanceof ZipException == false && cause instanceof CharConversionException == false)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String keyOf(Path file)
+	{
+		return file.toAbsolutePath().normalize().toString();
+	}
+
+	private static void writeEntry(DataOutputStream out, Entry entry) throws IOException
+	{
+		out.writeLong(entry.size);
+		out.writeLong(entry.lastModified);
+		if (entry.pomFileExtractType.isPresent() == false)
+		{
+			out.writeByte(TYPE_NOT_AN_ARTIFACT);
+			out.writeUTF(entry.skipReason.length() > 1024 ? entry.skipReason.substring(0, 1024) : entry.skipReason);
+			return;
+		}
+
+		out.writeByte(entry.pomFileExtractType.get() == PomFileExtractType.JAR_FILE ? TYPE_JAR_FILE : TYPE_PARENT_POM);
+		out.writeUTF(entry.groupId);
+		out.writeUTF(entry.artefactId);
+		out.writeUTF(entry.versionId);
+		out.writeBoolean(entry.sourceJarPresent);
+		out.writeByte(entry.pomFileDigest.length);
+		out.write(entry.pomFileDigest);
+		//Parent coordinates always hold a ':' - so an empty string is no parent.
+		out.writeUTF(entry.parentCoordinates.orElse(""));
+		out.writeInt(entry.dependencies.size());
+		for (PomModel.Dependency dependency : entry.dependencies)
+		{
+			out.writeUTF(dependency.getGroupId());
+			out.writeUTF(dependency.getArtifactId());
+			out.writeBoolean(dependency.getVersion().isPresent());
+			out.writeUTF(dependency.getVersion().orElse(""));
+		}
+	}
+
+	private static Entry readEntry(DataInputStream ins) throws IOException
+	{
+		final long size = ins.readLong();
+		final long lastModified = ins.readLong();
+		final byte type = ins.readByte();
+		if (type == TYPE_NOT_AN_ARTIFACT)
+		{
+			return Entry.skipped(size, lastModified, ins.readUTF());
+		}
+		if (type != TYPE_JAR_FILE && type != TYPE_PARENT_POM)
+		{
+			throw new IOException("Unknown record type : " + type);
+		}
+
+		final PomFileExtractType pomFileExtractType = type == TYPE_JAR_FILE ? PomFileExtractType.JAR_FILE : PomFileExtractType.PARENT_POM;
+		final String groupId = ins.readUTF();
+		final String artefactId = ins.readUTF();
+		final String versionId = ins.readUTF();
+		final boolean sourceJarPresent = ins.readBoolean();
+		final byte[] digest = new byte[Byte.toUnsignedInt(ins.readByte())];
+		ins.readFully(digest);
+		final String parentCoordinates = ins.readUTF();
+		final int dependencyCount = ins.readInt();
+		if (dependencyCount < 0 || dependencyCount > MAX_DEPENDENCIES)
+		{
+			throw new IOException("Implausible dependency count : " + dependencyCount);
+		}
+		final List<PomModel.Dependency> dependencies = new ArrayList<>(dependencyCount);
+		for (int i = 0; i < dependencyCount; i++)
+		{
+			final String depGroupId = ins.readUTF();
+			final String depArtifactId = ins.readUTF();
+			final boolean versionPresent = ins.readBoolean();
+			final String depVersion = ins.readUTF();
+			dependencies.add(new PomModel.Dependency(depGroupId, depArtifactId, versionPresent ? Optional.of(depVersion) : Optional.empty()));
+		}
+		return new Entry(size, lastModified, Optional.of(pomFileExtractType), groupId, artefactId, versionId, sourceJarPresent, digest,
+						 parentCoordinates.isEmpty() ? Optional.empty() : Optional.of(parentCoordinates), dependencies, "");
+	}
+
+}
@@ -0,0 +1,383 @@
+package uk.co.devworx.maven.deploy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watch mode - keeps the script of a drop directory up to date as files arrive, without rescanning the directory.
+ *
+ * {@link #run()} generates the script once, as {@link GenerateMavenDeployScripts#generateScript(Path, Path, String, String)}
+ * does, and then watches the scan directory tree. Bursts of events are debounced: once the tree has been quiet for
+ * {@link #setDebounceMillis(long)}, the jar, war and pom files created or changed in the burst are staged and their
+ * commands appended to the script - see {@link GenerateMavenDeployScripts#appendToScript}. New directories are
+ * watched (and the files already in them picked up) as they appear. Should the watch service drop events, the
+ * script is generated again from a full scan.
+ *
+ * A file that is still being copied when its burst ends may not parse and be skipped; the next change to it (the
+ * rest of the copy) brings it back. Should staging a burst fail, the failure is logged and its files are staged
+ * again with the next burst. A sources jar is not staged on its own: arriving (or changing) after its jar, it
+ * stages that jar again, so the sources go out with it.
+ *
+ * Parent POMs are read through the {@link PomModelCache} of the generator, which is set to check its parents for
+ * freshness - it reads a parent again once its file has changed - and does not remember parents it could not find - artifacts staged after a parent arrives or changes
+ * resolve against it. An artifact whose coordinates could not be resolved (a ${...} is left in them, as its parent
+ * had not arrived yet) is staged again with each later burst that brings POM files, until they resolve. An artifact
+ * already staged with resolved coordinates is not staged again when a parent of it is edited.
+ */
+public class ScanDirectoryWatcher implements Closeable
+{
+	private static final Logger logger = LogManager.getLogger(ScanDirectoryWatcher.class);
+
+	public static final long DEFAULT_DEBOUNCE_MILLIS = 2000;
+
+	private final GenerateMavenDeployScripts generator;
+	private final Path outputDir;
+	private final Path settingsXml;
+	private final String url;
+	private final String repositoryId;
+	private final WatchService watchService;
+
+	/**
+	 * The size and last modified time of each file, as of when it was last staged (or seen) - events that leave a file
+	 * unchanged are ignored.
+	 */
+	private final Map<Path, String> seen = new HashMap<>();
+
+	/**
+	 * The files staged with coordinates that could not be resolved - see the class comment.
+	 */
+	private final Set<Path> unresolved = new TreeSet<>();
+
+	/**
+	 * The files of a burst that failed to stage - added to the next burst.
+	 */
+	private final Set<Path> retry = new TreeSet<>();
+
+	private long debounceMillis = DEFAULT_DEBOUNCE_MILLIS;
+
+	public ScanDirectoryWatcher(GenerateMavenDeployScripts generator,
+								Path outputDir,
+								Path settingsXml,
+								String url,
+								String repositoryId)
+	{
+		this.generator = generator;
+		this.outputDir = outputDir;
+		this.settingsXml = settingsXml;
+		this.url = url;
+		this.repositoryId = repositoryId;
+		generator.getPomModelCache().setCheckFreshness(true);
+		try
+		{
+			this.watchService = generator.getJarWarRootScanDirectory().getFileSystem().newWatchService();
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Unable to watch the directory : " + generator.getJarWarRootScanDirectory() + " - got the exception : " + e, e);
+		}
+	}
+
+	/**
+	 * Sets how long the scan directory has to be quiet before the files changed in a burst of events are staged.
+	 * Defaults to {@link #DEFAULT_DEBOUNCE_MILLIS}.
+	 */
+	public void setDebounceMillis(long debounceMillis)
+	{
+		this.debounceMillis = debounceMillis;
+	}
+
+	/**
+	 * Generates the script, then keeps it up to date until {@link #close()} is called (from another thread) or the
+	 * thread is interrupted.
+	 */
+	public void run()
+	{
+		try
+		{
+			registerAll();
+			generator.generateScript(outputDir, settingsXml, url, repositoryId);
+
+			while (true)
+			{
+				final Set<Path> changed = new TreeSet<>();
+				boolean overflow = collect(watchService.take(), changed);
+				WatchKey next;
+				while ((next = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null)
+				{
+					overflow |= collect(next, changed);
+				}
+
+				if (overflow)
+				{
+					logger.warn("Watch events were lost - generating the script again from a full scan of : " + generator.getJarWarRootScanDirectory());
+					registerAll();
+					generator.generateScript(outputDir, settingsXml, url, repositoryId);
+				}
+				else
+				{
+					changed.addAll(retry);
+					retry.clear();
+					try
+					{
+						stage(changed);
+					}
+					catch (RuntimeException e)
+					{
+						logger.error("Unable to stage the " + changed.size() + " new or changed files - they will be staged again with the next burst - got the exception : " + e, e);
+						seen.keySet().removeAll(changed);
+						retry.addAll(changed);
+					}
+				}
+			}
+		}
+		catch (ClosedWatchServiceException e)
+		{
+			logger.info("Stopped watching : " + generator.getJarWarRootScanDirectory());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			logger.info("Interrupted - stopped watching : " + generator.getJarWarRootScanDirectory());
+		}
+	}
+
+	private void stage(Set<Path> changed)
+	{
+		for (Path file : new ArrayList<>(changed))
+		{
+			final Path mainFile = mainFileOf(file);
+			final String signature = mainFile != null ? signatureOf(file) : null;
+			if (signature != null && signature.equals(seen.put(file, signature)) == false)
+			{
+				//The jar is unchanged - forget it was seen, so it is staged again with the sources jar.
+				seen.remove(mainFile);
+				changed.add(mainFile);
+			}
+		}
+
+		final List<Path> files = new ArrayList<>();
+		for (Path file : changed)
+		{
+			final String signature = signatureOf(file);
+			if (signature != null && signature.equals(seen.put(file, signature)) == false)
+			{
+				files.add(file);
+			}
+		}
+		if (files.isEmpty())
+		{
+			return;
+		}
+		if (unresolved.isEmpty() == false && files.stream().anyMatch(f -> f.getFileName().toString().endsWith(".pom")))
+		{
+			for (Path file : unresolved)
+			{
+				if (files.contains(file) == false && Files.isRegularFile(file))
+				{
+					files.add(file);
+				}
+			}
+		}
+
+		final long start = System.currentTimeMillis();
+		final List<PomFileExtract> staged = generator.appendToScript(files, outputDir, settingsXml, url, repositoryId);
+		final Map<Path, PomFileExtract> stagedByFile = new HashMap<>();
+		for (PomFileExtract extract : staged)
+		{
+			stagedByFile.put(extract.getSourceFile(), extract);
+		}
+		for (Path file : files)
+		{
+			//Those left out may have been filtered out on their unresolved coordinates - read them again to tell.
+			final PomFileExtract extract = stagedByFile.get(file);
+			if (extract != null ? isUnresolved(extract) : isUnresolved(file))
+			{
+				unresolved.add(file);
+			}
+			else
+			{
+				unresolved.remove(file);
+			}
+		}
+		logger.info("Watch - staged " + staged.size() + " artifacts from " + files.size() + " new or changed files in " + (System.currentTimeMillis() - start) + "ms.");
+	}
+
+	private static boolean isUnresolved(PomFileExtract extract)
+	{
+		return (extract.getGroupId() + ":" + extract.getArtefactId() + ":" + extract.getVersionId()).contains("${");
+	}
+
+	/**
+	 * @return true if the coordinates of the file cannot be resolved (yet) - false if they can, or it is not an artifact.
+	 */
+	private static boolean isUnresolved(Path file)
+	{
+		if (GenerateMavenDeployScripts.isCandidateFile(file) == false)
+		{
+			return false;
+		}
+		try
+		{
+			final boolean pom = file.getFileName().toString().endsWith(".pom");
+			return isUnresolved(PomFileExtract.create(pom ? Optional.empty() : Optional.of(file), pom ? Optional.of(file) : Optional.empty()));
+		}
+		catch (RuntimeException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * @return the jar or war of the sources jar - or null if the file is not a sources jar, or it has none (yet).
+	 */
+	private static Path mainFileOf(Path file)
+	{
+		final String name = file.getFileName().toString();
+		if (name.endsWith("-sources.jar") == false)
+		{
+			return null;
+		}
+		final String baseName = name.substring(0, name.length() - "-sources.jar".length());
+		for (String extension : new String[] { ".jar", ".war" })
+		{
+			final Path mainFile = file.resolveSibling(baseName + extension);
+			if (GenerateMavenDeployScripts.isCandidateFile(mainFile) && Files.isRegularFile(mainFile))
+			{
+				return mainFile;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the events of the key to the changed files - registering any new directory, and adding the files already
+	 * in it.
+	 *
+	 * @return true if events were lost.
+	 */
+	private boolean collect(WatchKey key, Set<Path> changed)
+	{
+		boolean overflow = false;
+		final Path dir = (Path) key.watchable();
+		for (WatchEvent<?> event : key.pollEvents())
+		{
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+			{
+				overflow = true;
+				continue;
+			}
+			final Path child = dir.resolve((Path) event.context());
+			if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child))
+			{
+				changed.addAll(register(child));
+			}
+			else
+			{
+				changed.add(child);
+			}
+		}
+		key.reset();
+		return overflow;
+	}
+
+	/**
+	 * Watches the scan directory tree, and records the files in it as seen - they are in the script about to be generated.
+	 */
+	private void registerAll()
+	{
+		seen.clear();
+		unresolved.clear();
+		for (Path file : register(generator.getJarWarRootScanDirectory()))
+		{
+			final String signature = signatureOf(file);
+			if (signature != null)
+			{
+				seen.put(file, signature);
+			}
+		}
+	}
+
+	/**
+	 * Watches the directory and those under it.
+	 *
+	 * @return the jar, war and pom files found in them.
+	 */
+	private List<Path> register(Path root)
+	{
+		final List<Path> files = new ArrayList<>();
+		try
+		{
+			Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+			{
+				@Override public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException
+				{
+					dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+				{
+					if (GenerateMavenDeployScripts.isCandidateFile(file))
+					{
+						files.add(file);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Unable to watch the directory : " + root + " - got the exception : " + e, e);
+		}
+		return files;
+	}
+
+	/**
+	 * @return the size and last modified time of the file - or null if it is not (or no longer) a file.
+	 */
+	private static String signatureOf(Path file)
+	{
+		try
+		{
+			final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+			return attrs.isRegularFile() ? attrs.size() + ":" + attrs.lastModifiedTime().toMillis() : null;
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+	}
+
+	@Override public void close()
+	{
+		try
+		{
+			watchService.close();
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Unable to close the watch service - got the exception : " + e, e);
+		}
+	}
+}
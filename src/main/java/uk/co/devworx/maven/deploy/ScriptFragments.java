@@ -0,0 +1,109 @@
+package uk.co.devworx.maven.deploy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The parts of a script, by the instance id of their extract, spilled to a temporary file as they are added - so a
+ * scan of many thousands of artifacts only holds the offset and length of each part until the {@link DeployPlan} is
+ * ready for them to be written out in order. The file is deleted on {@link #close()}.
+ *
+ * Parts can be added and read from multiple threads.
+ */
+final class ScriptFragments implements Closeable
+{
+	private final Path file;
+	private final FileChannel channel;
+	private final Map<Integer, long[]> positions = new ConcurrentHashMap<>();
+	private long size;
+
+	ScriptFragments()
+	{
+		try
+		{
+			this.file = Files.createTempFile("script-fragments-", ".tmp");
+			this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Unable to create the temporary file for the script parts - got the exception : " + e, e);
+		}
+	}
+
+	void put(int instanceId, String fragment)
+	{
+		final ByteBuffer data = ByteBuffer.wrap(fragment.getBytes(StandardCharsets.UTF_8));
+		final long offset;
+		synchronized (this)
+		{
+			offset = size;
+			size += data.remaining();
+		}
+		try
+		{
+			long position = offset;
+			while (data.hasRemaining())
+			{
+				position += channel.write(data, position);
+			}
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Unable to write the script part to : " + file + " - got the exception : " + e, e);
+		}
+		positions.put(instanceId, new long[] { offset, data.capacity() });
+	}
+
+	boolean containsKey(int instanceId)
+	{
+		return positions.containsKey(instanceId);
+	}
+
+	/**
+	 * @return the part of the extract - or null if none was added for it.
+	 */
+	String get(int instanceId)
+	{
+		final long[] position = positions.get(instanceId);
+		if (position == null)
+		{
+			return null;
+		}
+		final ByteBuffer data = ByteBuffer.allocate((int) position[1]);
+		try
+		{
+			while (data.hasRemaining())
+			{
+				if (channel.read(data, position[0] + data.position()) == -1)
+				{
+					throw new IOException("Unexpected end of file");
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Unable to read the script part from : " + file + " - got the exception : " + e, e);
+		}
+		return new String(data.array(), StandardCharsets.UTF_8);
+	}
+
+	@Override public void close()
+	{
+		try
+		{
+			channel.close();
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Unable to close the script parts file : " + file + " - got the exception : " + e, e);
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package uk.co.devworx.maven.deploy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.ToLongFunction;
+
+/**
+ * Splits the extracts of a deploy plan into shards, so the deployment can be spread over several machines.
+ *
+ * Shard 0 holds every parent POM and has to finish before the others start. The jars/wars are spread over the
+ * remaining shards by size (jar plus sources jar), largest first, each going to the shard with the fewest bytes
+ * so far - so a few large wars do not all end up in the same shard. Within a shard, extracts keep their plan order.
+ *
+ * The jars/wars are assigned by size alone, not by wave, so a jar and a jar it depends on can land in different
+ * shards - and as the jar/war shards run independently of each other, the dependency order between them is not kept.
+ */
+final class ScriptSharder
+{
+	private ScriptSharder()
+	{
+	}
+
+	private static final class Shard
+	{
+		private final int index;
+		private final List<Integer> extracts = new ArrayList<>();
+		private long bytes;
+
+		private Shard(int index)
+		{
+			this.index = index;
+		}
+	}
+
+	/**
+	 * @param planOrder the extracts, in plan order.
+	 * @param shardCount the number of jar/war shards - there is always one more, for the parent POMs.
+	 * @return for each shard (the parent POM shard first), the positions in planOrder of its extracts.
+	 */
+	static List<List<Integer>> assign(List<PomFileExtract> planOrder, int shardCount)
+	{
+		return assign(planOrder, shardCount, ScriptSharder::sizeOf);
+	}
+
+	static List<List<Integer>> assign(List<PomFileExtract> planOrder, int shardCount, ToLongFunction<PomFileExtract> sizeOf)
+	{
+		final List<Integer> parentPoms = new ArrayList<>();
+		final List<Integer> artifacts = new ArrayList<>();
+		final long[] sizes = new long[planOrder.size()];
+		for (int i = 0; i < planOrder.size(); i++)
+		{
+			final PomFileExtract extract = planOrder.get(i);
+			if (extract.getPomFileExtractType() == PomFileExtractType.PARENT_POM)
+			{
+				parentPoms.add(i);
+			}
+			else
+			{
+				artifacts.add(i);
+				sizes[i] = sizeOf.applyAsLong(extract);
+			}
+		}
+
+		// Largest first; equal sizes keep plan order so the assignment is deterministic.
+		artifacts.sort(Comparator.<Integer>comparingLong(i -> sizes[i]).reversed().thenComparing(Comparator.naturalOrder()));
+
+		final PriorityQueue<Shard> lightestFirst = new PriorityQueue<>(Comparator.<Shard>comparingLong(s -> s.bytes).thenComparingInt(s -> s.index));
+		final List<Shard> shards = new ArrayList<>(shardCount);
+		for (int s = 0; s < shardCount; s++)
+		{
+			final Shard shard = new Shard(s);
+			shards.add(shard);
+			lightestFirst.add(shard);
+		}
+		for (int i : artifacts)
+		{
+			final Shard shard = lightestFirst.poll();
+			shard.extracts.add(i);
+			shard.bytes += sizes[i];
+			lightestFirst.add(shard);
+		}
+
+		final List<List<Integer>> result = new ArrayList<>(shardCount + 1);
+		result.add(parentPoms);
+		for (Shard shard : shards)
+		{
+			Collections.sort(shard.extracts);
+			result.add(shard.extracts);
+		}
+		return result;
+	}
+
+	static long sizeOf(PomFileExtract extract)
+	{
+		try
+		{
+			long size = Files.size(extract.getJarOrWarFile().get());
+			if (extract.getSourceJarFile().isPresent())
+			{
+				size += Files.size(extract.getSourceJarFile().get());
+			}
+			return size;
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Unable to read the size of : " + extract.getJarOrWarFile().get() + " - got the exception : " + e, e);
+		}
+	}
+}
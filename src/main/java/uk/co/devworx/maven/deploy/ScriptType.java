@@ -2,22 +2,60 @@ package uk.co.devworx.maven.deploy;
 
 /**
  * Whether the script generated is a local deploy or
- * a remote deploy.
+ * a remote deploy - or whether the artifacts are written
+ * straight into a repository layout, without any mvn invocations.
  */
 public enum ScriptType
 {
-	LocalRepoInstall("install:install-file"),
-	RemoteRepoDeploy("deploy:deploy-file");
+	LocalRepoInstall("install:install-file", false, false),
+	RemoteRepoDeploy("deploy:deploy-file", false, false),
+
+	/**
+	 * Writes the rewritten jar, pom, sources and checksums directly into a Maven 2 repository layout on disk -
+	 * the directory of a file: url if one is given, otherwise [output dir]/repository. The generated script
+	 * then only lists what was written.
+	 */
+	DirectRepositoryLayout("", true, false),
+
+	/**
+	 * Stages the artifacts in a repository layout under [output dir]/repository-staging, as
+	 * {@link #DirectRepositoryLayout} does, then uploads them to the (http/https) repository url in process - see
+	 * {@link RepositoryDeployer}. The generated script only lists what was uploaded.
+	 */
+	InProcessRemoteDeploy("", true, true);
 
 	private final String mvnTarget;
+	private final boolean directLayout;
+	private final boolean upload;
 
-	private ScriptType(String mvnTarget)
+	private ScriptType(String mvnTarget, boolean directLayout, boolean upload)
 	{
 		this.mvnTarget = mvnTarget;
+		this.directLayout = directLayout;
+		this.upload = upload;
 	}
 
+	/**
+	 * @return the mvn goal to run for each artifact - empty when {@link #isDirectLayout()}
+	 */
 	public String getMavenTarget()
 	{
 		return  mvnTarget;
 	}
+
+	/**
+	 * @return true if the artifacts are written straight into a repository layout, rather than through mvn.
+	 */
+	public boolean isDirectLayout()
+	{
+		return directLayout;
+	}
+
+	/**
+	 * @return true if the staged repository layout is then uploaded to the repository url.
+	 */
+	public boolean isUpload()
+	{
+		return upload;
+	}
 }
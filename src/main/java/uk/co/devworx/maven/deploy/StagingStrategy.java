@@ -0,0 +1,142 @@
+package uk.co.devworx.maven.deploy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+/**
+ * How files that need no rewriting - the sources jars - are staged in the output directory / repository layout.
+ *
+ * Where a link cannot be made (a different file system, or one without link support) the file is copied instead.
+ * A copy without checksums goes through {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * so the kernel can move the bytes without them passing through the JVM.
+ */
+public enum StagingStrategy
+{
+	/**
+	 * A full copy of the file - the default.
+	 */
+	COPY,
+
+	/**
+	 * A hard link to the original - no bytes are duplicated, and the staged file outlives the original.
+	 */
+	HARDLINK,
+
+	/**
+	 * A symbolic link to the (absolute path of the) original.
+	 */
+	SYMLINK,
+
+	/**
+	 * Nothing is staged - the generated script refers to the original where it is. No checksum files are written.
+	 * Files written into a repository layout have to be in it, so there this is the same as {@link #COPY}.
+	 */
+	REFERENCE;
+
+	private static final Logger logger = LogManager.getLogger(StagingStrategy.class);
+
+	/**
+	 * Stages the source as the target, along with the checksum files of the target.
+	 *
+	 * @param inRepositoryLayout true if the target is part of a repository layout, rather than referred to by a script.
+	 * @param coordinates the [groupId]:[artifactId]:[version] of the artifact the file belongs to, for the flight events.
+	 * @return the file to use from now on - the target, or the source itself for {@link #REFERENCE}.
+	 */
+	Path stage(Path source, Path target, Set<ChecksumAlgorithm> checksumAlgorithms, boolean inRepositoryLayout, String coordinates) throws IOException
+	{
+		final FlightEvent event = FlightEvents.begin(FlightEvent.Kind.STAGED_COPY);
+		String outcome = "failed";
+		try
+		{
+			outcome = stageAs(source, target, checksumAlgorithms, inRepositoryLayout);
+			return REFERENCED.equals(outcome) ? source : target;
+		}
+		finally
+		{
+			if (event.finish())
+			{
+				event.commit(source.toString(), coordinates, "failed".equals(outcome) ? 0 : FlightEvents.sizeOf(source), outcome);
+			}
+		}
+	}
+
+	private static final String REFERENCED = "referenced";
+
+	/**
+	 * @return how the source was staged - referenced, hardlinked, symlinked or copied.
+	 */
+	private String stageAs(Path source, Path target, Set<ChecksumAlgorithm> checksumAlgorithms, boolean inRepositoryLayout) throws IOException
+	{
+		if (this == REFERENCE && inRepositoryLayout == false)
+		{
+			return REFERENCED;
+		}
+
+		// The target may be a link left by an earlier run - writing through it would change the original.
+		Files.deleteIfExists(target);
+
+		if (this == HARDLINK || this == SYMLINK)
+		{
+			boolean linked = false;
+			try
+			{
+				if (this == HARDLINK)
+				{
+					Files.createLink(target, source);
+				}
+				else
+				{
+					Files.createSymbolicLink(target, source.toAbsolutePath());
+				}
+				linked = true;
+			}
+			catch (IOException | UnsupportedOperationException e)
+			{
+				logger.debug("Unable to " + name().toLowerCase() + " " + target + " to " + source + " - copying it instead. Got the message : " + e.getMessage());
+			}
+
+			if (linked)
+			{
+				// Outside the fallback - copying onto the link would truncate the original.
+				if (checksumAlgorithms.isEmpty() == false)
+				{
+					DigestingOutputStream.writeChecksumFiles(source, target, checksumAlgorithms);
+				}
+				return this == HARDLINK ? "hardlinked" : "symlinked";
+			}
+			// A failed link attempt may still have left something behind.
+			Files.deleteIfExists(target);
+		}
+
+		if (checksumAlgorithms.isEmpty())
+		{
+			transfer(source, target);
+		}
+		else
+		{
+			DigestingOutputStream.copy(source, target, checksumAlgorithms);
+		}
+		return "copied";
+	}
+
+	static void transfer(Path source, Path target) throws IOException
+	{
+		try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+			 FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))
+		{
+			final long size = in.size();
+			long position = 0;
+			while (position < size)
+			{
+				position += in.transferTo(position, size - position, out);
+			}
+		}
+	}
+}
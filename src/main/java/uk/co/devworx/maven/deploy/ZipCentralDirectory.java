@@ -0,0 +1,309 @@
+package uk.co.devworx.maven.deploy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A minimal reader for the central directory of a zip file. This gives access to the
+ * entries of a jar (and where their data sits in the file) without inflating anything or
+ * building a zip FileSystem. Only the end of central directory record and the central
+ * directory itself are read - the latter is memory mapped when it is large.
+ *
+ * Zip64 archives are detected but not read - see {@link #isZip64()}.
+ */
+final class ZipCentralDirectory
+{
+	static final int LOCAL_HEADER_SIG = 0x04034b50;
+	static final int CENTRAL_HEADER_SIG = 0x02014b50;
+	static final int END_OF_CENTRAL_DIR_SIG = 0x06054b50;
+
+	static final int LOCAL_HEADER_LEN = 30;
+	static final int CENTRAL_HEADER_LEN = 46;
+	static final int END_OF_CENTRAL_DIR_LEN = 22;
+
+	static final int FLAG_DATA_DESCRIPTOR = 0x08;
+	static final int FLAG_UTF8 = 0x800;
+
+	private static final int MAX_COMMENT_LEN = 0xFFFF;
+	private static final int MIN_MAPPED_REGION = 64 * 1024;
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+	/**
+	 * A single entry as recorded in the central directory.
+	 */
+	static final class Entry
+	{
+		final int versionMadeBy;
+		final int versionNeeded;
+		final int flags;
+		final int method;
+		final int dosTime;
+		final long crc;
+		final long compressedSize;
+		final long size;
+		final byte[] nameBytes;
+		final byte[] extra;
+		final byte[] comment;
+		final int internalAttributes;
+		final long externalAttributes;
+		final long localHeaderOffset;
+		final String name;
+
+		private Entry(ByteBuffer buf) throws ZipException
+		{
+			if (buf.getInt() != CENTRAL_HEADER_SIG)
+			{
+				throw new ZipException("Invalid central directory header signature at position " + (buf.position() - 4));
+			}
+			versionMadeBy = Short.toUnsignedInt(buf.getShort());
+			versionNeeded = Short.toUnsignedInt(buf.getShort());
+			flags = Short.toUnsignedInt(buf.getShort());
+			method = Short.toUnsignedInt(buf.getShort());
+			dosTime = buf.getInt();
+			crc = Integer.toUnsignedLong(buf.getInt());
+			compressedSize = Integer.toUnsignedLong(buf.getInt());
+			size = Integer.toUnsignedLong(buf.getInt());
+			final int nameLen = Short.toUnsignedInt(buf.getShort());
+			final int extraLen = Short.toUnsignedInt(buf.getShort());
+			final int commentLen = Short.toUnsignedInt(buf.getShort());
+			buf.getShort(); // disk number start
+			internalAttributes = Short.toUnsignedInt(buf.getShort());
+			externalAttributes = Integer.toUnsignedLong(buf.getInt());
+			localHeaderOffset = Integer.toUnsignedLong(buf.getInt());
+
+			nameBytes = new byte[nameLen];
+			buf.get(nameBytes);
+			extra = new byte[extraLen];
+			buf.get(extra);
+			comment = new byte[commentLen];
+			buf.get(comment);
+
+			name = new String(nameBytes, (flags & FLAG_UTF8) != 0 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+		}
+
+		boolean isZip64()
+		{
+			return compressedSize == ZIP64_MAGIC || size == ZIP64_MAGIC || localHeaderOffset == ZIP64_MAGIC;
+		}
+
+		@Override public String toString()
+		{
+			return "Entry{" + "name='" + name + '\'' + ", method=" + method + ", compressedSize=" + compressedSize + ", size=" + size + '}';
+		}
+	}
+
+	private final List<Entry> entries;
+	private final long centralDirectoryOffset;
+	private final byte[] archiveComment;
+	private final boolean zip64;
+
+	private ZipCentralDirectory(List<Entry> entries, long centralDirectoryOffset, byte[] archiveComment, boolean zip64)
+	{
+		this.entries = Collections.unmodifiableList(entries);
+		this.centralDirectoryOffset = centralDirectoryOffset;
+		this.archiveComment = archiveComment;
+		this.zip64 = zip64;
+	}
+
+	/**
+	 * Reads the end of central directory record and the central directory of the zip file.
+	 */
+	static ZipCentralDirectory read(FileChannel channel) throws IOException
+	{
+		final long fileSize = channel.size();
+		if (fileSize < END_OF_CENTRAL_DIR_LEN)
+		{
+			throw new ZipException("The file is too small to be a zip file - size : " + fileSize);
+		}
+
+		final int tailLen = (int) Math.min(fileSize, END_OF_CENTRAL_DIR_LEN + MAX_COMMENT_LEN);
+		final ByteBuffer tail = readRegion(channel, fileSize - tailLen, tailLen);
+
+		int eocdPos = -1;
+		for (int i = tailLen - END_OF_CENTRAL_DIR_LEN; i >= 0; i--)
+		{
+			if (tail.getInt(i) == END_OF_CENTRAL_DIR_SIG)
+			{
+				eocdPos = i;
+				break;
+			}
+		}
+		if (eocdPos == -1)
+		{
+			throw new ZipException("Could not find the end of central directory record - this is not a zip file.");
+		}
+
+		tail.position(eocdPos + 8);
+		final int totalEntriesThisDisk = Short.toUnsignedInt(tail.getShort());
+		final int totalEntries = Short.toUnsignedInt(tail.getShort());
+		final long cdSize = Integer.toUnsignedLong(tail.getInt());
+		final long cdOffset = Integer.toUnsignedLong(tail.getInt());
+		final int commentLen = Short.toUnsignedInt(tail.getShort());
+		final byte[] comment = new byte[Math.min(commentLen, tail.remaining())];
+		tail.get(comment);
+
+		if (totalEntries == 0xFFFF || totalEntriesThisDisk == 0xFFFF || cdSize == ZIP64_MAGIC || cdOffset == ZIP64_MAGIC)
+		{
+			return new ZipCentralDirectory(new ArrayList<>(), cdOffset, comment, true);
+		}
+		if (totalEntries != totalEntriesThisDisk)
+		{
+			throw new ZipException("Multi-disk zip files are not supported.");
+		}
+		if (cdOffset + cdSize > fileSize)
+		{
+			throw new ZipException("The central directory lies outside of the file - offset : " + cdOffset + ", size : " + cdSize);
+		}
+
+		final ByteBuffer cd = readRegion(channel, cdOffset, cdSize);
+		final List<Entry> entries = new ArrayList<>(totalEntries);
+		boolean zip64 = false;
+		for (int i = 0; i < totalEntries; i++)
+		{
+			Entry entry = new Entry(cd);
+			zip64 |= entry.isZip64();
+			entries.add(entry);
+		}
+
+		return new ZipCentralDirectory(entries, cdOffset, comment, zip64);
+	}
+
+	/**
+	 * @return the position in the file where the (possibly compressed) data of the entry begins.
+	 */
+	static long dataOffset(FileChannel channel, Entry entry) throws IOException
+	{
+		final ByteBuffer header = readFully(channel, entry.localHeaderOffset, LOCAL_HEADER_LEN);
+		if (header.getInt(0) != LOCAL_HEADER_SIG)
+		{
+			throw new ZipException("Invalid local header signature for entry : " + entry.name);
+		}
+		final int nameLen = Short.toUnsignedInt(header.getShort(26));
+		final int extraLen = Short.toUnsignedInt(header.getShort(28));
+		return entry.localHeaderOffset + LOCAL_HEADER_LEN + nameLen + extraLen;
+	}
+
+	/**
+	 * @return the extra field as written in the local header of the entry (which may differ from the central one).
+	 */
+	static byte[] localExtra(FileChannel channel, Entry entry) throws IOException
+	{
+		final ByteBuffer header = readFully(channel, entry.localHeaderOffset, LOCAL_HEADER_LEN);
+		final int nameLen = Short.toUnsignedInt(header.getShort(26));
+		final int extraLen = Short.toUnsignedInt(header.getShort(28));
+		final byte[] extra = new byte[extraLen];
+		readFully(channel, entry.localHeaderOffset + LOCAL_HEADER_LEN + nameLen, extraLen).get(extra);
+		return extra;
+	}
+
+	/**
+	 * Reads (and inflates if needed) the uncompressed content of a single entry.
+	 */
+	static byte[] readEntryData(FileChannel channel, Entry entry) throws IOException
+	{
+		if (entry.size > Integer.MAX_VALUE - 8 || entry.compressedSize > Integer.MAX_VALUE - 8)
+		{
+			throw new ZipException("The entry is too large to be read into memory : " + entry);
+		}
+
+		final ByteBuffer compressed = readFully(channel, dataOffset(channel, entry), (int) entry.compressedSize);
+		if (entry.method == ZipEntry.STORED)
+		{
+			return compressed.array();
+		}
+		if (entry.method != ZipEntry.DEFLATED)
+		{
+			throw new ZipException("Unsupported compression method " + entry.method + " for the entry : " + entry.name);
+		}
+
+		final Inflater inflater = new Inflater(true);
+		try
+		{
+			inflater.setInput(compressed.array(), 0, compressed.limit());
+			final byte[] data = new byte[(int) entry.size];
+			int off = 0;
+			while (off < data.length)
+			{
+				int len = inflater.inflate(data, off, data.length - off);
+				if (len == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+				{
+					break;
+				}
+				off += len;
+			}
+			if (off != data.length)
+			{
+				throw new ZipException("The entry " + entry.name + " inflated to " + off + " bytes but " + data.length + " were expected.");
+			}
+			return data;
+		}
+		catch (DataFormatException e)
+		{
+			throw new ZipException("Unable to inflate the entry : " + entry.name + " - got the exception : " + e);
+		}
+		finally
+		{
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Large regions (i.e. the central directory of a big war) are memory mapped rather than copied onto the heap.
+	 */
+	private static ByteBuffer readRegion(FileChannel channel, long position, long length) throws IOException
+	{
+		if (length < MIN_MAPPED_REGION)
+		{
+			return readFully(channel, position, (int) length);
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, length).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException
+	{
+		final ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buf.hasRemaining())
+		{
+			if (channel.read(buf, position + buf.position()) < 0)
+			{
+				throw new EOFException("Unexpected end of zip file at position " + (position + buf.position()));
+			}
+		}
+		buf.flip();
+		return buf;
+	}
+
+	List<Entry> getEntries()
+	{
+		return entries;
+	}
+
+	long getCentralDirectoryOffset()
+	{
+		return centralDirectoryOffset;
+	}
+
+	byte[] getArchiveComment()
+	{
+		return archiveComment;
+	}
+
+	/**
+	 * @return true if the archive uses Zip64 records, in which case the entries have not been read.
+	 */
+	boolean isZip64()
+	{
+		return zip64;
+	}
+}
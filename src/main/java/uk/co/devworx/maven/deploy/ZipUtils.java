@@ -6,6 +6,7 @@ import org.apache.logging.log4j.Logger;
 import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
@@ -50,6 +51,98 @@ class ZipUtils
     }
 
 	public static Optional<byte[]> getPomFileDataFromJar(Path jarFile) throws IOException, URISyntaxException
+	{
+		Optional<EmbeddedPomData> embeddedOpt = getEmbeddedPomData(jarFile);
+		if (embeddedOpt.isPresent())
+		{
+			return Optional.of(embeddedOpt.get().getPomFileData());
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * Finds the META-INF/maven/[groupId]/[artifactId]/pom.xml (and pom.properties) of the jar by looking only at
+	 * the central directory - just those two entries are inflated. If the jar holds more than one embedded pom
+	 * (i.e. a shaded jar), the one whose artifactId matches the jar file name is preferred.
+	 *
+	 * Zip64 archives fall back to walking a zip FileSystem, in which case no pom.properties is returned.
+	 */
+	public static Optional<EmbeddedPomData> getEmbeddedPomData(Path jarFile) throws IOException, URISyntaxException
+	{
+		final RunMetrics metrics = RunMetrics.current();
+		final long start = metrics.start();
+		final Optional<EmbeddedPomData> embedded = readEmbeddedPomData(jarFile);
+		metrics.record(RunMetrics.Phase.ZIP_READ, RunMetrics.typeOf(jarFile), start, embedded.isPresent() ? embedded.get().getPomFileData().length : 0);
+		return embedded;
+	}
+
+	private static Optional<EmbeddedPomData> readEmbeddedPomData(Path jarFile) throws IOException, URISyntaxException
+	{
+		try (FileChannel channel = FileChannel.open(jarFile, StandardOpenOption.READ))
+		{
+			final ZipCentralDirectory centralDirectory = ZipCentralDirectory.read(channel);
+			if (centralDirectory.isZip64() == false)
+			{
+				final String jarFileName = jarFile.getFileName().toString();
+				ZipCentralDirectory.Entry pomEntry = null;
+				for (ZipCentralDirectory.Entry entry : centralDirectory.getEntries())
+				{
+					if (isEmbeddedPomEntry(entry.name) == false) continue;
+					if (pomEntry == null || jarFileName.startsWith(artifactIdOf(entry.name) + "-"))
+					{
+						pomEntry = entry;
+					}
+				}
+
+				if (pomEntry == null)
+				{
+					return Optional.empty();
+				}
+
+				final String entryDirectory = pomEntry.name.substring(0, pomEntry.name.length() - POM_XML.length());
+				final byte[] pomFileData = ZipCentralDirectory.readEntryData(channel, pomEntry);
+
+				Optional<Properties> pomProperties = Optional.empty();
+				for (ZipCentralDirectory.Entry entry : centralDirectory.getEntries())
+				{
+					if (entry.name.equals(entryDirectory + POM_PROPERTIES))
+					{
+						Properties props = new Properties();
+						props.load(new ByteArrayInputStream(ZipCentralDirectory.readEntryData(channel, entry)));
+						pomProperties = Optional.of(props);
+						break;
+					}
+				}
+
+				return Optional.of(new EmbeddedPomData(entryDirectory, pomFileData, pomProperties));
+			}
+		}
+
+		logger.info("Zip64 archive - falling back to a zip file system for : " + jarFile);
+		return getEmbeddedPomDataFromFileSystem(jarFile);
+	}
+
+	private static final String POM_XML = "pom.xml";
+	private static final String POM_PROPERTIES = "pom.properties";
+
+	/**
+	 * @return true if the name is of the form META-INF/maven/[groupId]/[artifactId]/pom.xml
+	 */
+	static boolean isEmbeddedPomEntry(String entryName)
+	{
+		if (entryName.startsWith(MAVEN_DIR) == false || entryName.endsWith("/" + POM_XML) == false) return false;
+		final int groupEnd = entryName.indexOf('/', MAVEN_DIR.length());
+		final int artifactEnd = entryName.length() - POM_XML.length() - 1;
+		return groupEnd > MAVEN_DIR.length() && groupEnd < artifactEnd && entryName.indexOf('/', groupEnd + 1) == artifactEnd;
+	}
+
+	private static String artifactIdOf(String embeddedPomEntry)
+	{
+		final int artifactEnd = embeddedPomEntry.length() - POM_XML.length() - 1;
+		return embeddedPomEntry.substring(embeddedPomEntry.lastIndexOf('/', artifactEnd - 1) + 1, artifactEnd);
+	}
+
+	private static Optional<EmbeddedPomData> getEmbeddedPomDataFromFileSystem(Path jarFile) throws IOException, URISyntaxException
 	{
 		Map<String, String> zip_properties = new HashMap<>();
 		zip_properties.put("create", "false");
@@ -65,7 +158,7 @@ class ZipUtils
 			if(mavenPomOpt.isPresent() == false) return Optional.empty();
 
 			Path mavenPom = mavenPomOpt.get();
-			return Optional.of(Files.readAllBytes(mavenPom));
+			return Optional.of(new EmbeddedPomData(mavenPom.getParent().toString() + "/", Files.readAllBytes(mavenPom), Optional.empty()));
 		}
 	}
 
@@ -107,18 +200,214 @@ class ZipUtils
 			{
 				return;
 			}
-			String pomFileData = new String(Files.readAllBytes(pluginXmlFile));
-			Set<Map.Entry<String, String>> entries = groupIdReplacements.entrySet();
-			for (Map.Entry<String, String> e : entries)
+			byte[] pluginXmlData = new GroupIdRewriter(groupIdReplacements).rewrite(Files.readAllBytes(pluginXmlFile));
+
+			logger.info("Writing updated plugin.xml file : " + pluginXmlFile);
+			Files.write(pluginXmlFile, pluginXmlData);
+		}
+	}
+
+
+	/**
+	 * Writes a sanitised copy of the source jar to the target jar in a single pass. This does the same job as
+	 * copying the jar and then calling {@link #removeMavenSubDirFromJar(Path)} and
+	 * {@link #replacePluginXMLInJar(Path, Map)}, but reads the source once and writes the target once.
+	 *
+	 * Entries that are kept unchanged are copied raw from the source (compressed bytes, CRC and sizes) so
+	 * only the rewritten plugin.xml is compressed again. Zip64 archives fall back to a streaming copy that
+	 * re-compresses every entry.
+	 *
+	 * @param sourceJar the jar to read - this is never modified.
+	 * @param targetJar the jar to write - replaced if it already exists.
+	 * @param groupIdReplacements the group id replacements to apply to META-INF/maven/plugin.xml
+	 * @throws IOException
+	 */
+	public static void rewriteJar(Path sourceJar, Path targetJar, Map<String, String> groupIdReplacements) throws IOException
+	{
+		rewriteJar(sourceJar, targetJar, new GroupIdRewriter(groupIdReplacements));
+	}
+
+	/**
+	 * As per {@link #rewriteJar(Path, Path, Map)}, with the group id replacements already compiled.
+	 */
+	public static void rewriteJar(Path sourceJar, Path targetJar, GroupIdRewriter groupIdRewriter) throws IOException
+	{
+		logger.info("Rewriting : " + sourceJar + " to " + targetJar);
+		rewriteJar(sourceJar, Files.newOutputStream(targetJar), groupIdRewriter);
+	}
+
+	/**
+	 * As per {@link #rewriteJar(Path, Path, GroupIdRewriter)}, writing the sanitised jar to the stream - which is
+	 * buffered here, and closed once the jar has been written.
+	 */
+	public static void rewriteJar(Path sourceJar, OutputStream target, GroupIdRewriter groupIdRewriter) throws IOException
+	{
+		rewriteJar(sourceJar, target, groupIdRewriter, null);
+	}
+
+	/**
+	 * As per {@link #rewriteJar(Path, OutputStream, GroupIdRewriter)}.
+	 *
+	 * @param coordinates the [groupId]:[artifactId]:[version] of the jar, for the flight events - or null if not known.
+	 */
+	static void rewriteJar(Path sourceJar, OutputStream target, GroupIdRewriter groupIdRewriter, String coordinates) throws IOException
+	{
+		final RunMetrics metrics = RunMetrics.current();
+		final long bytes = metrics.isEnabled() ? Files.size(sourceJar) : 0;
+		final long start = metrics.start();
+		final FlightEvent event = FlightEvents.begin(FlightEvent.Kind.JAR_REWRITE);
+		boolean rewritten = false;
+		try
+		{
+			rewriteJarTo(sourceJar, target, groupIdRewriter);
+			rewritten = true;
+			metrics.record(RunMetrics.Phase.JAR_REWRITE, RunMetrics.typeOf(sourceJar), start, bytes);
+		}
+		finally
+		{
+			if (event.finish())
 			{
-				pomFileData = pomFileData.replace(">" + e.getKey() + "<", ">" + e.getValue() + "<");
+				event.commit(sourceJar.toString(), coordinates, rewritten ? FlightEvents.sizeOf(sourceJar) : 0, rewritten ? "rewritten" : "failed");
 			}
+		}
+	}
 
-			logger.info("Writing updated plugin.xml file : " + pluginXmlFile);
-			Files.write(pluginXmlFile, pomFileData.getBytes(StandardCharsets.UTF_8));
+	private static void rewriteJarTo(Path sourceJar, OutputStream target, GroupIdRewriter groupIdRewriter) throws IOException
+	{
+		final OutputStream bufferedTarget = new BufferedOutputStream(target, DEFAULT_BUFFER * 16);
+		try (FileChannel source = FileChannel.open(sourceJar, StandardOpenOption.READ))
+		{
+			final ZipCentralDirectory centralDirectory = ZipCentralDirectory.read(source);
+			if (centralDirectory.isZip64())
+			{
+				logger.info("Zip64 archive - falling back to a streaming rewrite for : " + sourceJar);
+			}
+			else
+			{
+				try (RawZipWriter writer = new RawZipWriter(bufferedTarget))
+				{
+					for (ZipCentralDirectory.Entry entry : centralDirectory.getEntries())
+					{
+						if (isMavenSubDirEntry(entry.name))
+						{
+							logger.debug("Dropping : " + entry.name);
+						}
+						else if (MAVEN_PLUGIN_XML.equals(entry.name))
+						{
+							writer.writeDeflated(entry, groupIdRewriter.rewrite(ZipCentralDirectory.readEntryData(source, entry)));
+						}
+						else
+						{
+							writer.copyRaw(source, entry);
+						}
+					}
+					writer.finish(centralDirectory.getArchiveComment());
+				}
+				return;
+			}
+		}
+		catch (IOException | RuntimeException e)
+		{
+			bufferedTarget.close();
+			throw e;
+		}
+
+		rewriteJarStreaming(sourceJar, bufferedTarget, groupIdRewriter);
+	}
+
+	/**
+	 * The ZipInputStream / ZipOutputStream version of {@link #rewriteJar(Path, Path, Map)} - every entry
+	 * is inflated and deflated again.
+	 */
+	static void rewriteJarStreaming(Path sourceJar, Path targetJar, GroupIdRewriter groupIdRewriter) throws IOException
+	{
+		rewriteJarStreaming(sourceJar, new BufferedOutputStream(Files.newOutputStream(targetJar), DEFAULT_BUFFER * 16), groupIdRewriter);
+	}
+
+	private static void rewriteJarStreaming(Path sourceJar, OutputStream target, GroupIdRewriter groupIdRewriter) throws IOException
+	{
+		final byte[] buffer = getNewBuffer();
+
+		try (OutputStream out = target;
+			 ZipInputStream zis = new ZipInputStream(new BufferedInputStream(Files.newInputStream(sourceJar), DEFAULT_BUFFER * 16));
+			 ZipOutputStream zos = new ZipOutputStream(out))
+		{
+			ZipEntry entry = zis.getNextEntry();
+			while (entry != null)
+			{
+				final String name = entry.getName();
+				if (isMavenSubDirEntry(name))
+				{
+					logger.debug("Dropping : " + name);
+				}
+				else if (MAVEN_PLUGIN_XML.equals(name))
+				{
+					byte[] pluginXmlData = groupIdRewriter.rewrite(readFully(zis, buffer));
+
+					ZipEntry replaced = new ZipEntry(name);
+					replaced.setTime(entry.getTime());
+					zos.putNextEntry(replaced);
+					zos.write(pluginXmlData);
+					zos.closeEntry();
+				}
+				else
+				{
+					zos.putNextEntry(copyOfEntry(entry));
+					int len;
+					while ((len = zis.read(buffer)) > 0)
+					{
+						zos.write(buffer, 0, len);
+					}
+					zos.closeEntry();
+				}
+
+				entry = zis.getNextEntry();
+			}
 		}
 	}
 
+	static final String MAVEN_DIR = "META-INF/maven/";
+	static final String MAVEN_PLUGIN_XML = MAVEN_DIR + "plugin.xml";
+
+	/**
+	 * @return true if the entry sits in a sub-directory of META-INF/maven (or is one) - these are the
+	 * entries removed by {@link #removeMavenSubDirFromJar(Path)}.
+	 */
+	static boolean isMavenSubDirEntry(String entryName)
+	{
+		return entryName.startsWith(MAVEN_DIR) && entryName.indexOf('/', MAVEN_DIR.length()) != -1;
+	}
+
+	/**
+	 * Copies the entry meta-data that is still valid once the entry is written out again. Stored entries
+	 * keep their size and CRC; deflated entries are re-compressed, so their compressed size is recalculated.
+	 */
+	private static ZipEntry copyOfEntry(ZipEntry entry)
+	{
+		ZipEntry copy = new ZipEntry(entry.getName());
+		copy.setTime(entry.getTime());
+		copy.setComment(entry.getComment());
+		copy.setExtra(entry.getExtra());
+		if (entry.getMethod() == ZipEntry.STORED)
+		{
+			copy.setMethod(ZipEntry.STORED);
+			copy.setSize(entry.getSize());
+			copy.setCompressedSize(entry.getSize());
+			copy.setCrc(entry.getCrc());
+		}
+		return copy;
+	}
+
+	private static byte[] readFully(InputStream ins, byte[] buffer) throws IOException
+	{
+		ByteArrayOutputStream bous = new ByteArrayOutputStream();
+		int len;
+		while ((len = ins.read(buffer)) > 0)
+		{
+			bous.write(buffer, 0, len);
+		}
+		return bous.toByteArray();
+	}
 
 	/**
 	 * Extracts the specifed zip stream to the target directoru.
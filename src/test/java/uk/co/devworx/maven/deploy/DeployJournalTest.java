@@ -0,0 +1,90 @@
+package uk.co.devworx.maven.deploy;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class DeployJournalTest
+{
+	private static final Path WAR_LOCATION = Paths.get("src/test/resources/mock/mock-wars/uk/co/devworx/o-browser/1.0-SNAPSHOT/o-browser-1.0-SNAPSHOT.war");
+
+	@Test
+	public void testRecordedEntriesSurviveReopenAndTornLinesAreIgnored() throws Exception
+	{
+		final Path file = Paths.get("target", "DeployJournalTest-" + UUID.randomUUID(), "deploy.journal");
+		final String entry = DeployJournal.entryOf(PomFileExtract.create(Optional.of(WAR_LOCATION), Optional.empty()));
+		Assertions.assertTrue(entry.startsWith("uk.co.devworx:o-browser:1.0-SNAPSHOT "));
+
+		try (DeployJournal journal = DeployJournal.open(file, 2, 60_000))
+		{
+			Assertions.assertFalse(journal.isDone(entry));
+			journal.record(entry);
+			Assertions.assertTrue(journal.isDone(entry));
+		}
+
+		//A crash part way through a record leaves a torn last line.
+		Files.write(file, "uk.co.devworx:other:1.0 0123".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		try (DeployJournal journal = DeployJournal.open(file))
+		{
+			Assertions.assertTrue(journal.isDone(entry));
+			Assertions.assertFalse(journal.isDone("uk.co.devworx:other:1.0 0123"));
+			journal.record("uk.co.devworx:other:1.0 " + String.join("", Collections.nCopies(40, "a")));
+		}
+
+		final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		Assertions.assertEquals(3, lines.size());
+		Assertions.assertEquals(entry, lines.get(0));
+		Assertions.assertEquals("uk.co.devworx:other:1.0 0123", lines.get(1));
+	}
+
+	@Test
+	public void testContentHashFollowsTheArchiveEntries() throws Exception
+	{
+		final PomFileExtract extract = PomFileExtract.create(Optional.of(WAR_LOCATION), Optional.empty());
+		Assertions.assertEquals(extract.getContentHash(), extract.getContentHash());
+
+		final Path dir = Files.createDirectories(Paths.get("target", "DeployJournalTest-" + UUID.randomUUID(), "uk/co/devworx/o-browser/1.0-SNAPSHOT"));
+		final Path copy = Files.copy(WAR_LOCATION, dir.resolve("o-browser-1.0-SNAPSHOT.war"));
+		Assertions.assertEquals(extract.getContentHash(), PomFileExtract.create(Optional.of(copy), Optional.empty()).getContentHash());
+
+		//Adding an entry changes the central directory, and so the hash.
+		final Path changed = dir.resolve("changed.war");
+		try (ZipFile in = new ZipFile(WAR_LOCATION.toFile()); ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(changed)))
+		{
+			for (ZipEntry entry : Collections.list(in.entries()))
+			{
+				out.putNextEntry(new ZipEntry(entry.getName()));
+				try (InputStream ins = in.getInputStream(entry))
+				{
+					final byte[] buffer = new byte[8192];
+					int read;
+					while ((read = ins.read(buffer)) != -1)
+					{
+						out.write(buffer, 0, read);
+					}
+				}
+				out.closeEntry();
+			}
+			out.putNextEntry(new ZipEntry("extra.txt"));
+			out.write(1);
+			out.closeEntry();
+		}
+		Files.move(changed, copy, StandardCopyOption.REPLACE_EXISTING);
+		Assertions.assertNotEquals(extract.getContentHash(), PomFileExtract.create(Optional.of(copy), Optional.empty()).getContentHash());
+	}
+}
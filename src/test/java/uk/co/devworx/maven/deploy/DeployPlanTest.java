@@ -0,0 +1,85 @@
+package uk.co.devworx.maven.deploy;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+public class DeployPlanTest
+{
+	private final Path repoRoot = Paths.get("target", "DeployPlanTest-" + UUID.randomUUID());
+
+	private PomFileExtract pom(String artifactId, String body) throws Exception
+	{
+		final Path dir = repoRoot.resolve("org/corp").resolve(artifactId).resolve("1.0");
+		Files.createDirectories(dir);
+		final Path pom = dir.resolve(artifactId + "-1.0.pom");
+		Files.write(pom, ("<project><groupId>org.corp</groupId><artifactId>" + artifactId + "</artifactId><version>1.0</version>" +
+						  "<packaging>pom</packaging>" + body + "</project>").getBytes(StandardCharsets.UTF_8));
+		return PomFileExtract.create(Optional.empty(), Optional.of(pom));
+	}
+
+	private static List<String> artifactIds(List<PomFileExtract> wave)
+	{
+		final List<String> ids = new ArrayList<>();
+		for (PomFileExtract e : wave) ids.add(e.getArtefactId());
+		return ids;
+	}
+
+	@Test
+	public void testWavesFollowParentsAndDependencies() throws Exception
+	{
+		final PomFileExtract app = pom("app", "<dependencies><dependency><groupId>${project.groupId}</groupId><artifactId>lib</artifactId><version>${project.version}</version></dependency>" +
+											  "<dependency><groupId>org.external</groupId><artifactId>x</artifactId><version>1</version></dependency></dependencies>");
+		final PomFileExtract lib = pom("lib", "<parent><groupId>org.corp</groupId><artifactId>parent</artifactId><version>1.0</version></parent>");
+		final PomFileExtract other = pom("other", "<dependencyManagement><dependencies><dependency><groupId>org.corp</groupId><artifactId>app</artifactId></dependency></dependencies></dependencyManagement>");
+		final PomFileExtract parent = pom("parent", "");
+
+		final DeployPlan plan = DeployPlan.build(Arrays.asList(app, lib, other, parent));
+		Assertions.assertEquals(4, plan.size());
+		Assertions.assertEquals(3, plan.getWaves().size());
+		Assertions.assertEquals(Arrays.asList("other", "parent"), artifactIds(plan.getWaves().get(0)));
+		Assertions.assertEquals(Arrays.asList("lib"), artifactIds(plan.getWaves().get(1)));
+		Assertions.assertEquals(Arrays.asList("app"), artifactIds(plan.getWaves().get(2)));
+	}
+
+	@Test
+	public void testThePlanIsBuiltWithoutReadingThePomsAgain() throws Exception
+	{
+		final PomFileExtract app = pom("app", "<properties><lib.version>1.0</lib.version></properties>" +
+											  "<dependencies><dependency><groupId>org.corp</groupId><artifactId>lib</artifactId><version>${lib.version}</version></dependency></dependencies>");
+		final PomFileExtract lib = pom("lib", "");
+		for (PomFileExtract extract : Arrays.asList(app, lib))
+		{
+			extract.releasePomFileData();
+			Files.delete(extract.getSourceFile());
+		}
+
+		final DeployPlan plan = DeployPlan.build(Arrays.asList(app, lib));
+		Assertions.assertEquals(2, plan.getWaves().size());
+		Assertions.assertEquals(Arrays.asList("lib"), artifactIds(plan.getWaves().get(0)));
+		Assertions.assertEquals(Arrays.asList("app"), artifactIds(plan.getWaves().get(1)));
+	}
+
+	@Test
+	public void testCyclesEndUpInTheLastWave() throws Exception
+	{
+		final PomFileExtract a = pom("a", "<dependencies><dependency><groupId>org.corp</groupId><artifactId>b</artifactId></dependency></dependencies>");
+		final PomFileExtract b = pom("b", "<dependencies><dependency><groupId>org.corp</groupId><artifactId>a</artifactId></dependency></dependencies>");
+		final PomFileExtract c = pom("c", "");
+
+		final DeployPlan plan = DeployPlan.build(Arrays.asList(a, b, c));
+		Assertions.assertEquals(2, plan.getWaves().size());
+		Assertions.assertEquals(Arrays.asList("c"), artifactIds(plan.getWaves().get(0)));
+		Assertions.assertEquals(Arrays.asList("a", "b"), artifactIds(plan.getWaves().get(1)));
+	}
+
+}
@@ -0,0 +1,129 @@
+package uk.co.devworx.maven.deploy;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.UUID;
+
+public class DeployScriptDaemonTest
+{
+	private final Path jarRootScanDirectory = Paths.get("src/test/resources/mock");
+
+	@Test
+	public void testScanCacheFileNameIsTheDigestOfTheNormalisedRoot()
+	{
+		final String name = DeployScriptDaemon.scanCacheFileName(jarRootScanDirectory);
+		Assertions.assertTrue(name.matches("[0-9a-f]{64}\\.scan-cache"), name);
+		Assertions.assertEquals(name, DeployScriptDaemon.scanCacheFileName(jarRootScanDirectory.resolve("mock-jars/..").toAbsolutePath()));
+		Assertions.assertNotEquals(name, DeployScriptDaemon.scanCacheFileName(jarRootScanDirectory.resolve("mock-jars")));
+	}
+
+	@Test
+	public void testJobsRunConcurrentlyAndIsolated() throws Exception
+	{
+		final Path testDir = Paths.get("target", "DeployScriptDaemonTest-" + UUID.randomUUID()).toAbsolutePath();
+		try (DeployScriptDaemon daemon = new DeployScriptDaemon(0, 2, 2))
+		{
+			daemon.start();
+			final String jobs = "http://127.0.0.1:" + daemon.getPort() + "/jobs";
+
+			final Properties first = submit(jobs, "scanRoot=" + jarRootScanDirectory.toAbsolutePath() + "\n" +
+												  "outputDir=" + testDir.resolve("first") + "\n" +
+												  "groupIdFilters=uk.co.devworx\n" +
+												  "groupIdReplacements=uk.co.devworx=first.replaced\n");
+			final Properties second = submit(jobs, "scanRoot=" + jarRootScanDirectory.toAbsolutePath() + "\n" +
+												   "outputDir=" + testDir.resolve("second") + "\n" +
+												   "osTarget=Windows\n" +
+												   "groupIdFilters=uk.co.devworx\n" +
+												   "groupIdReplacements=uk.co.devworx=second.replaced\n");
+			Assertions.assertEquals("1", first.getProperty("id"));
+			Assertions.assertEquals("2", second.getProperty("id"));
+
+			Assertions.assertEquals("SUCCEEDED", await(jobs + "/1").getProperty("status"));
+			Assertions.assertEquals("SUCCEEDED", await(jobs + "/2").getProperty("status"));
+
+			Assertions.assertTrue(Files.exists(testDir.resolve("first").resolve("000-execute-maven-script.sh")));
+			Assertions.assertTrue(Files.exists(testDir.resolve("second").resolve("000-execute-maven-script.bat")));
+			//Each job numbers its own extracts, with its own replacements.
+			Assertions.assertTrue(stagedPom(testDir.resolve("first")).contains("first.replaced"));
+			Assertions.assertTrue(stagedPom(testDir.resolve("second")).contains("second.replaced"));
+			Assertions.assertFalse(stagedPom(testDir.resolve("second")).contains("first.replaced"));
+
+			final HttpURLConnection bad = post(jobs, "outputDir=" + testDir.resolve("bad") + "\n");
+			Assertions.assertEquals(400, bad.getResponseCode());
+			Assertions.assertEquals(404, ((HttpURLConnection) new URL(jobs + "/99").openConnection()).getResponseCode());
+			Assertions.assertEquals(404, ((HttpURLConnection) new URL(jobs + "-unknown").openConnection()).getResponseCode());
+			final HttpURLConnection delete = (HttpURLConnection) new URL(jobs + "/1").openConnection();
+			delete.setRequestMethod("DELETE");
+			Assertions.assertEquals(405, delete.getResponseCode());
+			Assertions.assertEquals("GET", delete.getHeaderField("Allow"));
+		}
+	}
+
+	private static String stagedPom(Path outputDir) throws IOException
+	{
+		return new String(Files.readAllBytes(outputDir.resolve("001-impala-query-parser-1.0-SNAPSHOT.jar.pom.xml")), StandardCharsets.UTF_8);
+	}
+
+	private static Properties submit(String jobs, String job) throws IOException
+	{
+		final HttpURLConnection conn = post(jobs, job);
+		Assertions.assertEquals(202, conn.getResponseCode());
+		return read(conn.getInputStream());
+	}
+
+	private static HttpURLConnection post(String jobs, String job) throws IOException
+	{
+		final HttpURLConnection conn = (HttpURLConnection) new URL(jobs).openConnection();
+		conn.setRequestMethod("POST");
+		conn.setDoOutput(true);
+		try (OutputStream out = conn.getOutputStream())
+		{
+			out.write(job.getBytes(StandardCharsets.UTF_8));
+		}
+		return conn;
+	}
+
+	private static Properties await(String job) throws Exception
+	{
+		final long deadline = System.currentTimeMillis() + 30_000;
+		while (true)
+		{
+			final Properties status = read(new URL(job).openStream());
+			final String s = status.getProperty("status");
+			if (s.equals("SUCCEEDED") || s.equals("FAILED") || System.currentTimeMillis() > deadline)
+			{
+				return status;
+			}
+			Thread.sleep(50);
+		}
+	}
+
+	private static Properties read(InputStream in) throws IOException
+	{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (InputStream ins = in)
+		{
+			final byte[] buffer = new byte[4096];
+			for (int n; (n = ins.read(buffer)) != -1; )
+			{
+				bytes.write(buffer, 0, n);
+			}
+		}
+		final Properties properties = new Properties();
+		properties.load(new StringReader(new String(bytes.toByteArray(), StandardCharsets.UTF_8)));
+		return properties;
+	}
+}
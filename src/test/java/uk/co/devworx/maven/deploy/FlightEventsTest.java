@@ -0,0 +1,79 @@
+package uk.co.devworx.maven.deploy;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+public class FlightEventsTest
+{
+	private static final String PREFIX = "uk.co.devworx.maven.deploy.";
+
+	@Test
+	public void testEventsAreRecorded() throws Exception
+	{
+		final Path jarRootScanDirectory = Paths.get("src/test/resources/mock");
+		final GenerateMavenDeployScripts gen = new GenerateMavenDeployScripts(jarRootScanDirectory,
+																			  OSTarget.Unix,
+																			  ScriptType.LocalRepoInstall,
+																			  Collections.singletonMap("uk.co.devworx", "group-id-replaced"),
+																			  Collections.emptySet(),
+																			  Collections.singleton("uk.co.devworx"));
+		final Path outputPath = Paths.get("target", "FlightEventsTest-" + UUID.randomUUID());
+		final Path recordingFile = Paths.get("target", "FlightEventsTest-" + UUID.randomUUID() + ".jfr");
+
+		try (Recording recording = new Recording())
+		{
+			for (String name : new String[] { "ArtifactDiscovery", "PomParse", "JarRewrite", "StagedCopy" })
+			{
+				recording.enable(PREFIX + name);
+			}
+			recording.start();
+			gen.generateScript(outputPath, outputPath.resolve("settings.xml"), "https://my.repo/example/maven2", "MyRepositoryId");
+			recording.stop();
+			recording.dump(recordingFile);
+		}
+
+		final Map<String, Integer> counts = new HashMap<>();
+		boolean sawIncludedJar = false;
+		final List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile);
+		for (RecordedEvent event : events)
+		{
+			final String name = event.getEventType().getName();
+			if (name.startsWith(PREFIX) == false) continue;
+			counts.merge(name.substring(PREFIX.length()), 1, Integer::sum);
+			//Every event can be tied back to its artifact.
+			if (name.equals(PREFIX + "JarRewrite") || name.equals(PREFIX + "StagedCopy"))
+			{
+				Assertions.assertTrue(event.getString("coordinates").startsWith("uk.co.devworx:"), event.toString());
+			}
+			if (name.equals(PREFIX + "PomParse"))
+			{
+				Assertions.assertNotNull(event.getString("path"), event.toString());
+			}
+			if (name.equals(PREFIX + "ArtifactDiscovery") && "uk.co.devworx:impala-query-parser:1.0-SNAPSHOT".equals(event.getString("coordinates")))
+			{
+				Assertions.assertEquals("included", event.getString("outcome"));
+				Assertions.assertTrue(event.getLong("bytes") > 0);
+				Assertions.assertTrue(event.getString("path").endsWith("impala-query-parser-1.0-SNAPSHOT.jar"));
+				sawIncludedJar = true;
+			}
+		}
+
+		Assertions.assertTrue(sawIncludedJar);
+		Assertions.assertTrue(counts.getOrDefault("PomParse", 0) > 0);
+		//The jar and the war.
+		Assertions.assertEquals(2, counts.getOrDefault("JarRewrite", 0));
+		//The sources jar of impala-query-parser.
+		Assertions.assertEquals(1, counts.getOrDefault("StagedCopy", 0));
+	}
+}
@@ -3,12 +3,15 @@ package uk.co.devworx.maven.deploy;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 public class GenerateMavenDeployScriptsTest
 {
@@ -52,14 +55,594 @@ public class GenerateMavenDeployScriptsTest
 	public void testPomExtractParsing() throws Exception
 	{
 		final List<PomFileExtract> extracts = gen.getPomFileExtracts();
-		Assertions.assertEquals(1, extracts.size());
+		Assertions.assertEquals(2, extracts.size());
 
 		Assertions.assertEquals("impala-query-parser", extracts.get(0).getArtefactId());
 		Assertions.assertEquals("1.0-SNAPSHOT", extracts.get(0).getVersionId());
 		Assertions.assertEquals("uk.co.devworx", extracts.get(0).getGroupId());
+
+		//The war inherits its groupId and version from its parent.
+		Assertions.assertEquals("o-browser", extracts.get(1).getArtefactId());
+		Assertions.assertEquals("1.0-SNAPSHOT", extracts.get(1).getVersionId());
+		Assertions.assertEquals("uk.co.devworx", extracts.get(1).getGroupId());
+	}
+
+	@Test
+	public void testParallelPomExtractParsing() throws Exception
+	{
+		final GenerateMavenDeployScripts parallelGen = new GenerateMavenDeployScripts(jarRootScanDirectory,
+																					  OSTarget.Windows,
+																					  ScriptType.LocalRepoInstall,
+																					  groupIdReplacements,
+																					  Collections.emptySet(),
+																					  Collections.emptySet());
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		try
+		{
+			final List<PomFileExtract> sequential = parallelGen.getPomFileExtracts();
+			parallelGen.setDiscoveryExecutor(pool);
+			final List<PomFileExtract> parallel = parallelGen.getPomFileExtracts();
+
+			Assertions.assertEquals(sequential.size(), parallel.size());
+			for (int i = 0; i < sequential.size(); i++)
+			{
+				Assertions.assertEquals(sequential.get(i).getJarOrWarFile(), parallel.get(i).getJarOrWarFile());
+				Assertions.assertEquals(sequential.get(i).getPomFile(), parallel.get(i).getPomFile());
+				Assertions.assertEquals(sequential.get(i).getArtefactId(), parallel.get(i).getArtefactId());
+			}
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testStreamingExtractsWithoutRetainedPomData() throws Exception
+	{
+		final GenerateMavenDeployScripts streamingGen = new GenerateMavenDeployScripts(jarRootScanDirectory,
+																					   OSTarget.Unix,
+																					   ScriptType.LocalRepoInstall,
+																					   groupIdReplacements,
+																					   Collections.emptySet(),
+																					   groupFilters);
+		streamingGen.setRetainPomFileData(false);
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		try
+		{
+			streamingGen.setDiscoveryExecutor(pool);
+			final List<PomFileExtract> streamed = new ArrayList<>();
+			streamingGen.forEachPomFileExtract(streamed::add);
+
+			Assertions.assertEquals(Arrays.asList("impala-query-parser", "o-browser"), Arrays.asList(streamed.get(0).getArtefactId(), streamed.get(1).getArtefactId()));
+			final byte[] first = streamed.get(0).getPomFileData();
+			final byte[] second = streamed.get(0).getPomFileData();
+			Assertions.assertArrayEquals(first, second);
+			Assertions.assertNotSame(first, second);
+
+			final Path outputPath = Paths.get("target", "GenerateMavenDeployScriptsTest-" + UUID.randomUUID());
+			streamingGen.generateScript(outputPath, outputPath.resolve("settings.xml"), "https://my.repo/example/maven2", "MyRepositoryId");
+			Assertions.assertTrue(new String(Files.readAllBytes(findStaged(outputPath, "-impala-query-parser-1.0-SNAPSHOT.jar.pom.xml")), "UTF-8").contains("<groupId>group-id-replaced</groupId>"));
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testPipelinedGenerationMatchesSequential() throws Exception
+	{
+		final GenerateMavenDeployScripts sequentialGen = new GenerateMavenDeployScripts(jarRootScanDirectory,
+																						OSTarget.Unix,
+																						ScriptType.LocalRepoInstall,
+																						groupIdReplacements,
+																						Collections.emptySet(),
+																						groupFilters);
+		final Path sequentialOutput = Paths.get("target", "GenerateMavenDeployScriptsTest-" + UUID.randomUUID());
+		sequentialGen.generateScript(sequentialOutput, sequentialOutput.resolve("settings.xml"), "https://my.repo/example/maven2", "MyRepositoryId");
+
+		final GenerateMavenDeployScripts pipelinedGen = new GenerateMavenDeployScripts(jarRootScanDirectory,
+																					   OSTarget.Unix,
+																					   ScriptType.LocalRepoInstall,
+																					   groupIdReplacements,
+																					   Collections.emptySet(),
+																					   groupFilters);
+		final ForkJoinPool discoveryPool = new ForkJoinPool(2);
+		final ForkJoinPool stagingPool = new ForkJoinPool(2);
+		try
+		{
+			pipelinedGen.setDiscoveryExecutor(discoveryPool);
+			pipelinedGen.setStagingExecutor(stagingPool);
+			pipelinedGen.setPipelineCapacity(1);
+			final Path pipelinedOutput = Paths.get("target", "GenerateMavenDeployScriptsTest-" + UUID.randomUUID());
+			pipelinedGen.generateScript(pipelinedOutput, pipelinedOutput.resolve("settings.xml"), "https://my.repo/example/maven2", "MyRepositoryId");
+
+			final String sequential = new String(Files.readAllBytes(sequentialOutput.resolve("000-execute-maven-script.sh")), "UTF-8");
+			final String pipelined = new String(Files.readAllBytes(pipelinedOutput.resolve("000-execute-maven-script.sh")), "UTF-8");
+			Assertions.assertEquals(sequential.replace(sequentialOutput.toAbsolutePath().toString(), "OUT"), pipelined.replace(pipelinedOutput.toAbsolutePath().toString(), "OUT"));
+		}
+		finally
+		{
+			discoveryPool.shutdown();
+			stagingPool.shutdown();
+		}
+	}
+
+	@Test
+	public void testDirectRepositoryLayout() throws Exception
+	{
+		final GenerateMavenDeployScripts layoutGen = new GenerateMavenDeployScripts(jarRootScanDirectory,
+																					OSTarget.Unix,
+																					ScriptType.DirectRepositoryLayout,
+																					groupIdReplacements,
+																					Collections.emptySet(),
+																					groupFilters);
+
+		final Path outputPath = Paths.get("target", "GenerateMavenDeployScriptsTest-" + UUID.randomUUID());
+		final Path repository = outputPath.resolve("remote-repo");
+		layoutGen.generateScript(outputPath, outputPath.resolve("settings.xml"), repository.toUri().toString(), "MyRepositoryId");
+
+		final Path versionDir = repository.resolve("group-id-replaced/impala-query-parser/1.0-SNAPSHOT");
+		final Path jar = versionDir.resolve("impala-query-parser-1.0-SNAPSHOT.jar");
+		final Path pom = versionDir.resolve("impala-query-parser-1.0-SNAPSHOT.pom");
+		Assertions.assertTrue(Files.exists(jar));
+		Assertions.assertTrue(Files.exists(versionDir.resolve("impala-query-parser-1.0-SNAPSHOT-sources.jar")));
+		Assertions.assertTrue(new String(Files.readAllBytes(pom), "UTF-8").contains("<groupId>group-id-replaced</groupId>"));
+		Assertions.assertEquals(DigestingOutputStream.hex(PomFileUtils.digest(Files.readAllBytes(jar))),
+								new String(Files.readAllBytes(versionDir.resolve("impala-query-parser-1.0-SNAPSHOT.jar.sha1")), "US-ASCII"));
+		Assertions.assertTrue(Files.exists(pom.resolveSibling(pom.getFileName() + ".md5")));
+
+		final String metadata = new String(Files.readAllBytes(versionDir.getParent().resolve(RepositoryLayoutWriter.REMOTE_METADATA_FILE)), "UTF-8");
+		Assertions.assertTrue(metadata.contains("<version>1.0-SNAPSHOT</version>"));
+		Assertions.assertTrue(Files.exists(repository.resolve("group-id-replaced/o-browser/1.0-SNAPSHOT/o-browser-1.0-SNAPSHOT.war")));
+
+		//A second run into a local repository keeps the versions already listed in the metadata.
+		final Path localMetadata = outputPath.resolve("repository/group-id-replaced/impala-query-parser").resolve(RepositoryLayoutWriter.LOCAL_METADATA_FILE);
+		Files.createDirectories(localMetadata.getParent());
+		Files.write(localMetadata, "<metadata><versioning><release>0.9</release><versions><version>0.9</version></versions></versioning></metadata>".getBytes("UTF-8"));
+		layoutGen.generateScript(outputPath, outputPath.resolve("settings.xml"), "https://my.repo/example/maven2", "MyRepositoryId");
+
+		final String localMetadataXml = new String(Files.readAllBytes(localMetadata), "UTF-8");
+		Assertions.assertTrue(localMetadataXml.contains("<version>0.9</version>"));
+		Assertions.assertTrue(localMetadataXml.contains("<version>1.0-SNAPSHOT</version>"));
+		Assertions.assertTrue(localMetadataXml.contains("<release>0.9</release>"));
+		Assertions.assertTrue(localMetadataXml.contains("<latest>1.0-SNAPSHOT</latest>"));
+
+		//Installing an older version does not move latest / release back.
+		Files.write(localMetadata, "<metadata><versioning><latest>2.0</latest><release>2.0</release><versions><version>2.0</version><version>1.10</version></versions></versioning></metadata>".getBytes("UTF-8"));
+		layoutGen.generateScript(outputPath, outputPath.resolve("settings.xml"), "https://my.repo/example/maven2", "MyRepositoryId");
+
+		final String olderMetadataXml = new String(Files.readAllBytes(localMetadata), "UTF-8");
+		Assertions.assertTrue(olderMetadataXml.contains("<latest>2.0</latest>"));
+		Assertions.assertTrue(olderMetadataXml.contains("<release>2.0</release>"));
+		Assertions.assertTrue(olderMetadataXml.contains("<version>1.0-SNAPSHOT</version>"));
+
+		Assertions.assertEquals("1.10", RepositoryLayoutWriter.highestOf("1.9", "1.10"));
+		Assertions.assertEquals("1.0", RepositoryLayoutWriter.highestOf("1.0-SNAPSHOT", "1.0"));
+		Assertions.assertEquals("1.0", RepositoryLayoutWriter.highestOf("1.0", "1.0-alpha-1"));
+	}
+
+	@Test
+	public void testParallelStagingWritesChecksums() throws Exception
+	{
+		final GenerateMavenDeployScripts stagingGen = new GenerateMavenDeployScripts(jarRootScanDirectory,
+																					 OSTarget.Unix,
+																					 ScriptType.RemoteRepoDeploy,
+																					 groupIdReplacements,
+																					 Collections.emptySet(),
+																					 groupFilters);
+		stagingGen.setChecksumAlgorithms(EnumSet.allOf(ChecksumAlgorithm.class));
+
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		try
+		{
+			stagingGen.setStagingExecutor(pool);
+
+			final Path outputPath = Paths.get("target", "GenerateMavenDeployScriptsTest-" + UUID.randomUUID());
+			stagingGen.generateScript(outputPath, outputPath.resolve("settings.xml"), "https://my.repo/example/maven2", "MyRepositoryId");
+
+			final Path jar = findStaged(outputPath, "-impala-query-parser-1.0-SNAPSHOT.jar");
+			final byte[] jarData = Files.readAllBytes(jar);
+			for (ChecksumAlgorithm algorithm : ChecksumAlgorithm.values())
+			{
+				final Path checksumFile = jar.resolveSibling(jar.getFileName() + "." + algorithm.getFileExtension());
+				Assertions.assertEquals(DigestingOutputStream.hex(algorithm.newMessageDigest().digest(jarData)), new String(Files.readAllBytes(checksumFile), "US-ASCII"));
+			}
+			Assertions.assertNotNull(findStaged(outputPath, "-impala-query-parser-1.0-SNAPSHOT-sources.jar.sha256"));
+			Assertions.assertNotNull(findStaged(outputPath, "-impala-query-parser-1.0-SNAPSHOT.jar.pom.xml.sha512"));
+
+			final List<String> script = Files.readAllLines(outputPath.resolve("000-execute-maven-script.sh"));
+			final List<String> mvnLines = new ArrayList<>();
+			for (String line : script)
+			{
+				if (line.startsWith("mvn ")) mvnLines.add(line);
+			}
+			Assertions.assertEquals(2, mvnLines.size());
+			Assertions.assertTrue(mvnLines.get(0).contains("impala-query-parser"));
+			Assertions.assertTrue(mvnLines.get(1).contains("o-browser"));
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testConcurrentScriptRunsWavesAsBackgroundJobs() throws Exception
+	{
+		final GenerateMavenDeployScripts concurrentGen = new GenerateMavenDeployScripts(jarRootScanDirectory,
+																						OSTarget.Unix,
+																						ScriptType.LocalRepoInstall,
+																						groupIdReplacements,
+																						Collections.emptySet(),
+																						groupFilters);
+		concurrentGen.setDeployConcurrency(4);
+
+		final Path outputPath = Paths.get("target", "GenerateMavenDeployScriptsTest-" + UUID.randomUUID());
+		concurrentGen.generateScript(outputPath, outputPath.resolve("settings.xml"), "https://my.repo/example/maven2", "MyRepositoryId");
+
+		final List<String> script = Files.readAllLines(outputPath.resolve("000-execute-maven-script.sh"));
+		Assertions.assertEquals("#!/usr/bin/env bash", script.get(0));
+		Assertions.assertTrue(script.contains("MAX_JOBS=4"));
+		Assertions.assertTrue(script.contains("endWave 1"));
+
+		int backgroundJobs = 0;
+		for (String line : script)
+		{
+			if (line.startsWith("mvn ") && line.endsWith(" || fail &")) backgroundJobs++;
+		}
+		Assertions.assertEquals(2, backgroundJobs);
+	}
+
+	@Test
+	public void testShardedScripts() throws Exception
+	{
+		final GenerateMavenDeployScripts shardedGen = new GenerateMavenDeployScripts(jarRootScanDirectory,
+																					 OSTarget.Unix,
+																					 ScriptType.RemoteRepoDeploy,
+																					 groupIdReplacements,
+																					 Collections.emptySet(),
+																					 groupFilters);
+		shardedGen.setShardCount(3);
+
+		final Path outputPath = Paths.get("target", "GenerateMavenDeployScriptsTest-" + UUID.randomUUID());
+		shardedGen.generateScript(outputPath, outputPath.resolve("settings.xml"), "https://my.repo/example/maven2", "MyRepositoryId");
+
+		final String driver = new String(Files.readAllBytes(outputPath.resolve("000-execute-maven-script.sh")), "UTF-8");
+		int mvnLines = 0;
+		for (int s = 0; s <= 3; s++)
+		{
+			final String shardName = "000-execute-maven-script-shard-0" + s + ".sh";
+			Assertions.assertTrue(driver.contains(shardName));
+			for (String line : Files.readAllLines(outputPath.resolve(shardName)))
+			{
+				if (line.startsWith("mvn "))
+				{
+					mvnLines++;
+					//A failed command fails the shard, and so the driver.
+					Assertions.assertTrue(line.endsWith(" || exit 1"), line);
+				}
+			}
+		}
+		Assertions.assertEquals(2, mvnLines);
+		Assertions.assertTrue(driver.indexOf("shard-00.sh\" || exit 1") < driver.indexOf("shard-01.sh\" &"));
+
+		final GenerateMavenDeployScripts windowsGen = new GenerateMavenDeployScripts(jarRootScanDirectory,
+																					 OSTarget.Windows,
+																					 ScriptType.RemoteRepoDeploy,
+																					 groupIdReplacements,
+																					 Collections.emptySet(),
+																					 groupFilters);
+		windowsGen.setShardCount(3);
+		final Path windowsPath = Paths.get("target", "GenerateMavenDeployScriptsTest-" + UUID.randomUUID());
+		windowsGen.generateScript(windowsPath, windowsPath.resolve("settings.xml"), "https://my.repo/example/maven2", "MyRepositoryId");
+		int callLines = 0;
+		for (int s = 0; s <= 3; s++)
+		{
+			for (String line : Files.readAllLines(windowsPath.resolve("000-execute-maven-script-shard-0" + s + ".bat")))
+			{
+				if (line.startsWith("call mvn "))
+				{
+					callLines++;
+					Assertions.assertTrue(line.endsWith(" || exit /b 1"), line);
+				}
+			}
+		}
+		Assertions.assertEquals(2, callLines);
+		Assertions.assertTrue(new String(Files.readAllBytes(windowsPath.resolve("000-execute-maven-script.bat")), "UTF-8").contains("shard-00.bat\" || exit /b 1"));
 	}
 
+	@Test
+	public void testDeployJournalSkipsWhatIsDone() throws Exception
+	{
+		final Path outputPath = Paths.get("target", "GenerateMavenDeployScriptsTest-" + UUID.randomUUID());
+		final Path journalFile = outputPath.resolve("deploy.journal");
+
+		final GenerateMavenDeployScripts layoutGen = new GenerateMavenDeployScripts(jarRootScanDirectory,
+																					OSTarget.Unix,
+																					ScriptType.DirectRepositoryLayout,
+																					groupIdReplacements,
+																					Collections.emptySet(),
+																					groupFilters);
+		layoutGen.setDeployJournal(journalFile);
+		layoutGen.generateScript(outputPath, outputPath.resolve("settings.xml"), "https://my.repo/example/maven2", "MyRepositoryId");
+		Assertions.assertEquals(2, Files.readAllLines(journalFile).size());
 
+		layoutGen.generateScript(outputPath, outputPath.resolve("settings.xml"), "https://my.repo/example/maven2", "MyRepositoryId");
+		final String rerun = new String(Files.readAllBytes(outputPath.resolve("000-execute-maven-script.sh")), "UTF-8");
+		Assertions.assertTrue(rerun.contains("# uk.co.devworx:impala-query-parser:1.0-SNAPSHOT - already deployed"));
+		Assertions.assertTrue(rerun.contains("# uk.co.devworx:o-browser:1.0-SNAPSHOT - already deployed"));
 
+		//The scripts check the journal themselves, and append to it.
+		final GenerateMavenDeployScripts scriptGen = new GenerateMavenDeployScripts(jarRootScanDirectory,
+																					OSTarget.Unix,
+																					ScriptType.LocalRepoInstall,
+																					groupIdReplacements,
+																					Collections.emptySet(),
+																					groupFilters);
+		final Path scriptJournalFile = outputPath.resolve("script.journal");
+		scriptGen.setDeployJournal(scriptJournalFile);
+		scriptGen.generateScript(outputPath, outputPath.resolve("settings.xml"), "https://my.repo/example/maven2", "MyRepositoryId");
+		int guardedCommands = 0;
+		for (String line : Files.readAllLines(outputPath.resolve("000-execute-maven-script.sh")))
+		{
+			if (line.startsWith("{ grep -qxF 'uk.co.devworx:") && line.contains("|| { mvn ") && line.endsWith(" >> \"" + scriptJournalFile.toAbsolutePath() + "\"; }; }")) guardedCommands++;
+		}
+		Assertions.assertEquals(2, guardedCommands);
+	}
+
+	@Test
+	public void testStagingStrategies() throws Exception
+	{
+		final Path sources = jarRootScanDirectory.resolve("mock-jars/uk/co/devworx/impala-query-parser/1.0-SNAPSHOT/impala-query-parser-1.0-SNAPSHOT-sources.jar");
+		final GenerateMavenDeployScripts stagingGen = new GenerateMavenDeployScripts(jarRootScanDirectory,
+																					 OSTarget.Unix,
+																					 ScriptType.LocalRepoInstall,
+																					 groupIdReplacements,
+																					 Collections.emptySet(),
+																					 groupFilters);
+		final Path outputPath = Paths.get("target", "GenerateMavenDeployScriptsTest-" + UUID.randomUUID());
+
+		stagingGen.setStagingStrategy(StagingStrategy.HARDLINK);
+		stagingGen.generateScript(outputPath, outputPath.resolve("settings.xml"), "https://my.repo/example/maven2", "MyRepositoryId");
+		final Path staged = findStaged(outputPath, "-impala-query-parser-1.0-SNAPSHOT-sources.jar");
+		Assertions.assertTrue(Files.isSameFile(sources, staged));
+
+		//Re-staging as a copy replaces the link, rather than writing through it.
+		stagingGen.setStagingStrategy(StagingStrategy.COPY);
+		stagingGen.generateScript(outputPath, outputPath.resolve("settings.xml"), "https://my.repo/example/maven2", "MyRepositoryId");
+		Assertions.assertFalse(Files.isSameFile(sources, staged));
+		Assertions.assertArrayEquals(Files.readAllBytes(sources), Files.readAllBytes(staged));
+
+		stagingGen.setStagingStrategy(StagingStrategy.REFERENCE);
+		stagingGen.generateScript(outputPath, outputPath.resolve("settings.xml"), "https://my.repo/example/maven2", "MyRepositoryId");
+		final String script = new String(Files.readAllBytes(outputPath.resolve("000-execute-maven-script.sh")), "UTF-8");
+		Assertions.assertTrue(script.contains("-Dsources=\"" + sources.toAbsolutePath() + "\""));
+	}
+
+	@Test
+	public void testFailedChecksumsLeaveTheLinkedOriginalIntact() throws Exception
+	{
+		final Path testDir = Paths.get("target", "GenerateMavenDeployScriptsTest-" + UUID.randomUUID());
+		Files.createDirectories(testDir);
+		final Path source = Files.copy(jarRootScanDirectory.resolve("mock-jars/uk/co/devworx/impala-query-parser/1.0-SNAPSHOT/impala-query-parser-1.0-SNAPSHOT.jar"),
+									   testDir.resolve("original-sources.jar"));
+		final byte[] original = Files.readAllBytes(source);
+		final Path target = testDir.resolve("staged-sources.jar");
+		//A directory where the checksum file should go - so writing it fails once the link exists.
+		Files.createDirectories(testDir.resolve("staged-sources.jar.sha1"));
+
+		for (StagingStrategy strategy : new StagingStrategy[] { StagingStrategy.HARDLINK, StagingStrategy.SYMLINK })
+		{
+			Assertions.assertThrows(IOException.class, () -> strategy.stage(source, target, EnumSet.of(ChecksumAlgorithm.SHA1), false, "org.corp:lib:1.0"));
+			Assertions.assertArrayEquals(original, Files.readAllBytes(source), strategy.name());
+		}
+	}
+
+	@Test
+	public void testRunReport() throws Exception
+	{
+		final GenerateMavenDeployScripts reportGen = new GenerateMavenDeployScripts(jarRootScanDirectory,
+																					OSTarget.Unix,
+																					ScriptType.LocalRepoInstall,
+																					groupIdReplacements,
+																					Collections.emptySet(),
+																					groupFilters);
+		final Path outputPath = Paths.get("target", "GenerateMavenDeployScriptsTest-" + UUID.randomUUID());
+		final Path report = outputPath.resolve("run-report.json");
+		reportGen.setDiscoveryExecutor(ForkJoinPool.commonPool());
+		reportGen.setStagingExecutor(ForkJoinPool.commonPool());
+		reportGen.setRunReport(report);
+		reportGen.generateScript(outputPath, outputPath.resolve("settings.xml"), "https://my.repo/example/maven2", "MyRepositoryId");
+
+		final String json = new String(Files.readAllBytes(report), "UTF-8");
+		logger.info(json);
+		//The phases recorded on the executor threads are in it too.
+		for (String phase : new String[] { "SCAN_WALK", "EXTRACT", "ZIP_READ", "POM_PARSE", "PLAN", "JAR_REWRITE", "POM_WRITE", "SCRIPT_WRITE" })
+		{
+			Assertions.assertTrue(json.contains("{ \"phase\": \"" + phase + "\", \"type\": \"all\""), phase);
+		}
+		Assertions.assertTrue(json.contains("{ \"phase\": \"EXTRACT\", \"type\": \"war\", \"count\": 1"));
+		Assertions.assertTrue(json.contains("{ \"coordinates\": \"uk.co.devworx:impala-query-parser:1.0-SNAPSHOT\", \"type\": \"jar\""));
+		Assertions.assertTrue(json.contains("{ \"coordinates\": \"uk.co.devworx:o-browser:"));
+
+		//Without a report, nothing is recorded.
+		Assertions.assertSame(RunMetrics.DISABLED, RunMetrics.current());
+		Assertions.assertEquals(0, RunMetrics.DISABLED.getCount(RunMetrics.Phase.EXTRACT));
+	}
+
+	@Test
+	public void testMavenBatches() throws Exception
+	{
+		final GenerateMavenDeployScripts batchGen = new GenerateMavenDeployScripts(jarRootScanDirectory,
+																				   OSTarget.Unix,
+																				   ScriptType.LocalRepoInstall,
+																				   groupIdReplacements,
+																				   Collections.emptySet(),
+																				   groupFilters);
+		final Path outputPath = Paths.get("target", "GenerateMavenDeployScriptsTest-" + UUID.randomUUID());
+		batchGen.setMavenBatchSize(10);
+		batchGen.generateScript(outputPath, outputPath.resolve("settings.xml"), "https://my.repo/example/maven2", "MyRepositoryId");
+
+		//Both artifacts go in one batch, in plan order - and the script runs mvn once.
+		final String batchPom = new String(Files.readAllBytes(findStaged(outputPath, "-batch.pom.xml")), "UTF-8");
+		logger.info(batchPom);
+		Assertions.assertEquals(2, batchPom.split("<goal>install-file</goal>", -1).length - 1);
+		Assertions.assertTrue(batchPom.indexOf("impala-query-parser") < batchPom.indexOf("o-browser"));
+		Assertions.assertTrue(batchPom.contains("<sources>"));
+
+		final String script = new String(Files.readAllBytes(outputPath.resolve("000-execute-maven-script.sh")), "UTF-8");
+		Assertions.assertEquals(1, script.split("mvn -f ", -1).length - 1);
+		Assertions.assertFalse(script.contains("install:install-file"));
+
+		Assertions.assertThrows(IllegalArgumentException.class, () -> batchGen.setMavenBatchSize(0));
+	}
+
+	@Test
+	public void testMavenBatchesWithJournal() throws Exception
+	{
+		Assumptions.assumeFalse(System.getProperty("os.name").startsWith("Windows"));
+
+		final Path outputPath = Paths.get("target", "GenerateMavenDeployScriptsTest-" + UUID.randomUUID()).toAbsolutePath();
+		final Path journalFile = outputPath.resolve("script.journal");
+		final GenerateMavenDeployScripts batchGen = new GenerateMavenDeployScripts(jarRootScanDirectory,
+																				   OSTarget.Unix,
+																				   ScriptType.LocalRepoInstall,
+																				   groupIdReplacements,
+																				   Collections.emptySet(),
+																				   groupFilters);
+		batchGen.setMavenBatchSize(10);
+		batchGen.setDeployJournal(journalFile);
+		batchGen.generateScript(outputPath, outputPath.resolve("settings.xml"), "https://my.repo/example/maven2", "MyRepositoryId");
+
+		final List<String> entries = Files.readAllLines(findStaged(outputPath, "-batch.journal"));
+		Assertions.assertEquals(2, entries.size());
+
+		//Run the script against a stand-in mvn that logs its calls.
+		final Path bin = Files.createDirectories(outputPath.resolve("bin"));
+		final Path calls = outputPath.resolve("mvn-calls.txt");
+		final Path mvn = bin.resolve("mvn");
+		Files.write(mvn, ("#!/bin/sh\necho \"$@\" >> \"" + calls + "\"\nexit ${FAKE_MVN_EXIT:-0}\n").getBytes("UTF-8"));
+		mvn.toFile().setExecutable(true);
+
+		String stderr = runScript(outputPath, bin, "0");
+		Assertions.assertEquals(1, Files.readAllLines(calls).size(), stderr);
+		Assertions.assertEquals(entries, Files.readAllLines(journalFile));
+
+		//All done - skipped.
+		runScript(outputPath, bin, "0");
+		Assertions.assertEquals(1, Files.readAllLines(calls).size());
+
+		//Part done (e.g. by per-artifact commands) - fails without running mvn.
+		Files.write(journalFile, entries.subList(0, 1));
+		stderr = runScript(outputPath, bin, "0");
+		Assertions.assertEquals(1, Files.readAllLines(calls).size());
+		Assertions.assertTrue(stderr.contains("some but not all of its artifacts are in the deploy journal"), stderr);
+
+		//A failed batch records nothing, and says so.
+		Files.write(journalFile, new byte[0]);
+		stderr = runScript(outputPath, bin, "1");
+		Assertions.assertEquals(2, Files.readAllLines(calls).size());
+		Assertions.assertTrue(stderr.contains("failed - the artifacts it deployed before the failure are not in the deploy journal"), stderr);
+		Assertions.assertEquals(0, Files.size(journalFile));
+
+		//On Windows the entries are appended from the same side file - the command line does not grow with the batch.
+		final GenerateMavenDeployScripts windowsGen = new GenerateMavenDeployScripts(jarRootScanDirectory,
+																					 OSTarget.Windows,
+																					 ScriptType.LocalRepoInstall,
+																					 groupIdReplacements,
+																					 Collections.emptySet(),
+																					 groupFilters);
+		final Path windowsPath = Paths.get("target", "GenerateMavenDeployScriptsTest-" + UUID.randomUUID());
+		windowsGen.setMavenBatchSize(10);
+		windowsGen.setDeployJournal(windowsPath.resolve("script.journal"));
+		windowsGen.generateScript(windowsPath, windowsPath.resolve("settings.xml"), "https://my.repo/example/maven2", "MyRepositoryId");
+		final Path windowsEntries = findStaged(windowsPath, "-batch.journal");
+		final String windowsScript = new String(Files.readAllBytes(windowsPath.resolve("000-execute-maven-script.bat")), "UTF-8");
+		Assertions.assertTrue(windowsScript.contains("findstr /x /l /g:\"" + windowsEntries.toAbsolutePath() + "\""));
+		Assertions.assertTrue(windowsScript.contains("type \"" + windowsEntries.toAbsolutePath() + "\" >> "));
+		Assertions.assertTrue(windowsScript.contains(" else if %DONE% LSS 2 ("));
+		Assertions.assertFalse(windowsScript.contains(Files.readAllLines(windowsEntries).get(0)));
+		Assertions.assertTrue(new String(Files.readAllBytes(windowsEntries), "UTF-8").endsWith("\r\n"));
+	}
+
+	/**
+	 * @return what the script wrote to stderr.
+	 */
+	private static String runScript(Path outputPath, Path bin, String mvnExitCode) throws Exception
+	{
+		final ProcessBuilder builder = new ProcessBuilder("bash", outputPath.resolve("000-execute-maven-script.sh").toString());
+		builder.environment().put("PATH", bin + java.io.File.pathSeparator + System.getenv("PATH"));
+		builder.environment().put("FAKE_MVN_EXIT", mvnExitCode);
+		builder.redirectOutput(outputPath.resolve("script-output.txt").toFile());
+		final Process process = builder.start();
+		final String stderr = new String(readAll(process.getErrorStream()), "UTF-8");
+		process.waitFor();
+		return stderr;
+	}
+
+	private static byte[] readAll(java.io.InputStream ins) throws Exception
+	{
+		final java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+		final byte[] buffer = new byte[4096];
+		int read;
+		while ((read = ins.read(buffer)) != -1)
+		{
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testDuplicatesAreDeployedOnce() throws Exception
+	{
+		final Path scanRoot = Paths.get("target", "GenerateMavenDeployScriptsTest-" + UUID.randomUUID(), "scan");
+		final Path jarDir = Paths.get("uk/co/devworx/impala-query-parser/1.0-SNAPSHOT");
+		final Path warDir = Paths.get("uk/co/devworx/o-browser/1.0-SNAPSHOT");
+		copyDirectory(jarRootScanDirectory.resolve("mock-jars").resolve(jarDir), scanRoot.resolve("a").resolve(jarDir));
+		copyDirectory(jarRootScanDirectory.resolve("mock-jars").resolve(jarDir), scanRoot.resolve("b").resolve(jarDir));
+		copyDirectory(jarRootScanDirectory.resolve("mock-wars").resolve(warDir), scanRoot.resolve("a").resolve(warDir));
+		copyDirectory(jarRootScanDirectory.resolve("mock-wars").resolve(warDir), scanRoot.resolve("c").resolve(warDir));
+		//Same coordinates, but a different sources jar.
+		Files.write(scanRoot.resolve("c").resolve(warDir).resolve("o-browser-1.0-SNAPSHOT-sources.jar"), new byte[] { 1 });
+
+		final GenerateMavenDeployScripts dedupGen = new GenerateMavenDeployScripts(scanRoot,
+																				   OSTarget.Unix,
+																				   ScriptType.LocalRepoInstall,
+																				   groupIdReplacements,
+																				   Collections.emptySet(),
+																				   groupFilters);
+		final List<PomFileExtract> extracts = dedupGen.getPomFileExtracts();
+		Assertions.assertEquals(2, extracts.size());
+		Assertions.assertEquals(scanRoot.resolve("a").resolve(jarDir).resolve("impala-query-parser-1.0-SNAPSHOT.jar"), extracts.get(0).getSourceFile());
+		Assertions.assertEquals(1, extracts.get(0).getInstanceId());
+		Assertions.assertEquals(2, extracts.get(1).getInstanceId());
+
+		final List<Path> collision = dedupGen.getCoordinateCollisions().get("uk.co.devworx:o-browser:1.0-SNAPSHOT");
+		Assertions.assertEquals(1, dedupGen.getCoordinateCollisions().size());
+		Assertions.assertEquals(Arrays.asList(scanRoot.resolve("a").resolve(warDir).resolve("o-browser-1.0-SNAPSHOT.war"),
+											  scanRoot.resolve("c").resolve(warDir).resolve("o-browser-1.0-SNAPSHOT.war")), collision);
+	}
+
+	private static void copyDirectory(Path from, Path to) throws Exception
+	{
+		Files.createDirectories(to);
+		try (java.util.stream.Stream<Path> files = Files.list(from))
+		{
+			for (Path file : (Iterable<Path>) files::iterator)
+			{
+				Files.copy(file, to.resolve(file.getFileName()));
+			}
+		}
+	}
+
+	private static Path findStaged(Path outputPath, String suffix) throws Exception
+	{
+		try (java.util.stream.Stream<Path> files = Files.list(outputPath))
+		{
+			return files.filter(p -> p.getFileName().toString().endsWith(suffix)).findFirst().orElseThrow(() -> new AssertionError("No staged file ending with " + suffix));
+		}
+	}
 
 }
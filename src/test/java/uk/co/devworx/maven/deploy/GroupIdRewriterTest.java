@@ -0,0 +1,76 @@
+package uk.co.devworx.maven.deploy;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class GroupIdRewriterTest
+{
+	@Test
+	public void testExactReplacement()
+	{
+		Map<String, String> grpReplace = new HashMap<>();
+		grpReplace.put("uk.co.devworx", "repl.uk.co.devworx");
+		grpReplace.put("org.other", "corp.org.other");
+
+		final GroupIdRewriter rewriter = new GroupIdRewriter(grpReplace);
+		final String pom = "<project><groupId>uk.co.devworx</groupId><dependencies>" +
+						   "<dependency><groupId>org.other</groupId></dependency>" +
+						   "<dependency><groupId>uk.co.devworx.sub</groupId></dependency>" +
+						   "<dependency><groupId>xuk.co.devworx</groupId></dependency>" +
+						   "</dependencies></project>";
+
+		final String expected = "<project><groupId>repl.uk.co.devworx</groupId><dependencies>" +
+								"<dependency><groupId>corp.org.other</groupId></dependency>" +
+								"<dependency><groupId>uk.co.devworx.sub</groupId></dependency>" +
+								"<dependency><groupId>xuk.co.devworx</groupId></dependency>" +
+								"</dependencies></project>";
+
+		Assertions.assertEquals(expected, rewriter.rewrite(pom));
+	}
+
+	@Test
+	public void testPrefixReplacement()
+	{
+		Map<String, String> grpReplace = new HashMap<>();
+		grpReplace.put("org.foo.*", "corp.org.foo.*");
+		grpReplace.put("org.foo.bar.*", "special.bar.*");
+		grpReplace.put("org.foo.exact", "exact.replaced");
+
+		final GroupIdRewriter rewriter = new GroupIdRewriter(grpReplace);
+
+		Assertions.assertEquals("corp.org.foo", rewriter.rewriteGroupId("org.foo"));
+		Assertions.assertEquals("corp.org.foo.baz", rewriter.rewriteGroupId("org.foo.baz"));
+		Assertions.assertEquals("special.bar", rewriter.rewriteGroupId("org.foo.bar"));
+		Assertions.assertEquals("special.bar.deep.er", rewriter.rewriteGroupId("org.foo.bar.deep.er"));
+		Assertions.assertEquals("exact.replaced", rewriter.rewriteGroupId("org.foo.exact"));
+		Assertions.assertEquals("corp.org.foo.exactly", rewriter.rewriteGroupId("org.foo.exactly"));
+		Assertions.assertEquals("org.foobar", rewriter.rewriteGroupId("org.foobar"));
+		Assertions.assertEquals("org.fo", rewriter.rewriteGroupId("org.fo"));
+	}
+
+	@Test
+	public void testReplacementsDoNotChain()
+	{
+		Map<String, String> grpReplace = new HashMap<>();
+		grpReplace.put("a.b", "c.d");
+		grpReplace.put("c.d", "e.f");
+
+		final GroupIdRewriter rewriter = new GroupIdRewriter(grpReplace);
+		Assertions.assertEquals("<g>c.d</g><g>e.f</g>", rewriter.rewrite("<g>a.b</g><g>c.d</g>"));
+	}
+
+	@Test
+	public void testUnchangedDocumentIsNotCopied()
+	{
+		final byte[] doc = "<project><groupId>nothing.to.see</groupId></project>".getBytes(StandardCharsets.UTF_8);
+
+		Assertions.assertSame(doc, new GroupIdRewriter(Collections.singletonMap("uk.co.devworx", "x")).rewrite(doc));
+		Assertions.assertSame(doc, new GroupIdRewriter(Collections.emptyMap()).rewrite(doc));
+	}
+
+}
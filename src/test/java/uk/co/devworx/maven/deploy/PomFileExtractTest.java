@@ -1,7 +1,48 @@
 package uk.co.devworx.maven.deploy;
 
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.UUID;
+
 public class PomFileExtractTest
 {
+	private static final Path MOCK_JAR = Paths.get(ZipUtilsTest.JAR_LOCATION);
+	private static final Path MOCK_JAR_POM = Paths.get("src/test/resources/mock/mock-jars/uk/co/devworx/impala-query-parser/1.0-SNAPSHOT/impala-query-parser-1.0-SNAPSHOT.pom");
+
+	@Test
+	public void testCreateFromJar()
+	{
+		final PomFileExtract extract = PomFileExtract.create(Optional.of(MOCK_JAR), Optional.empty());
+
+		Assertions.assertEquals(PomFileExtractType.JAR_FILE, extract.getPomFileExtractType());
+		Assertions.assertEquals("uk.co.devworx", extract.getGroupId());
+		Assertions.assertEquals("impala-query-parser", extract.getArtefactId());
+		Assertions.assertEquals("1.0-SNAPSHOT", extract.getVersionId());
+		Assertions.assertTrue(extract.getSourceJarFile().isPresent());
+	}
+
+	@Test
+	public void testUnwantedCoordinatesAreNotReadFurther() throws Exception
+	{
+		// Broken after the head - only a full read gets that far.
+		final Path dir = Paths.get("target", "PomFileExtractTest-" + UUID.randomUUID(), "a", "1");
+		Files.createDirectories(dir);
+		final Path pom = Files.write(dir.resolve("a-1.pom"), "<project><groupId>g</groupId><artifactId>a</artifactId><version>1</version><packaging>pom</packaging><name>A</name><build><unclosed></build>".getBytes(StandardCharsets.UTF_8));
+
+		Assertions.assertFalse(PomFileExtract.createIfWanted(Optional.empty(), Optional.of(pom), new PomModelCache(), model -> "other".equals(model.getGroupId())).isPresent());
+		Assertions.assertThrows(RuntimeException.class, () -> PomFileExtract.createIfWanted(Optional.empty(), Optional.of(pom), new PomModelCache(), model -> "g".equals(model.getGroupId())));
+	}
 
+	@Test
+	public void testCreateFromNonParentPomFails()
+	{
+		Assertions.assertThrows(RuntimeException.class, () -> PomFileExtract.create(Optional.empty(), Optional.of(MOCK_JAR_POM)));
+	}
 
 }
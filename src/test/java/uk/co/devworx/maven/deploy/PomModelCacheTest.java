@@ -0,0 +1,115 @@
+package uk.co.devworx.maven.deploy;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.UUID;
+
+public class PomModelCacheTest
+{
+	private static Path writePom(Path repoRoot, String groupId, String artifactId, String version, String content) throws Exception
+	{
+		final Path dir = repoRoot.resolve(groupId.replace('.', '/')).resolve(artifactId).resolve(version);
+		Files.createDirectories(dir);
+		final Path pom = dir.resolve(artifactId + "-" + version + ".pom");
+		Files.write(pom, content.getBytes(StandardCharsets.UTF_8));
+		return pom;
+	}
+
+	@Test
+	public void testResolvesInheritedCoordinatesAndProperties() throws Exception
+	{
+		final Path repoRoot = Paths.get("target", "PomModelCacheTest-" + UUID.randomUUID());
+
+		writePom(repoRoot, "org.corp", "grand-parent", "3", "<project>" +
+			"<groupId>org.corp</groupId><artifactId>grand-parent</artifactId><version>3</version><packaging>pom</packaging>" +
+			"<properties><lib.version>7.1</lib.version></properties>" +
+			"</project>");
+
+		writePom(repoRoot, "org.corp", "parent", "1.0", "<project>" +
+			"<parent><groupId>org.corp</groupId><artifactId>grand-parent</artifactId><version>3</version></parent>" +
+			"<artifactId>parent</artifactId><version>1.0</version><packaging>pom</packaging>" +
+			"<properties><child.group>${project.parent.groupId}.child</child.group></properties>" +
+			"</project>");
+
+		final Path child = writePom(repoRoot, "org.corp.child", "child", "7.1", "<project>" +
+			"<parent><groupId>org.corp</groupId><artifactId>parent</artifactId><version>1.0</version></parent>" +
+			"<groupId>${child.group}</groupId><artifactId>child</artifactId><version>${lib.version}</version><packaging>pom</packaging>" +
+			"</project>");
+
+		final Path sibling = writePom(repoRoot, "org.corp", "sibling", "1.0", "<project>" +
+			"<parent><groupId>org.corp</groupId><artifactId>parent</artifactId><version>1.0</version></parent>" +
+			"<artifactId>sibling</artifactId><packaging>pom</packaging>" +
+			"<properties><unused>${does.not.exist}</unused></properties>" +
+			"</project>");
+
+		final PomModelCache cache = new PomModelCache();
+
+		final PomFileExtract childExtract = PomFileExtract.create(Optional.empty(), Optional.of(child), cache);
+		Assertions.assertEquals("org.corp.child", childExtract.getGroupId());
+		Assertions.assertEquals("child", childExtract.getArtefactId());
+		Assertions.assertEquals("7.1", childExtract.getVersionId());
+
+		final PomFileExtract siblingExtract = PomFileExtract.create(Optional.empty(), Optional.of(sibling), cache);
+		Assertions.assertEquals("org.corp", siblingExtract.getGroupId());
+		Assertions.assertEquals("1.0", siblingExtract.getVersionId());
+
+		//The parent and grand-parent are each read only once, however many children refer to them.
+		Assertions.assertEquals(2, cache.getParentsParsed());
+	}
+
+	@Test
+	public void testMissingAndChangedParentsAreReadAgain() throws Exception
+	{
+		final Path repoRoot = Paths.get("target", "PomModelCacheTest-" + UUID.randomUUID());
+		final Path child = writePom(repoRoot, "org.corp", "child", "1.0", "<project>" +
+			"<parent><groupId>org.corp</groupId><artifactId>parent</artifactId><version>1.0</version></parent>" +
+			"<artifactId>child</artifactId><version>${lib.version}</version><packaging>pom</packaging>" +
+			"</project>");
+
+		final PomModelCache cache = new PomModelCache();
+		cache.setCheckFreshness(true);
+
+		//The child arrives before its parent - the miss is not cached.
+		Assertions.assertEquals("${lib.version}", PomFileExtract.create(Optional.empty(), Optional.of(child), cache).getVersionId());
+		final Path parent = writePom(repoRoot, "org.corp", "parent", "1.0", "<project>" +
+			"<groupId>org.corp</groupId><artifactId>parent</artifactId><version>1.0</version><packaging>pom</packaging>" +
+			"<properties><lib.version>7.1</lib.version></properties>" +
+			"</project>");
+		Assertions.assertEquals("7.1", PomFileExtract.create(Optional.empty(), Optional.of(child), cache).getVersionId());
+		Assertions.assertEquals("7.1", PomFileExtract.create(Optional.empty(), Optional.of(child), cache).getVersionId());
+		Assertions.assertEquals(1, cache.getParentsParsed());
+
+		//The parent is edited.
+		Files.write(parent, ("<project>" +
+			"<groupId>org.corp</groupId><artifactId>parent</artifactId><version>1.0</version><packaging>pom</packaging>" +
+			"<properties><lib.version>7.10</lib.version></properties>" +
+			"</project>").getBytes(StandardCharsets.UTF_8));
+		Assertions.assertEquals("7.10", PomFileExtract.create(Optional.empty(), Optional.of(child), cache).getVersionId());
+		Assertions.assertEquals(2, cache.getParentsParsed());
+
+		//Without the freshness check the parent is read once and kept.
+		final PomModelCache unchecked = new PomModelCache();
+		Assertions.assertEquals("7.10", PomFileExtract.create(Optional.empty(), Optional.of(child), unchecked).getVersionId());
+		Files.write(parent, ("<project>" +
+			"<groupId>org.corp</groupId><artifactId>parent</artifactId><version>1.0</version><packaging>pom</packaging>" +
+			"<properties><lib.version>8.0</lib.version></properties>" +
+			"</project>").getBytes(StandardCharsets.UTF_8));
+		Assertions.assertEquals("7.10", PomFileExtract.create(Optional.empty(), Optional.of(child), unchecked).getVersionId());
+		Assertions.assertEquals(1, unchecked.getParentsParsed());
+	}
+
+	@Test
+	public void testUnresolvableReferencesAreLeftInPlace()
+	{
+		Assertions.assertEquals("a-${missing}-b", PomModelCache.interpolate("a-${missing}-b", name -> null));
+		Assertions.assertEquals("x-1", PomModelCache.interpolate("${p}", name -> name.equals("p") ? "x-${q}" : "1"));
+		Assertions.assertEquals("${self}", PomModelCache.interpolate("${self}", name -> "${self}"));
+	}
+
+}
@@ -0,0 +1,83 @@
+package uk.co.devworx.maven.deploy;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class PomModelTest
+{
+	@Test
+	public void testReadCoordinates()
+	{
+		final String pom = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+						   "<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n" +
+						   "  <modelVersion>4.0.0</modelVersion>\n" +
+						   "  <!-- the parent -->\n" +
+						   "  <parent>\n" +
+						   "    <groupId>uk.co.devworx</groupId>\n" +
+						   "    <artifactId>parent</artifactId>\n" +
+						   "    <version>2.0</version>\n" +
+						   "    <relativePath>../pom.xml</relativePath>\n" +
+						   "  </parent>\n" +
+						   "  <dependencies><dependency><groupId>other</groupId><artifactId>x</artifactId><version>9</version></dependency></dependencies>\n" +
+						   "  <groupId> uk.co.devworx.child </groupId>\n" +
+						   "  <artifactId>child</artifactId>\n" +
+						   "  <version>1.0</version>\n" +
+						   "  <packaging>pom</packaging>\n" +
+						   "</project>";
+
+		final PomModel model = PomModel.readCoordinates(pom.getBytes(StandardCharsets.UTF_8));
+		Assertions.assertEquals("uk.co.devworx.child", model.getGroupId());
+		Assertions.assertEquals("child", model.getArtifactId());
+		Assertions.assertEquals("1.0", model.getVersion());
+		Assertions.assertEquals("pom", model.getPackaging());
+		Assertions.assertEquals("uk.co.devworx", model.getParentGroupId().get());
+		Assertions.assertEquals("parent", model.getParentArtifactId().get());
+		Assertions.assertEquals("2.0", model.getParentVersion().get());
+	}
+
+	@Test
+	public void testReadingStopsOnceCoordinatesAreKnown()
+	{
+		// Everything after the packaging is broken - it must never be looked at.
+		final String pom = "<project><parent><groupId>g</groupId><artifactId>p</artifactId><version>1</version></parent>" +
+						   "<groupId>g</groupId><artifactId>a</artifactId><version>1</version><packaging>war</packaging>" +
+						   "<build><unclosed></build>";
+
+		final PomModel model = PomModel.readCoordinates(pom.getBytes(StandardCharsets.UTF_8));
+		Assertions.assertEquals("a", model.getArtifactId());
+		Assertions.assertEquals("war", model.getPackaging());
+	}
+
+	@Test
+	public void testReadingStopsAfterTheHeadWithoutPackagingOrParent()
+	{
+		// No packaging and no parent - the common case. Once an element past the head is read, nothing after it is.
+		final String pom = "<project><modelVersion>4.0.0</modelVersion><groupId>g</groupId><artifactId>a</artifactId><version>1</version>" +
+						   "<name>A</name><build><unclosed></build>";
+
+		final PomModel model = PomModel.readCoordinates(pom.getBytes(StandardCharsets.UTF_8));
+		Assertions.assertEquals("g:a:1", model.getGroupId() + ":" + model.getArtifactId() + ":" + model.getVersion());
+		Assertions.assertEquals(PomModel.DEFAULT_PACKAGING, model.getPackaging());
+		Assertions.assertFalse(model.getParentArtifactId().isPresent());
+		Assertions.assertFalse(model.isFull());
+	}
+
+	@Test
+	public void testDefaultsWhenMissing()
+	{
+		final PomModel model = PomModel.readCoordinates("<project><artifactId>a</artifactId></project>".getBytes(StandardCharsets.UTF_8));
+		Assertions.assertEquals("", model.getGroupId());
+		Assertions.assertEquals("", model.getVersion());
+		Assertions.assertEquals(PomModel.DEFAULT_PACKAGING, model.getPackaging());
+		Assertions.assertFalse(model.getParentArtifactId().isPresent());
+	}
+
+	@Test
+	public void testRejectsNonPom()
+	{
+		Assertions.assertThrows(RuntimeException.class, () -> PomModel.readCoordinates("<plugin><groupId>g</groupId></plugin>".getBytes(StandardCharsets.UTF_8)));
+	}
+
+}
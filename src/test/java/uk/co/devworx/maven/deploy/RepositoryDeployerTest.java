@@ -0,0 +1,208 @@
+package uk.co.devworx.maven.deploy;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+/**
+ * Deploys against a stand-in repository: an in-memory HTTP server that stores what is PUT, serves it back on GET,
+ * insists on basic auth and fails the first upload of every jar with a 503.
+ */
+public class RepositoryDeployerTest
+{
+	private static final String AUTHORIZATION = "Basic " + Base64.getEncoder().encodeToString("deployer:secret".getBytes(StandardCharsets.UTF_8));
+
+	private final Map<String, byte[]> stored = new ConcurrentHashMap<>();
+	private final Set<String> failedOnce = Collections.newSetFromMap(new ConcurrentHashMap<>());
+	private final List<String> puts = Collections.synchronizedList(new ArrayList<>());
+	private HttpServer server;
+	private String repositoryUrl;
+
+	@BeforeEach
+	public void startServer() throws IOException
+	{
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/repo/", this::handle);
+		server.setExecutor(Executors.newFixedThreadPool(4));
+		server.start();
+		repositoryUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/repo";
+	}
+
+	@AfterEach
+	public void stopServer()
+	{
+		server.stop(0);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException
+	{
+		final String path = exchange.getRequestURI().getPath().substring("/repo/".length());
+		try (InputStream ins = exchange.getRequestBody())
+		{
+			final ByteArrayOutputStream body = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			int read;
+			while ((read = ins.read(buffer)) != -1)
+			{
+				body.write(buffer, 0, read);
+			}
+
+			if (AUTHORIZATION.equals(exchange.getRequestHeaders().getFirst("Authorization")) == false)
+			{
+				exchange.sendResponseHeaders(401, -1);
+			}
+			else if ("PUT".equals(exchange.getRequestMethod()))
+			{
+				if (path.endsWith(".jar") && failedOnce.add(path))
+				{
+					exchange.sendResponseHeaders(503, -1);
+				}
+				else
+				{
+					stored.put(path, body.toByteArray());
+					puts.add(path);
+					exchange.sendResponseHeaders(201, -1);
+				}
+			}
+			else
+			{
+				final byte[] data = stored.get(path);
+				if (data == null)
+				{
+					exchange.sendResponseHeaders(404, -1);
+				}
+				else
+				{
+					exchange.sendResponseHeaders(200, data.length);
+					try (OutputStream out = exchange.getResponseBody())
+					{
+						out.write(data);
+					}
+				}
+			}
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+
+	private Path writeSettings(Path outputPath) throws IOException
+	{
+		Files.createDirectories(outputPath);
+		final Path settings = outputPath.resolve("settings.xml");
+		Files.write(settings, ("<settings><servers>" +
+							   "<server><id>other</id><username>nobody</username><password>x</password></server>" +
+							   "<server><id>MyRepositoryId</id><username>deployer</username><password>secret</password></server>" +
+							   "</servers></settings>").getBytes(StandardCharsets.UTF_8));
+		return settings;
+	}
+
+	@Test
+	public void testInProcessDeploy() throws Exception
+	{
+		final String metadataPath = "uk/co/devworx/impala-query-parser/maven-metadata.xml";
+		stored.put(metadataPath, "<metadata><versioning><versions><version>0.9</version></versions></versioning></metadata>".getBytes(StandardCharsets.UTF_8));
+
+		final GenerateMavenDeployScripts gen = new GenerateMavenDeployScripts(Paths.get("src/test/resources/mock"),
+																			  OSTarget.Unix,
+																			  ScriptType.InProcessRemoteDeploy,
+																			  Collections.emptyMap(),
+																			  Collections.emptySet(),
+																			  Collections.singleton("uk.co.devworx"));
+		gen.setDeployConcurrency(3);
+
+		final Path outputPath = Paths.get("target", "RepositoryDeployerTest-" + UUID.randomUUID());
+		gen.generateScript(outputPath, writeSettings(outputPath), repositoryUrl, "MyRepositoryId");
+
+		final String base = "uk/co/devworx/impala-query-parser/1.0-SNAPSHOT/impala-query-parser-1.0-SNAPSHOT";
+		final Set<String> expected = new HashSet<>();
+		for (String suffix : new String[] { ".jar", "-sources.jar", ".pom" })
+		{
+			expected.add(base + suffix);
+			expected.add(base + suffix + ".sha1");
+			expected.add(base + suffix + ".md5");
+		}
+		expected.add(metadataPath);
+		expected.add("uk/co/devworx/o-browser/1.0-SNAPSHOT/o-browser-1.0-SNAPSHOT.war");
+		Assertions.assertTrue(stored.keySet().containsAll(expected), "Missing : " + expected + " in " + stored.keySet());
+
+		final Path stagedJar = outputPath.resolve("repository-staging").resolve(base + ".jar");
+		Assertions.assertArrayEquals(Files.readAllBytes(stagedJar), stored.get(base + ".jar"));
+
+		final String metadata = new String(stored.get(metadataPath), StandardCharsets.UTF_8);
+		Assertions.assertTrue(metadata.contains("<version>0.9</version>"));
+		Assertions.assertTrue(metadata.contains("<version>1.0-SNAPSHOT</version>"));
+	}
+
+	@Test
+	public void testClientErrorsAreNotRetried() throws Exception
+	{
+		final Path outputPath = Paths.get("target", "RepositoryDeployerTest-" + UUID.randomUUID());
+		Files.createDirectories(outputPath.resolve("g/a/1.0"));
+		Files.write(outputPath.resolve("g/a/1.0/a-1.0.pom"), new byte[] { 1, 2, 3 });
+		final List<Path> versionDirs = Collections.singletonList(outputPath.resolve("g/a/1.0"));
+
+		final RepositoryDeployer deployer = new RepositoryDeployer(repositoryUrl);
+		deployer.setRetry(5, 1);
+		final RuntimeException e = Assertions.assertThrows(RuntimeException.class, () -> deployer.uploadArtifacts(outputPath, versionDirs, versionDir -> {}));
+		Assertions.assertTrue(e.getMessage().contains("401"), e.getMessage());
+		Assertions.assertEquals(0, deployer.getRetryCount());
+
+		Assertions.assertTrue(deployer.setCredentialsFromSettings(writeSettings(outputPath), "MyRepositoryId"));
+		deployer.uploadArtifacts(outputPath, versionDirs, versionDir -> {});
+		Assertions.assertArrayEquals(new byte[] { 1, 2, 3 }, stored.get("g/a/1.0/a-1.0.pom"));
+		Assertions.assertEquals(Collections.singleton("g/a/1.0/a-1.0.pom"), stored.keySet());
+	}
+
+	@Test
+	public void testArtifactMetadataIsUploadedOnceAfterAllVersions() throws Exception
+	{
+		final Path stagingRoot = Paths.get("target", "RepositoryDeployerTest-" + UUID.randomUUID());
+		final Path artifactDir = stagingRoot.resolve("g/a");
+		final List<Path> versionDirs = Arrays.asList(artifactDir.resolve("1.0"), artifactDir.resolve("2.0"), artifactDir.resolve("3.0"));
+		for (Path versionDir : versionDirs)
+		{
+			Files.createDirectories(versionDir);
+			Files.write(versionDir.resolve("a-" + versionDir.getFileName() + ".jar"), new byte[] { 1, 2, 3 });
+			Files.write(versionDir.resolve("a-" + versionDir.getFileName() + ".pom"), new byte[] { 4, 5, 6 });
+		}
+		Files.write(artifactDir.resolve("maven-metadata.xml"), "<metadata/>".getBytes(StandardCharsets.UTF_8));
+		Files.write(artifactDir.resolve("maven-metadata.xml.sha1"), "0".getBytes(StandardCharsets.UTF_8));
+
+		final RepositoryDeployer deployer = new RepositoryDeployer(repositoryUrl);
+		deployer.setCredentials("deployer", "secret");
+		deployer.setConcurrency(3);
+		deployer.setRetry(3, 1);
+		final List<Path> uploaded = Collections.synchronizedList(new ArrayList<>());
+		deployer.uploadArtifacts(stagingRoot, versionDirs, uploaded::add);
+
+		Assertions.assertEquals(versionDirs, uploaded);
+		Assertions.assertEquals(8, puts.size(), puts.toString());
+		Assertions.assertEquals(Arrays.asList("g/a/maven-metadata.xml", "g/a/maven-metadata.xml.sha1"), puts.subList(6, 8));
+	}
+}
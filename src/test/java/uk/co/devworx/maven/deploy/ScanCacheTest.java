@@ -0,0 +1,182 @@
+package uk.co.devworx.maven.deploy;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.zip.ZipException;
+
+public class ScanCacheTest
+{
+	private final Path jarRootScanDirectory = Paths.get("src/test/resources/mock");
+
+	private GenerateMavenDeployScripts newGenerator(ScanCache scanCache)
+	{
+		GenerateMavenDeployScripts gen = new GenerateMavenDeployScripts(jarRootScanDirectory,
+																		OSTarget.Unix,
+																		ScriptType.LocalRepoInstall,
+																		Collections.emptyMap(),
+																		Collections.emptySet(),
+																		Collections.emptySet());
+		gen.setScanCache(scanCache);
+		return gen;
+	}
+
+	@Test
+	public void testCachedScanMatchesFullScan() throws Exception
+	{
+		final Path cacheFile = Paths.get("target", "ScanCacheTest-" + UUID.randomUUID() + ".bin");
+
+		final ScanCache firstCache = ScanCache.open(cacheFile);
+		final List<PomFileExtract> fullScan = newGenerator(firstCache).getPomFileExtracts();
+		Assertions.assertEquals(0, firstCache.getHitCount());
+		Assertions.assertTrue(Files.exists(cacheFile));
+
+		final ScanCache secondCache = ScanCache.open(cacheFile);
+		Assertions.assertEquals(firstCache.size(), secondCache.size());
+
+		final List<PomFileExtract> cachedScan = newGenerator(secondCache).getPomFileExtracts();
+		Assertions.assertEquals(0, secondCache.getMissCount());
+		Assertions.assertEquals(firstCache.size(), secondCache.getHitCount());
+
+		Assertions.assertEquals(fullScan.size(), cachedScan.size());
+		for (int i = 0; i < fullScan.size(); i++)
+		{
+			PomFileExtract full = fullScan.get(i);
+			PomFileExtract cached = cachedScan.get(i);
+			Assertions.assertEquals(full.getJarOrWarFile(), cached.getJarOrWarFile());
+			Assertions.assertEquals(full.getSourceJarFile(), cached.getSourceJarFile());
+			Assertions.assertEquals(full.getGroupId(), cached.getGroupId());
+			Assertions.assertEquals(full.getArtefactId(), cached.getArtefactId());
+			Assertions.assertEquals(full.getVersionId(), cached.getVersionId());
+			Assertions.assertEquals(full.getPomFileExtractType(), cached.getPomFileExtractType());
+			Assertions.assertEquals(full.getParentCoordinates(), cached.getParentCoordinates());
+			Assertions.assertEquals(full.getDependencies().toString(), cached.getDependencies().toString());
+			Assertions.assertArrayEquals(full.getPomFileData(), cached.getPomFileData());
+		}
+	}
+
+	@Test
+	public void testSourcesJarIsCheckedOnEveryScan() throws Exception
+	{
+		final Path scanRoot = Paths.get("target", "ScanCacheTest-" + UUID.randomUUID(), "scan");
+		final Path jar = jarRootScanDirectory.resolve("mock-jars/uk/co/devworx/impala-query-parser/1.0-SNAPSHOT/impala-query-parser-1.0-SNAPSHOT.jar");
+		Files.createDirectories(scanRoot);
+		final Path copy = Files.copy(jar, scanRoot.resolve(jar.getFileName()));
+		final Path sourcesJar = PomFileExtract.sourceJarFileFor(copy);
+
+		final ScanCache cache = ScanCache.open(scanRoot.resolveSibling("cache.bin"));
+		Assertions.assertFalse(PomFileExtract.fromCache(copy, record(cache, copy)).getSourceJarFile().isPresent());
+
+		//Added after the scan that cached the jar.
+		Files.copy(PomFileExtract.sourceJarFileFor(jar), sourcesJar);
+		Assertions.assertEquals(Optional.of(sourcesJar), PomFileExtract.fromCache(copy, record(cache, copy)).getSourceJarFile());
+
+		//Deleted after it.
+		final ScanCache.Entry withSources = record(cache, copy);
+		Files.delete(sourcesJar);
+		Assertions.assertFalse(PomFileExtract.fromCache(copy, withSources).getSourceJarFile().isPresent());
+	}
+
+	@Test
+	public void testTornPathIsDroppedAndTheFileRewritten() throws Exception
+	{
+		final Path cacheFile = writeCache(3);
+		//A record cut off inside its path - the length says 20 bytes, only 5 follow.
+		Files.write(cacheFile, new byte[] { 0, 20, 'a', 'b', 'c', 'd', 'e' }, StandardOpenOption.APPEND);
+		assertRecoversWith(cacheFile, 3);
+	}
+
+	@Test
+	public void testGarbageRecordsAreDroppedAndTheFileRewritten() throws Exception
+	{
+		final Path cacheFile = writeCache(2);
+		//A whole path, then an entry with an unknown type byte.
+		final ByteArrayOutputStream garbage = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(garbage))
+		{
+			out.writeUTF("/garbage.jar");
+			out.writeLong(1);
+			out.writeLong(2);
+			out.writeByte(9);
+			out.write(new byte[] { (byte) 0xC0, (byte) 0xFF, 0x7F, 0x00, 0x11 });
+		}
+		Files.write(cacheFile, garbage.toByteArray(), StandardOpenOption.APPEND);
+		assertRecoversWith(cacheFile, 2);
+	}
+
+	/**
+	 * @return a cache file holding the given number of (skipped file) records.
+	 */
+	private static Path writeCache(int records)
+	{
+		final Path cacheFile = Paths.get("target", "ScanCacheTest-" + UUID.randomUUID() + ".bin");
+		final ScanCache cache = ScanCache.open(cacheFile);
+		for (int i = 0; i < records; i++)
+		{
+			cache.record(Paths.get("/scan/file-" + i + ".jar"), ScanCache.Entry.skipped(i, i, "not an artifact"));
+		}
+		cache.flush();
+		return cacheFile;
+	}
+
+	private static void assertRecoversWith(Path cacheFile, int records)
+	{
+		final ScanCache damaged = ScanCache.open(cacheFile);
+		Assertions.assertEquals(records, damaged.size());
+		Assertions.assertTrue(damaged.lookup(Paths.get("/scan/file-0.jar"), 0, 0).isPresent());
+
+		//The next flush writes the file out afresh, rather than appending after the damage.
+		damaged.record(Paths.get("/scan/new.jar"), ScanCache.Entry.skipped(7, 7, "not an artifact"));
+		damaged.flush();
+		final ScanCache reopened = ScanCache.open(cacheFile);
+		Assertions.assertEquals(records + 1, reopened.size());
+		Assertions.assertTrue(reopened.lookup(Paths.get("/scan/new.jar"), 7, 7).isPresent());
+	}
+
+	private static ScanCache.Entry record(ScanCache cache, Path jar) throws Exception
+	{
+		final ScanCache.Entry entry = ScanCache.Entry.of(Files.size(jar), Files.getLastModifiedTime(jar).toMillis(), PomFileExtract.create(Optional.of(jar), Optional.empty()));
+		cache.record(jar, entry);
+		return entry;
+	}
+
+	@Test
+	public void testOnlyUnparseableFilesAreCachedAsSkipped() throws Exception
+	{
+		Assertions.assertTrue(ScanCache.isPermanentSkip(new RuntimeException("Could not extract a pom.xml file")));
+		Assertions.assertTrue(ScanCache.isPermanentSkip(new RuntimeException("Unable to read", new ZipException("not a zip file"))));
+		Assertions.assertFalse(ScanCache.isPermanentSkip(new RuntimeException("Unable to read", new FileSystemException("locked.jar"))));
+
+		//A file that cannot be read is tried again on the next scan - it is not recorded.
+		final Path scanRoot = Paths.get("target", "ScanCacheTest-" + UUID.randomUUID(), "scan");
+		Files.createDirectories(scanRoot.resolve("broken/1.0"));
+		Files.createDirectories(scanRoot.resolve("unreadable/1.0"));
+		Files.write(scanRoot.resolve("broken/1.0/broken-1.0.jar"), new byte[] { 1, 2, 3 });
+		final Path unreadable = Files.write(scanRoot.resolve("unreadable/1.0/unreadable-1.0.jar"), new byte[] { 1, 2, 3 });
+		final boolean madeUnreadable = unreadable.toFile().setReadable(false) && Files.isReadable(unreadable) == false;
+
+		final ScanCache cache = ScanCache.open(scanRoot.resolveSibling("cache.bin"));
+		final GenerateMavenDeployScripts gen = new GenerateMavenDeployScripts(scanRoot,
+																			  OSTarget.Unix,
+																			  ScriptType.LocalRepoInstall,
+																			  Collections.emptyMap(),
+																			  Collections.emptySet(),
+																			  Collections.emptySet());
+		gen.setScanCache(cache);
+		Assertions.assertTrue(gen.getPomFileExtracts().isEmpty());
+		Assertions.assertEquals(madeUnreadable ? 1 : 2, cache.size());
+		unreadable.toFile().setReadable(true);
+	}
+
+}
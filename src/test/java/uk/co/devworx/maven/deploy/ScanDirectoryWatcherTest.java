@@ -0,0 +1,205 @@
+package uk.co.devworx.maven.deploy;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class ScanDirectoryWatcherTest
+{
+	private final Path jarRootScanDirectory = Paths.get("src/test/resources/mock");
+
+	@Test
+	public void testNewFilesAreAppendedToTheScript() throws Exception
+	{
+		final Path testDir = Paths.get("target", "ScanDirectoryWatcherTest-" + UUID.randomUUID()).toAbsolutePath();
+		final Path scanRoot = testDir.resolve("scan");
+		final Path outputPath = testDir.resolve("output");
+		final Path script = outputPath.resolve("000-execute-maven-script.sh");
+		copyDirectory(jarRootScanDirectory.resolve("mock-jars"), scanRoot.resolve("mock-jars"));
+
+		final GenerateMavenDeployScripts gen = new GenerateMavenDeployScripts(scanRoot,
+																			  OSTarget.Unix,
+																			  ScriptType.LocalRepoInstall,
+																			  Collections.singletonMap("uk.co.devworx", "group-id-replaced"),
+																			  Collections.emptySet(),
+																			  Collections.singleton("uk.co.devworx"));
+		final ScanDirectoryWatcher watcher = new ScanDirectoryWatcher(gen, outputPath, outputPath.resolve("settings.xml"), "https://my.repo/example/maven2", "MyRepositoryId");
+		watcher.setDebounceMillis(200);
+		final Thread watching = new Thread(watcher::run);
+		watching.start();
+		try
+		{
+			Assertions.assertTrue(waitFor(script, "impala-query-parser-1.0-SNAPSHOT.jar"));
+
+			//Dropped in as a whole tree - the new directories are watched, and the files already in them picked up.
+			final Path dropped = testDir.resolve("drop");
+			copyDirectory(jarRootScanDirectory.resolve("mock-wars"), dropped);
+			Files.move(dropped, scanRoot.resolve("mock-wars"));
+
+			Assertions.assertTrue(waitFor(script, "o-browser-1.0-SNAPSHOT.war"));
+		}
+		finally
+		{
+			watcher.close();
+			watching.join(10_000);
+		}
+		Assertions.assertFalse(watching.isAlive());
+
+		final String content = new String(Files.readAllBytes(script), StandardCharsets.UTF_8);
+		Assertions.assertEquals(1, count(content, "-impala-query-parser-1.0-SNAPSHOT.jar\""));
+		Assertions.assertEquals(1, count(content, "-o-browser-1.0-SNAPSHOT.war\""));
+		//Numbered on from the first scan.
+		Assertions.assertTrue(content.contains("002-o-browser-1.0-SNAPSHOT.war"));
+	}
+
+	@Test
+	public void testChildArrivingBeforeItsParentIsStagedOnceTheParentArrives() throws Exception
+	{
+		final Path testDir = Paths.get("target", "ScanDirectoryWatcherTest-" + UUID.randomUUID()).toAbsolutePath();
+		final Path scanRoot = testDir.resolve("scan");
+		final Path outputPath = testDir.resolve("output");
+		final Path script = outputPath.resolve("000-execute-maven-script.sh");
+		Files.createDirectories(scanRoot);
+
+		//Only the child is wanted - and its group is only known once the parent has arrived.
+		final GenerateMavenDeployScripts gen = new GenerateMavenDeployScripts(scanRoot,
+																			  OSTarget.Unix,
+																			  ScriptType.LocalRepoInstall,
+																			  Collections.emptyMap(),
+																			  Collections.emptySet(),
+																			  Collections.singleton("org.corp.child"));
+		final ScanDirectoryWatcher watcher = new ScanDirectoryWatcher(gen, outputPath, outputPath.resolve("settings.xml"), "https://my.repo/example/maven2", "MyRepositoryId");
+		watcher.setDebounceMillis(200);
+		final Thread watching = new Thread(watcher::run);
+		watching.start();
+		try
+		{
+			Assertions.assertTrue(waitFor(script, ""));
+
+			drop(testDir, scanRoot.resolve("org/corp/child/child/7.1/child-7.1.pom"),
+				 "<project><modelVersion>4.0.0</modelVersion>" +
+				 "<parent><groupId>org.corp</groupId><artifactId>parent</artifactId><version>1.0</version></parent>" +
+				 "<groupId>${child.group}</groupId><artifactId>child</artifactId><version>7.1</version><packaging>pom</packaging></project>");
+			Thread.sleep(1_000);
+			Assertions.assertFalse(new String(Files.readAllBytes(script), StandardCharsets.UTF_8).contains("child-7.1.pom"));
+
+			drop(testDir, scanRoot.resolve("org/corp/parent/1.0/parent-1.0.pom"),
+				 "<project><modelVersion>4.0.0</modelVersion>" +
+				 "<groupId>org.corp</groupId><artifactId>parent</artifactId><version>1.0</version><packaging>pom</packaging>" +
+				 "<properties><child.group>org.corp.child</child.group></properties></project>");
+			Assertions.assertTrue(waitFor(script, "child-7.1.pom"));
+		}
+		finally
+		{
+			watcher.close();
+			watching.join(10_000);
+		}
+		Assertions.assertFalse(watching.isAlive());
+	}
+
+	@Test
+	public void testSourcesJarArrivingAfterItsJarStagesTheJarAgain() throws Exception
+	{
+		final Path testDir = Paths.get("target", "ScanDirectoryWatcherTest-" + UUID.randomUUID()).toAbsolutePath();
+		final Path scanRoot = testDir.resolve("scan");
+		final Path outputPath = testDir.resolve("output");
+		final Path script = outputPath.resolve("000-execute-maven-script.sh");
+		copyDirectory(jarRootScanDirectory.resolve("mock-jars"), scanRoot.resolve("mock-jars"));
+		final Path sourcesJar = scanRoot.resolve("mock-jars/uk/co/devworx/impala-query-parser/1.0-SNAPSHOT/impala-query-parser-1.0-SNAPSHOT-sources.jar");
+		final Path heldBack = testDir.resolve("held-back-sources.jar");
+		Files.move(sourcesJar, heldBack);
+
+		final GenerateMavenDeployScripts gen = new GenerateMavenDeployScripts(scanRoot,
+																			  OSTarget.Unix,
+																			  ScriptType.LocalRepoInstall,
+																			  Collections.emptyMap(),
+																			  Collections.emptySet(),
+																			  Collections.singleton("uk.co.devworx"));
+		final ScanDirectoryWatcher watcher = new ScanDirectoryWatcher(gen, outputPath, outputPath.resolve("settings.xml"), "https://my.repo/example/maven2", "MyRepositoryId");
+		watcher.setDebounceMillis(200);
+		final Thread watching = new Thread(watcher::run);
+		watching.start();
+		try
+		{
+			Assertions.assertTrue(waitFor(script, "001-impala-query-parser-1.0-SNAPSHOT.jar"));
+			Assertions.assertFalse(new String(Files.readAllBytes(script), StandardCharsets.UTF_8).contains("-sources.jar"));
+
+			Files.move(heldBack, sourcesJar);
+			Assertions.assertTrue(waitFor(script, "002-impala-query-parser-1.0-SNAPSHOT-sources.jar"));
+		}
+		finally
+		{
+			watcher.close();
+			watching.join(10_000);
+		}
+		Assertions.assertFalse(watching.isAlive());
+		final String content = new String(Files.readAllBytes(script), StandardCharsets.UTF_8);
+		Assertions.assertEquals(1, count(content, "-Dfile=\"" + outputPath.resolve("002-impala-query-parser-1.0-SNAPSHOT.jar") + "\""));
+	}
+
+	/**
+	 * Writes the file elsewhere and moves it in - so the watcher never sees it half written.
+	 */
+	private static void drop(Path testDir, Path file, String content) throws IOException
+	{
+		final Path temp = testDir.resolve(UUID.randomUUID().toString());
+		Files.write(temp, content.getBytes(StandardCharsets.UTF_8));
+		Files.createDirectories(file.getParent());
+		Files.move(temp, file);
+	}
+
+	private static boolean waitFor(Path script, String text) throws Exception
+	{
+		final long deadline = System.currentTimeMillis() + 20_000;
+		while (System.currentTimeMillis() < deadline)
+		{
+			if (Files.exists(script) && new String(Files.readAllBytes(script), StandardCharsets.UTF_8).contains(text))
+			{
+				return true;
+			}
+			Thread.sleep(100);
+		}
+		return false;
+	}
+
+	private static int count(String content, String text)
+	{
+		int count = 0;
+		for (int i = content.indexOf(text); i != -1; i = content.indexOf(text, i + 1))
+		{
+			count++;
+		}
+		return count;
+	}
+
+	private static void copyDirectory(Path from, Path to) throws IOException
+	{
+		final List<Path> files;
+		try (Stream<Path> walk = Files.walk(from))
+		{
+			files = walk.collect(Collectors.toList());
+		}
+		for (Path file : files)
+		{
+			final Path target = to.resolve(from.relativize(file).toString());
+			if (Files.isDirectory(file))
+			{
+				Files.createDirectories(target);
+			}
+			else
+			{
+				Files.copy(file, target);
+			}
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package uk.co.devworx.maven.deploy;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+public class ScriptSharderTest
+{
+	private static final Path WAR_LOCATION = Paths.get("src/test/resources/mock/mock-wars/uk/co/devworx/o-browser/1.0-SNAPSHOT/o-browser-1.0-SNAPSHOT.war");
+
+	@Test
+	public void testShardsAreBalancedByBytes()
+	{
+		final long[] sizes = { 10, 100, 20, 70, 30, 40 };
+		final Map<PomFileExtract, Long> sizeOf = new IdentityHashMap<>();
+		final List<PomFileExtract> planOrder = new ArrayList<>();
+		for (long size : sizes)
+		{
+			final PomFileExtract extract = PomFileExtract.create(Optional.of(WAR_LOCATION), Optional.empty());
+			sizeOf.put(extract, size);
+			planOrder.add(extract);
+		}
+
+		final List<List<Integer>> shards = ScriptSharder.assign(planOrder, 2, sizeOf::get);
+		Assertions.assertEquals(3, shards.size());
+		Assertions.assertTrue(shards.get(0).isEmpty());
+
+		// 100 | 70 + 40 | then 30 -> 130 | 20 -> 130 | 10 goes to the first of the equal shards
+		Assertions.assertEquals(Arrays.asList(0, 1, 4), shards.get(1));
+		Assertions.assertEquals(Arrays.asList(2, 3, 5), shards.get(2));
+	}
+
+}
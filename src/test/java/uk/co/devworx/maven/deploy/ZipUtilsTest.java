@@ -3,15 +3,20 @@ package uk.co.devworx.maven.deploy;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 public class ZipUtilsTest
 {
@@ -76,6 +81,118 @@ public class ZipUtilsTest
 
 	}
 
+	@Test
+	public void testRewriteJar() throws Exception
+	{
+		String rndVal = UUID.randomUUID().toString();
+
+		Path tmpTarget = Paths.get("target/" + rndVal + ".jar");
+		Path tmpTargetExtr = Paths.get("target/" + rndVal);
+
+		Files.createDirectories(tmpTargetExtr);
+
+		Map<String, String> grpReplace = new HashMap<>();
+		grpReplace.put("dummy-pre-group-id", "dummy-post-group-id");
+
+		ZipUtils.rewriteJar(Paths.get(JAR_LOCATION), tmpTarget, grpReplace);
+		ZipUtils.extractZip(Files.newInputStream(tmpTarget), tmpTargetExtr);
+
+		Path metaInf = tmpTargetExtr.resolve("META-INF/MANIFEST.MF");
+		Path mavenDir = tmpTargetExtr.resolve("META-INF/maven");
+		Path pluginXml = tmpTargetExtr.resolve("META-INF/maven/plugin.xml");
+
+		Assertions.assertEquals(true, Files.exists(metaInf));
+		Assertions.assertEquals(true, Files.exists(pluginXml));
+
+		List<Path> mvnDirList = Files.list(mavenDir).filter(p -> Files.isDirectory(p)).collect(Collectors.toList());
+		Assertions.assertEquals( 0, mvnDirList.size(), "The maven sub-dir in the JAR cannot contain any directories.");
+
+		final String pluginXmlData = new String(Files.readAllBytes(pluginXml));
 
+		Assertions.assertTrue(pluginXmlData.contains("dummy-post-group-id"));
+		Assertions.assertFalse(pluginXmlData.contains("dummy-pre-group-id"));
+	}
+
+	@Test
+	public void testRewriteJarCopiesUntouchedEntriesRaw() throws Exception
+	{
+		Path tmpTarget = Paths.get("target/" + UUID.randomUUID() + ".jar");
+		Path tmpTargetStreamed = Paths.get("target/" + UUID.randomUUID() + ".jar");
+
+		Map<String, String> grpReplace = new HashMap<>();
+		grpReplace.put("dummy-pre-group-id", "dummy-post-group-id");
+
+		ZipUtils.rewriteJar(Paths.get(JAR_LOCATION), tmpTarget, grpReplace);
+		ZipUtils.rewriteJarStreaming(Paths.get(JAR_LOCATION), tmpTargetStreamed, new GroupIdRewriter(grpReplace));
+
+		try (ZipFile source = new ZipFile(JAR_LOCATION);
+			 ZipFile rewritten = new ZipFile(tmpTarget.toFile());
+			 ZipFile streamed = new ZipFile(tmpTargetStreamed.toFile()))
+		{
+			final List<String> rewrittenNames = rewritten.stream().map(ZipEntry::getName).collect(Collectors.toList());
+			final List<String> streamedNames = streamed.stream().map(ZipEntry::getName).collect(Collectors.toList());
+			Assertions.assertEquals(streamedNames, rewrittenNames);
+
+			for (String name : new String[] { "META-INF/MANIFEST.MF", "log4j2.xml" })
+			{
+				ZipEntry sourceEntry = source.getEntry(name);
+				ZipEntry rewrittenEntry = rewritten.getEntry(name);
+				Assertions.assertEquals(sourceEntry.getCompressedSize(), rewrittenEntry.getCompressedSize());
+				Assertions.assertEquals(sourceEntry.getCrc(), rewrittenEntry.getCrc());
+				try (InputStream a = source.getInputStream(sourceEntry); InputStream b = rewritten.getInputStream(rewrittenEntry))
+				{
+					Assertions.assertArrayEquals(readAll(a), readAll(b));
+				}
+			}
+
+			try (InputStream ins = rewritten.getInputStream(rewritten.getEntry("META-INF/maven/plugin.xml")))
+			{
+				final String pluginXmlData = new String(readAll(ins));
+				Assertions.assertTrue(pluginXmlData.contains("dummy-post-group-id"));
+			}
+		}
+	}
+
+	@Test
+	public void testGetEmbeddedPomData() throws Exception
+	{
+		final Optional<EmbeddedPomData> embeddedOpt = ZipUtils.getEmbeddedPomData(Paths.get(JAR_LOCATION));
+		Assertions.assertTrue(embeddedOpt.isPresent());
+
+		final EmbeddedPomData embedded = embeddedOpt.get();
+		Assertions.assertEquals("META-INF/maven/uk.co.devworx/impala-query-parser/", embedded.getEntryDirectory());
+
+		try (ZipFile source = new ZipFile(JAR_LOCATION);
+			 InputStream ins = source.getInputStream(source.getEntry("META-INF/maven/uk.co.devworx/impala-query-parser/pom.xml")))
+		{
+			Assertions.assertArrayEquals(readAll(ins), embedded.getPomFileData());
+		}
+
+		Assertions.assertTrue(embedded.getPomProperties().isPresent());
+		Assertions.assertEquals("impala-query-parser", embedded.getPomProperties().get().getProperty("artifactId"));
+		Assertions.assertEquals("1.0-SNAPSHOT", embedded.getPomProperties().get().getProperty("version"));
+	}
+
+	@Test
+	public void testIsEmbeddedPomEntry()
+	{
+		Assertions.assertTrue(ZipUtils.isEmbeddedPomEntry("META-INF/maven/uk.co.devworx/impala-query-parser/pom.xml"));
+		Assertions.assertFalse(ZipUtils.isEmbeddedPomEntry("META-INF/maven/uk.co.devworx/pom.xml"));
+		Assertions.assertFalse(ZipUtils.isEmbeddedPomEntry("META-INF/maven/uk.co.devworx/a/b/pom.xml"));
+		Assertions.assertFalse(ZipUtils.isEmbeddedPomEntry("META-INF/maven//a/pom.xml"));
+		Assertions.assertFalse(ZipUtils.isEmbeddedPomEntry("META-INF/maven/uk.co.devworx/impala-query-parser/pom.properties"));
+	}
+
+	private static byte[] readAll(InputStream ins) throws Exception
+	{
+		ByteArrayOutputStream bous = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int len;
+		while ((len = ins.read(buffer)) > 0)
+		{
+			bous.write(buffer, 0, len);
+		}
+		return bous.toByteArray();
+	}
 
 }